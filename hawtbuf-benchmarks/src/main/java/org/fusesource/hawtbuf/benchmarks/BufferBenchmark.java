@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the core {@link Buffer} operations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+
+    @Param({"16", "256", "4096", "65536"})
+    int size;
+
+    Buffer value;
+    Buffer equalValue;
+    Buffer greaterValue;
+    Buffer needle;
+    Buffer separated;
+
+    @Setup
+    public void setup() {
+        value = new Buffer(Data.bytes(size));
+        equalValue = value.deepCopy();
+        greaterValue = value.deepCopy();
+        greaterValue.data[size - 1]++;
+        // only found at the very end.
+        needle = value.slice(size - 8, size).deepCopy();
+
+        byte[] data = Data.bytes(size);
+        for (int i = 0; i < size; i += 32) {
+            data[i] = ',';
+        }
+        separated = new Buffer(data);
+    }
+
+    @Benchmark
+    public boolean bufferEquals() {
+        return value.equals(equalValue);
+    }
+
+    @Benchmark
+    public int bufferCompareTo() {
+        return value.compareTo(greaterValue);
+    }
+
+    @Benchmark
+    public int bufferIndexOf() {
+        return value.indexOf(needle);
+    }
+
+    @Benchmark
+    public int bufferHashCode() {
+        return value.hashCode();
+    }
+
+    @Benchmark
+    public Buffer[] bufferSplit() {
+        return separated.split((byte) ',');
+    }
+
+    @Benchmark
+    public Buffer bufferDeepCopy() {
+        return value.deepCopy();
+    }
+}
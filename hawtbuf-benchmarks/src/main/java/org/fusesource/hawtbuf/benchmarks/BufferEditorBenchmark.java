@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.BufferEditor;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the big and little endian {@link BufferEditor}s.  Every
+ * invocation fills or reads the whole buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferEditorBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    int size;
+
+    @Param({"big", "little"})
+    String order;
+
+    byte[] data;
+    Buffer cursor;
+    BufferEditor editor;
+
+    @Setup
+    public void setup() {
+        data = Data.bytes(size);
+        cursor = new Buffer(data);
+        editor = "big".equals(order) ? BufferEditor.big(cursor) : BufferEditor.little(cursor);
+    }
+
+    private void rewind() {
+        cursor.offset = 0;
+        cursor.length = size;
+    }
+
+    @Benchmark
+    public int writeInt() {
+        rewind();
+        int count = size / 4;
+        for (int i = 0; i < count; i++) {
+            editor.writeInt(i);
+        }
+        return cursor.offset;
+    }
+
+    @Benchmark
+    public int readInt() {
+        rewind();
+        int count = size / 4;
+        int rc = 0;
+        for (int i = 0; i < count; i++) {
+            rc += editor.readInt();
+        }
+        return rc;
+    }
+
+    @Benchmark
+    public int writeLong() {
+        rewind();
+        int count = size / 8;
+        for (int i = 0; i < count; i++) {
+            editor.writeLong(i);
+        }
+        return cursor.offset;
+    }
+
+    @Benchmark
+    public long readLong() {
+        rewind();
+        int count = size / 8;
+        long rc = 0;
+        for (int i = 0; i < count; i++) {
+            rc += editor.readLong();
+        }
+        return rc;
+    }
+
+    @Benchmark
+    public double readDouble() {
+        rewind();
+        int count = size / 8;
+        double rc = 0;
+        for (int i = 0; i < count; i++) {
+            rc += editor.readDouble();
+        }
+        return rc;
+    }
+}
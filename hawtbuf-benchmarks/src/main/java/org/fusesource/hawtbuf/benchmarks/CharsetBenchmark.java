@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.hawtbuf.AsciiBuffer;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks converting between Strings and {@link AsciiBuffer}/{@link UTF8Buffer}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharsetBenchmark {
+
+    @Param({"16", "256", "4096"})
+    int size;
+
+    String ascii;
+    String unicode;
+    Buffer asciiEncoded;
+    Buffer unicodeEncoded;
+
+    @Setup
+    public void setup() {
+        ascii = Data.ascii(size);
+        unicode = Data.unicode(size);
+        asciiEncoded = new Buffer(AsciiBuffer.encode(ascii));
+        unicodeEncoded = new Buffer(UTF8Buffer.encode(unicode));
+    }
+
+    @Benchmark
+    public AsciiBuffer asciiEncode() {
+        return new AsciiBuffer(ascii);
+    }
+
+    @Benchmark
+    public String asciiDecode() {
+        return AsciiBuffer.decode(asciiEncoded);
+    }
+
+    @Benchmark
+    public UTF8Buffer utf8Encode() {
+        return new UTF8Buffer(unicode);
+    }
+
+    @Benchmark
+    public String utf8Decode() {
+        return UTF8Buffer.decode(unicodeEncoded);
+    }
+
+    @Benchmark
+    public int asciiHashCode() {
+        // a fresh buffer so the cached hash code is not used.
+        return new AsciiBuffer(asciiEncoded).hashCode();
+    }
+}
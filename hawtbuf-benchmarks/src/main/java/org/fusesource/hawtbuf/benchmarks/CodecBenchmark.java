@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.hawtbuf.AsciiBuffer;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.fusesource.hawtbuf.UTF8Buffer;
+import org.fusesource.hawtbuf.codec.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks encoding and decoding a value with every codec in the
+ * <code>org.fusesource.hawtbuf.codec</code> package.  The <code>size</code>
+ * parameter is ignored by the fixed size number codecs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({
+        "Buffer", "AsciiBuffer", "UTF8Buffer", "FixedBuffer", "Bytes", "String", "Object",
+        "Integer", "Long", "VarInteger", "VarLong", "VarSignedInteger", "VarSignedLong",
+        "CompressingLZ4", "CompressingDeflate"
+    })
+    String codecName;
+
+    @Param({"16", "256", "4096"})
+    int size;
+
+    Codec<Object> codec;
+    Object value;
+    DataByteArrayOutputStream out;
+    DataByteArrayInputStream in;
+    Buffer encoded;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        Codec<?> c;
+        Object v;
+        if ("Buffer".equals(codecName)) {
+            c = BufferCodec.INSTANCE;
+            v = new Buffer(Data.bytes(size));
+        } else if ("AsciiBuffer".equals(codecName)) {
+            c = AsciiBufferCodec.INSTANCE;
+            v = new AsciiBuffer(Data.ascii(size));
+        } else if ("UTF8Buffer".equals(codecName)) {
+            c = UTF8BufferCodec.INSTANCE;
+            v = new UTF8Buffer(Data.unicode(size));
+        } else if ("FixedBuffer".equals(codecName)) {
+            c = new FixedBufferCodec(size);
+            v = new Buffer(Data.bytes(size));
+        } else if ("Bytes".equals(codecName)) {
+            c = BytesCodec.INSTANCE;
+            v = Data.bytes(size);
+        } else if ("String".equals(codecName)) {
+            c = StringCodec.INSTANCE;
+            v = Data.unicode(size);
+        } else if ("Object".equals(codecName)) {
+            c = new ObjectCodec<Object>();
+            v = Data.unicode(size);
+        } else if ("Integer".equals(codecName)) {
+            c = IntegerCodec.INSTANCE;
+            v = size * 0x01010101;
+        } else if ("Long".equals(codecName)) {
+            c = LongCodec.INSTANCE;
+            v = size * 0x0101010101010101L;
+        } else if ("VarInteger".equals(codecName)) {
+            c = VarIntegerCodec.INSTANCE;
+            v = size * 1021;
+        } else if ("VarLong".equals(codecName)) {
+            c = VarLongCodec.INSTANCE;
+            v = size * 0x10101010101L;
+        } else if ("VarSignedInteger".equals(codecName)) {
+            c = VarSignedIntegerCodec.INSTANCE;
+            v = -size * 1021;
+        } else if ("VarSignedLong".equals(codecName)) {
+            c = VarSignedLongCodec.INSTANCE;
+            v = -size * 0x10101010101L;
+        } else if ("CompressingLZ4".equals(codecName)) {
+            c = new CompressingCodec<String>(StringCodec.INSTANCE, 0, CompressingCodec.Algorithm.LZ4);
+            v = Data.unicode(size);
+        } else if ("CompressingDeflate".equals(codecName)) {
+            c = new CompressingCodec<String>(StringCodec.INSTANCE, 0, CompressingCodec.Algorithm.DEFLATE);
+            v = Data.unicode(size);
+        } else {
+            throw new IllegalArgumentException("Unknown codec: " + codecName);
+        }
+        codec = (Codec<Object>) c;
+        value = v;
+
+        out = new DataByteArrayOutputStream(size * 4 + 64);
+        codec.encode(value, out);
+        encoded = out.toBuffer().deepCopy();
+        in = new DataByteArrayInputStream();
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        out.reset();
+        codec.encode(value, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public Object decode() throws IOException {
+        in.restart(encoded);
+        return codec.decode(in);
+    }
+}
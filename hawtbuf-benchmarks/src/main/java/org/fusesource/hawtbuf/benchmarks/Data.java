@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+/**
+ * Creates deterministic benchmark data.
+ */
+final class Data {
+
+    private Data() {
+    }
+
+    /**
+     * @return bytes which never contain a ',' and rarely repeat.
+     */
+    static byte[] bytes(int size) {
+        byte[] rc = new byte[size];
+        int seed = 0x2545F491;
+        for (int i = 0; i < size; i++) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            byte b = (byte) seed;
+            rc[i] = b == ',' ? (byte) 0 : b;
+        }
+        return rc;
+    }
+
+    /**
+     * @return a string made up of only ascii characters.
+     */
+    static String ascii(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return a string which mixes 1, 2 and 3 byte utf-8 characters.
+     */
+    static String unicode(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        char[] chars = new char[]{'h', 'a', 'w', 't', 'ß', 'é', '€', '中'};
+        for (int i = 0; i < size; i++) {
+            sb.append(chars[i % chars.length]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the {@link DataByteArrayOutputStream} and {@link DataByteArrayInputStream}
+ * primitive read and write operations.  Every invocation handles <code>count</code>
+ * values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataStreamBenchmark {
+
+    @Param({"16", "256", "4096"})
+    int count;
+
+    DataByteArrayOutputStream out;
+    DataByteArrayInputStream in;
+    Buffer ints;
+    Buffer longs;
+    Buffer varInts;
+    Buffer utfs;
+    String text;
+    byte[] chunk;
+
+    @Setup
+    public void setup() throws IOException {
+        out = new DataByteArrayOutputStream(count * 32);
+        in = new DataByteArrayInputStream();
+        text = Data.unicode(24);
+        chunk = Data.bytes(64);
+
+        DataByteArrayOutputStream tmp = new DataByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            tmp.writeInt(i * 31);
+        }
+        ints = tmp.toBuffer().deepCopy();
+        tmp.reset();
+        for (int i = 0; i < count; i++) {
+            tmp.writeLong(i * 0x1F1F1F1F1FL);
+        }
+        longs = tmp.toBuffer().deepCopy();
+        tmp.reset();
+        for (int i = 0; i < count; i++) {
+            tmp.writeVarInt(i << (i % 24));
+        }
+        varInts = tmp.toBuffer().deepCopy();
+        tmp.reset();
+        for (int i = 0; i < count; i++) {
+            tmp.writeUTF(text);
+        }
+        utfs = tmp.toBuffer().deepCopy();
+    }
+
+    @Benchmark
+    public int writeInt() throws IOException {
+        out.reset();
+        for (int i = 0; i < count; i++) {
+            out.writeInt(i);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeLong() throws IOException {
+        out.reset();
+        for (int i = 0; i < count; i++) {
+            out.writeLong(i);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeVarInt() throws IOException {
+        out.reset();
+        for (int i = 0; i < count; i++) {
+            out.writeVarInt(i << (i % 24));
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeUTF() throws IOException {
+        out.reset();
+        for (int i = 0; i < count; i++) {
+            out.writeUTF(text);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeBytes() throws IOException {
+        out.reset();
+        for (int i = 0; i < count; i++) {
+            out.write(chunk, 0, chunk.length);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public int readInt() {
+        in.restart(ints);
+        int rc = 0;
+        for (int i = 0; i < count; i++) {
+            rc += in.readInt();
+        }
+        return rc;
+    }
+
+    @Benchmark
+    public long readLong() {
+        in.restart(longs);
+        long rc = 0;
+        for (int i = 0; i < count; i++) {
+            rc += in.readLong();
+        }
+        return rc;
+    }
+
+    @Benchmark
+    public int readVarInt() throws IOException {
+        in.restart(varInts);
+        int rc = 0;
+        for (int i = 0; i < count; i++) {
+            rc += in.readVarInt();
+        }
+        return rc;
+    }
+
+    @Benchmark
+    public int readUTF() throws IOException {
+        in.restart(utfs);
+        int rc = 0;
+        for (int i = 0; i < count; i++) {
+            rc += in.readUTF().length();
+        }
+        return rc;
+    }
+}
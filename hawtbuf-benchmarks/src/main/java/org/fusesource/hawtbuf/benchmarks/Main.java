@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler enabled so that allocation
+ * rates are reported along side the timings.  Accepts all the usual JMH
+ * command line options, passing any <code>-prof</code> option replaces the
+ * default profiler.
+ */
+public class Main {
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<String> options = new ArrayList<String>(Arrays.asList(args));
+        if (!options.contains("-prof") && !options.contains("-l") && !options.contains("-h")) {
+            options.add(0, "-prof");
+            options.add(1, "gc");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+    }
+}
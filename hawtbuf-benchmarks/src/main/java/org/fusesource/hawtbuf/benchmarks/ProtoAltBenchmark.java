@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.benchmarks.proto.alt.Bench.Destination;
+import org.fusesource.hawtbuf.benchmarks.proto.alt.Bench.Envelope;
+import org.fusesource.hawtbuf.benchmarks.proto.alt.Bench.Header;
+import org.fusesource.hawtbuf.benchmarks.proto.alt.Bench.Priority;
+import org.fusesource.hawtbuf.proto.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks messages generated by the hawtbuf <code>AltJavaGenerator</code>.
+ * Parsing only wraps the buffer, fields are decoded on first access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtoAltBenchmark {
+
+    @Param({"0", "8"})
+    int headers;
+
+    @Param({"32", "4096"})
+    int bodySize;
+
+    ProtoData data;
+    Envelope.Buffer message;
+    Buffer framed;
+
+    @Setup
+    public void setup() {
+        data = new ProtoData(headers, bodySize);
+        message = build().freeze();
+        framed = message.toFramedBuffer().deepCopy();
+    }
+
+    @Benchmark
+    public Envelope.Buffer parse() throws InvalidProtocolBufferException {
+        return Envelope.FACTORY.parseFramed(framed);
+    }
+
+    @Benchmark
+    public long lazyAccess() throws InvalidProtocolBufferException {
+        return Envelope.FACTORY.parseFramed(framed).getId();
+    }
+
+    @Benchmark
+    public void fullAccess(Blackhole bh) throws InvalidProtocolBufferException {
+        consume(Envelope.FACTORY.parseFramed(framed), bh);
+    }
+
+    @Benchmark
+    public Envelope.Bean build() {
+        Envelope.Bean rc = new Envelope.Bean();
+        rc.setId(ProtoData.ID);
+        rc.setCorrelationId(ProtoData.CORRELATION_ID);
+        rc.setDestination(new Destination.Bean().setName(ProtoData.DESTINATION).setKind(ProtoData.DESTINATION_KIND));
+        rc.setPriority(Priority.HIGH);
+        rc.setTimestamp(ProtoData.TIMESTAMP);
+        rc.setRedeliveryCount(ProtoData.REDELIVERY_COUNT);
+        rc.setScore(ProtoData.SCORE);
+        rc.setPersistent(true);
+        for (int i = 0; i < data.headerKeys.length; i++) {
+            rc.addHeaders(new Header.Bean().setKey(data.headerKeys[i]).setValue(data.headerValues[i]));
+        }
+        rc.setBody(new Buffer(data.body));
+        for (int i = 0; i < ProtoData.TRACE_COUNT; i++) {
+            rc.addTrace(ProtoData.TIMESTAMP + i);
+        }
+        return rc;
+    }
+
+    @Benchmark
+    public Envelope.Buffer freeze() {
+        return build().freeze();
+    }
+
+    @Benchmark
+    public int buildAndSize() {
+        return build().freeze().serializedSizeFramed();
+    }
+
+    @Benchmark
+    public Buffer writeFramed() {
+        return message.toFramedBuffer();
+    }
+
+    @Benchmark
+    public void roundTrip(Blackhole bh) throws InvalidProtocolBufferException {
+        consume(Envelope.FACTORY.parseFramed(build().freeze().toFramedBuffer()), bh);
+    }
+
+    private static void consume(Envelope.Getter envelope, Blackhole bh) {
+        bh.consume(envelope.getId());
+        bh.consume(envelope.getCorrelationId());
+        bh.consume(envelope.getDestination().getName());
+        bh.consume(envelope.getDestination().getKind());
+        bh.consume(envelope.getPriority());
+        bh.consume(envelope.getTimestamp());
+        bh.consume(envelope.getRedeliveryCount());
+        bh.consume(envelope.getScore());
+        bh.consume(envelope.getPersistent());
+        for (Header.Getter header : envelope.getHeadersList()) {
+            bh.consume(header.getKey());
+            bh.consume(header.getValue());
+        }
+        bh.consume(envelope.getBody());
+        for (Long trace : envelope.getTraceList()) {
+            bh.consume(trace.longValue());
+        }
+    }
+}
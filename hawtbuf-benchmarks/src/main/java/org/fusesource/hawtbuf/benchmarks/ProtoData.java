@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+/**
+ * The field values used to populate the <code>Envelope</code> message in all
+ * the proto benchmarks so that every implementation encodes the same data.
+ */
+final class ProtoData {
+
+    static final long ID = 0x123456789AL;
+    static final String CORRELATION_ID = "correlation-42";
+    static final String DESTINATION = "queue://orders.incoming";
+    static final int DESTINATION_KIND = 1;
+    static final long TIMESTAMP = 1300000000000L;
+    static final int REDELIVERY_COUNT = 3;
+    static final double SCORE = 0.75d;
+    static final int TRACE_COUNT = 4;
+
+    final String[] headerKeys;
+    final String[] headerValues;
+    final byte[] body;
+
+    ProtoData(int headers, int bodySize) {
+        headerKeys = new String[headers];
+        headerValues = new String[headers];
+        for (int i = 0; i < headers; i++) {
+            headerKeys[i] = "header-" + i;
+            headerValues[i] = "value of header " + i;
+        }
+        body = Data.bytes(bodySize);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.benchmarks.proto.hawtbuf.Bench.Destination;
+import org.fusesource.hawtbuf.benchmarks.proto.hawtbuf.Bench.Envelope;
+import org.fusesource.hawtbuf.benchmarks.proto.hawtbuf.Bench.Header;
+import org.fusesource.hawtbuf.benchmarks.proto.hawtbuf.Bench.Priority;
+import org.fusesource.hawtbuf.proto.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks messages generated by the default hawtbuf <code>JavaGenerator</code>.
+ * Compare with {@link ProtoAltBenchmark} and {@link ProtoReferenceBenchmark}
+ * which run the same operations on the same data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtoHawtbufBenchmark {
+
+    @Param({"0", "8"})
+    int headers;
+
+    @Param({"32", "4096"})
+    int bodySize;
+
+    ProtoData data;
+    Envelope message;
+    Envelope reused;
+    Buffer framed;
+
+    @Setup
+    public void setup() {
+        data = new ProtoData(headers, bodySize);
+        message = build();
+        framed = message.toFramedBuffer().deepCopy();
+        reused = new Envelope();
+    }
+
+    @Benchmark
+    public Envelope parse() throws InvalidProtocolBufferException {
+        return Envelope.parseFramed(framed);
+    }
+
+    @Benchmark
+    public Envelope parseInto() throws InvalidProtocolBufferException {
+        return Envelope.parseFramedInto(reused, framed);
+    }
+
+    @Benchmark
+    public void fullAccessInto(Blackhole bh) throws InvalidProtocolBufferException {
+        consume(Envelope.parseFramedInto(reused, framed), bh);
+    }
+
+    @Benchmark
+    public long lazyAccess() throws InvalidProtocolBufferException {
+        return Envelope.parseFramed(framed).getId();
+    }
+
+    @Benchmark
+    public void fullAccess(Blackhole bh) throws InvalidProtocolBufferException {
+        consume(Envelope.parseFramed(framed), bh);
+    }
+
+    @Benchmark
+    public Envelope build() {
+        Envelope rc = new Envelope();
+        rc.setId(ProtoData.ID);
+        rc.setCorrelationId(ProtoData.CORRELATION_ID);
+        rc.setDestination(new Destination().setName(ProtoData.DESTINATION).setKind(ProtoData.DESTINATION_KIND));
+        rc.setPriority(Priority.HIGH);
+        rc.setTimestamp(ProtoData.TIMESTAMP);
+        rc.setRedeliveryCount(ProtoData.REDELIVERY_COUNT);
+        rc.setScore(ProtoData.SCORE);
+        rc.setPersistent(true);
+        for (int i = 0; i < data.headerKeys.length; i++) {
+            rc.addHeaders(new Header().setKey(data.headerKeys[i]).setValue(data.headerValues[i]));
+        }
+        rc.setBody(new Buffer(data.body));
+        for (int i = 0; i < ProtoData.TRACE_COUNT; i++) {
+            rc.addTrace(ProtoData.TIMESTAMP + i);
+        }
+        return rc;
+    }
+
+    @Benchmark
+    public int buildAndSize() {
+        return build().serializedSizeFramed();
+    }
+
+    @Benchmark
+    public Buffer writeFramed() {
+        return message.toFramedBuffer();
+    }
+
+    @Benchmark
+    public void roundTrip(Blackhole bh) throws InvalidProtocolBufferException {
+        consume(Envelope.parseFramed(build().toFramedBuffer()), bh);
+    }
+
+    private static void consume(Envelope envelope, Blackhole bh) {
+        bh.consume(envelope.getId());
+        bh.consume(envelope.getCorrelationId());
+        bh.consume(envelope.getDestination().getName());
+        bh.consume(envelope.getDestination().getKind());
+        bh.consume(envelope.getPriority());
+        bh.consume(envelope.getTimestamp());
+        bh.consume(envelope.getRedeliveryCount());
+        bh.consume(envelope.getScore());
+        bh.consume(envelope.getPersistent());
+        for (Header header : envelope.getHeadersList()) {
+            bh.consume(header.getKey());
+            bh.consume(header.getValue());
+        }
+        bh.consume(envelope.getBody());
+        for (Long trace : envelope.getTraceList()) {
+            bh.consume(trace.longValue());
+        }
+    }
+}
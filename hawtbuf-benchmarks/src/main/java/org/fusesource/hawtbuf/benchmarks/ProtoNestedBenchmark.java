@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.benchmarks.proto.hawtbuf.Nested.Node;
+import org.fusesource.hawtbuf.proto.ReverseCodedOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks encoding a deeply nested message tree with the default hawtbuf
+ * <code>JavaGenerator</code>.  Each level holds a chain link and a few
+ * leaves, so the cost of a full encode should grow linearly with the depth.
+ * The <code>*Reverse</code> benchmarks encode with a
+ * {@link ReverseCodedOutputStream} which does not need the sizes up front.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtoNestedBenchmark {
+
+    static final int LEAVES = 3;
+
+    @Param({"4", "16", "64"})
+    int depth;
+
+    Node root;
+    Node deepest;
+    ReverseCodedOutputStream reverse = new ReverseCodedOutputStream();
+
+    @Setup
+    public void setup() {
+        root = build();
+        deepest = root;
+        while (deepest.hasChild()) {
+            deepest = deepest.getChild();
+        }
+    }
+
+    @Benchmark
+    public Node build() {
+        Node rc = null;
+        for (int i = depth; i > 0; i--) {
+            Node node = new Node().setId(i).setName("node-" + i);
+            for (int j = 0; j < LEAVES; j++) {
+                node.addLeaves(new Node().setId(j));
+            }
+            if (rc != null) {
+                node.setChild(rc);
+            }
+            rc = node;
+        }
+        return rc;
+    }
+
+    @Benchmark
+    public int size() {
+        return root.serializedSizeUnframed();
+    }
+
+    /**
+     * Modifies the deepest node in place, which drops the memoized sizes
+     * of all its parents.
+     */
+    @Benchmark
+    public int modifyAndSize() {
+        deepest.setId(deepest.getId() + 1);
+        return root.serializedSizeUnframed();
+    }
+
+    @Benchmark
+    public Buffer writeFramed() {
+        return root.toFramedBuffer();
+    }
+
+    /**
+     * Modifies the deepest node in place before encoding, all its parents
+     * are sized again.
+     */
+    @Benchmark
+    public Buffer modifyAndWriteFramed() {
+        deepest.setId(deepest.getId() + 1);
+        return root.toFramedBuffer();
+    }
+
+    @Benchmark
+    public Buffer buildAndWriteFramed() {
+        return build().toFramedBuffer();
+    }
+
+    @Benchmark
+    public Buffer writeFramedReverse() {
+        reverse.reset();
+        root.writeFramedReverse(reverse);
+        return reverse.toBuffer();
+    }
+
+    @Benchmark
+    public Buffer buildAndWriteFramedReverse() {
+        reverse.reset();
+        build().writeFramedReverse(reverse);
+        return reverse.toBuffer();
+    }
+}
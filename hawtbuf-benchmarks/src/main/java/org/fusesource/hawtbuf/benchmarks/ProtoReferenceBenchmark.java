@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.fusesource.hawtbuf.benchmarks.proto.reference.Bench.Destination;
+import org.fusesource.hawtbuf.benchmarks.proto.reference.Bench.Envelope;
+import org.fusesource.hawtbuf.benchmarks.proto.reference.Bench.Header;
+import org.fusesource.hawtbuf.benchmarks.proto.reference.Bench.Priority;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The protobuf-java baseline for {@link ProtoHawtbufBenchmark} and
+ * {@link ProtoAltBenchmark}.  Frames are length delimited just like the
+ * hawtbuf framed encoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtoReferenceBenchmark {
+
+    @Param({"0", "8"})
+    int headers;
+
+    @Param({"32", "4096"})
+    int bodySize;
+
+    ProtoData data;
+    Envelope message;
+    byte[] framed;
+
+    @Setup
+    public void setup() throws IOException {
+        data = new ProtoData(headers, bodySize);
+        message = build();
+        framed = toFramed(message);
+    }
+
+    @Benchmark
+    public Envelope parse() throws IOException {
+        return parseFramed(framed);
+    }
+
+    @Benchmark
+    public long lazyAccess() throws IOException {
+        return parseFramed(framed).getId();
+    }
+
+    @Benchmark
+    public void fullAccess(Blackhole bh) throws IOException {
+        consume(parseFramed(framed), bh);
+    }
+
+    @Benchmark
+    public Envelope build() {
+        Envelope.Builder rc = Envelope.newBuilder();
+        rc.setId(ProtoData.ID);
+        rc.setCorrelationId(ProtoData.CORRELATION_ID);
+        rc.setDestination(Destination.newBuilder().setName(ProtoData.DESTINATION).setKind(ProtoData.DESTINATION_KIND));
+        rc.setPriority(Priority.HIGH);
+        rc.setTimestamp(ProtoData.TIMESTAMP);
+        rc.setRedeliveryCount(ProtoData.REDELIVERY_COUNT);
+        rc.setScore(ProtoData.SCORE);
+        rc.setPersistent(true);
+        for (int i = 0; i < data.headerKeys.length; i++) {
+            rc.addHeaders(Header.newBuilder().setKey(data.headerKeys[i]).setValue(data.headerValues[i]));
+        }
+        rc.setBody(ByteString.copyFrom(data.body));
+        for (int i = 0; i < ProtoData.TRACE_COUNT; i++) {
+            rc.addTrace(ProtoData.TIMESTAMP + i);
+        }
+        return rc.build();
+    }
+
+    @Benchmark
+    public int buildAndSize() {
+        Envelope envelope = build();
+        int size = envelope.getSerializedSize();
+        return CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    @Benchmark
+    public byte[] writeFramed() throws IOException {
+        return toFramed(message);
+    }
+
+    @Benchmark
+    public void roundTrip(Blackhole bh) throws IOException {
+        consume(parseFramed(toFramed(build())), bh);
+    }
+
+    private static byte[] toFramed(Envelope envelope) throws IOException {
+        int size = envelope.getSerializedSize();
+        byte[] rc = new byte[CodedOutputStream.computeUInt32SizeNoTag(size) + size];
+        CodedOutputStream out = CodedOutputStream.newInstance(rc);
+        out.writeUInt32NoTag(size);
+        envelope.writeTo(out);
+        out.checkNoSpaceLeft();
+        return rc;
+    }
+
+    private static Envelope parseFramed(byte[] framed) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(framed);
+        int limit = in.pushLimit(in.readRawVarint32());
+        Envelope rc = Envelope.parseFrom(in);
+        in.popLimit(limit);
+        return rc;
+    }
+
+    private static void consume(Envelope envelope, Blackhole bh) {
+        bh.consume(envelope.getId());
+        bh.consume(envelope.getCorrelationId());
+        bh.consume(envelope.getDestination().getName());
+        bh.consume(envelope.getDestination().getKind());
+        bh.consume(envelope.getPriority());
+        bh.consume(envelope.getTimestamp());
+        bh.consume(envelope.getRedeliveryCount());
+        bh.consume(envelope.getScore());
+        bh.consume(envelope.getPersistent());
+        for (Header header : envelope.getHeadersList()) {
+            bh.consume(header.getKey());
+            bh.consume(header.getValue());
+        }
+        bh.consume(envelope.getBody());
+        for (Long trace : envelope.getTraceList()) {
+            bh.consume(trace.longValue());
+        }
+    }
+}
@@ -19,22 +19,147 @@ package org.fusesource.hawtbuf.proto;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
 import org.fusesource.hawtbuf.Buffer;
-import org.fusesource.hawtbuf.BufferOutputStream;
 
 
 abstract public class BaseMessage<T> implements Message<T> {
 
     protected int memoizedSerializedSize = -1;
 
+    // Set while the message is out of a MessagePool, only such messages are
+    // given back to the pool when released.
+    boolean pooled;
+
+    // The message this message was set into.  It is told when this message
+    // changes so that it drops its memoized size too.
+    BaseMessage<?> parent;
+
+    // Set once the message was set into a second message, the messages
+    // holding it can not be told about its changes then.
+    boolean shared;
+
+    // Set once the message was taken from a MessagePool or cleared for
+    // reuse, the messages nested in it are then taken from the pools when
+    // parsing.  Plain parses create them instead.
+    boolean reused;
+
+    // Set while the message holds a message or a list which can change
+    // without telling it, its size is not memoized then.
+    boolean untracked;
+
+    // The fields which were not recognized when the message was parsed,
+    // each one kept in its encoded form.
+    private ArrayList<Buffer> unknownFields;
+
     abstract public T clone() throws CloneNotSupportedException;
 
     public void clear() {
         memoizedSerializedSize = -1;
+        untracked = false;
+        unknownFields = null;
+    }
+
+    /**
+     * Clears the message so that it can be filled again without allocating.
+     * Generated messages keep the lists of their repeated fields, unless
+     * the lists were set by the caller, and release their nested messages
+     * to the {@link MessagePool} of their type.  Only the nested messages
+     * which were taken from a pool when parsing, and are held by this
+     * message alone, go back to it, those must not be used anymore.  The
+     * nested messages parsed into a message cleared for reuse are taken
+     * from the pools.
+     */
+    public void clearForReuse() {
+        clear();
+        reused = true;
+    }
+
+    /**
+     * @return true when the messages nested in this one are to be taken
+     *         from the {@link MessagePool} of their type when parsing.
+     */
+    protected boolean isReused() {
+        return reused;
+    }
+
+    /**
+     * Marks the message as reused, called by the generated
+     * {@link #clearForReuse()}.
+     */
+    protected void setReused() {
+        reused = true;
+    }
+
+    /**
+     * @return the encoded fields, tags included, which were not recognized
+     *         when this message was parsed.  They are written back out
+     *         as they were received.
+     */
+    public List<Buffer> getUnknownFields() {
+        load();
+        if (unknownFields == null) {
+            return java.util.Collections.emptyList();
+        }
+        return java.util.Collections.unmodifiableList(unknownFields);
+    }
+
+    public boolean hasUnknownFields() {
+        load();
+        return unknownFields != null;
+    }
+
+    public void clearUnknownFields() {
+        loadAndClear();
+        unknownFields = null;
+    }
+
+    protected void addUnknownField(Buffer field) {
+        loadAndClear();
+        if (unknownFields == null) {
+            unknownFields = new ArrayList<Buffer>();
+        }
+        unknownFields.add(field);
+    }
+
+    protected void mergeUnknownFields(BaseMessage<?> other) {
+        other.load();
+        if (other.unknownFields != null) {
+            for (Buffer field : other.unknownFields) {
+                addUnknownField(field);
+            }
+        }
+    }
+
+    protected int computeUnknownFieldsSize() {
+        int size = 0;
+        if (unknownFields != null) {
+            for (Buffer field : unknownFields) {
+                size += field.length;
+            }
+        }
+        return size;
+    }
+
+    protected void writeUnknownFields(CodedOutputStream output) throws IOException {
+        if (unknownFields != null) {
+            for (Buffer field : unknownFields) {
+                output.writeRawBytes(field);
+            }
+        }
+    }
+
+    protected void writeUnknownFieldsReverse(ReverseCodedOutputStream output) {
+        if (unknownFields != null) {
+            for (int i = unknownFields.size() - 1; i >= 0; i--) {
+                output.writeRawBytes(unknownFields.get(i));
+            }
+        }
     }
 
     public boolean isInitialized() {
@@ -66,6 +191,78 @@ abstract public class BaseMessage<T> implements Message<T> {
 
     protected void loadAndClear() {
         memoizedSerializedSize = -1;
+        // stops at the first parent without a memoized size, the ones it
+        // is nested in have none either.
+        BaseMessage<?> message = parent;
+        while (message != null && message.dropMemoizedSize()) {
+            message = message.parent;
+        }
+    }
+
+    /**
+     * @return true if the message had a memoized size.
+     */
+    boolean dropMemoizedSize() {
+        boolean rc = memoizedSerializedSize != -1;
+        memoizedSerializedSize = -1;
+        return rc;
+    }
+
+    /**
+     * Stores the size computed by the generated
+     * {@link #serializedSizeUnframed()} unless the message holds a message
+     * or list which can change without telling it.
+     */
+    protected int memoizeSerializedSize(int size) {
+        if (!untracked) {
+            memoizedSerializedSize = size;
+        }
+        return size;
+    }
+
+    /**
+     * Called by the generated setters with the messages set into this
+     * message, so that changes made to them later drop the memoized size
+     * of this message.  A message set into several messages can not tell
+     * them all, their sizes are then no longer memoized.
+     */
+    protected void adopt(BaseMessage<?> message) {
+        if (message == null) {
+            return;
+        }
+        if (message.parent == null && !message.shared) {
+            message.parent = this;
+        } else if (message.parent != this) {
+            if (message.parent != null) {
+                message.parent.untrack();
+                message.parent = null;
+                message.shared = true;
+            }
+            untrack();
+        }
+        if (message.untracked) {
+            untrack();
+        }
+    }
+
+    /**
+     * Makes this message the owner of a list created for one of its
+     * repeated fields, the changes made to the list drop its memoized size.
+     */
+    protected <L extends FieldList<?>> L own(L list) {
+        list.setOwner(this);
+        return list;
+    }
+
+    /**
+     * Called by the generated setters when the message is given a list
+     * which it does not own, its size is no longer memoized.
+     */
+    protected void untrack() {
+        for (BaseMessage<?> message = this; message != null && !message.untracked; message = message.parent) {
+            message.untracked = true;
+            message.dropMemoizedSize();
+        }
     }
 
     protected void load() {
@@ -106,17 +303,29 @@ abstract public class BaseMessage<T> implements Message<T> {
         writeUnframed(output);
     }
 
+    /**
+     * Writes the message in front of the bytes already written to the
+     * reverse stream.  Generated messages write their fields directly and
+     * need no sizes, so a freshly built message is encoded in a single pass.
+     */
+    public void writeUnframedReverse(ReverseCodedOutputStream output) {
+        output.writeRawBytes(toUnframedBuffer());
+    }
+
+    public void writeFramedReverse(ReverseCodedOutputStream output) {
+        int end = output.size();
+        writeUnframedReverse(output);
+        output.writeRawVarint32(output.size() - end);
+    }
+
     public Buffer toUnframedBuffer() {
         try {
             int size = serializedSizeUnframed();
-            BufferOutputStream baos = new BufferOutputStream(size);
-            CodedOutputStream output = new CodedOutputStream(baos);
+            byte[] data = new byte[size];
+            CodedOutputStream output = new CodedOutputStream(data);
             writeUnframed(output);
-            Buffer rc = baos.toBuffer();
-            if( rc.length != size ) {
-                throw new IllegalStateException("Did not write as much data as expected.");
-            }
-            return rc;
+            output.checkNoSpaceLeft();
+            return new Buffer(data);
         } catch (IOException e) {
             throw new RuntimeException("Serializing to a byte array threw an IOException " + "(should never happen).", e);
         }
@@ -124,15 +333,13 @@ abstract public class BaseMessage<T> implements Message<T> {
 
     public Buffer toFramedBuffer() {
         try {
-            int size = serializedSizeFramed();
-            BufferOutputStream baos = new BufferOutputStream(size);
-            CodedOutputStream output = new CodedOutputStream(baos);
-            writeFramed(output);
-            Buffer rc = baos.toBuffer();
-            if( rc.length != size ) {
-                throw new IllegalStateException("Did not write as much data as expected.");
-            }
-            return rc;
+            int t = serializedSizeUnframed();
+            byte[] data = new byte[CodedOutputStream.computeRawVarint32Size(t) + t];
+            CodedOutputStream output = new CodedOutputStream(data);
+            output.writeRawVarint32(t);
+            writeUnframed(output);
+            output.checkNoSpaceLeft();
+            return new Buffer(data);
         } catch (IOException e) {
             throw new RuntimeException("Serializing to a byte array threw an IOException " + "(should never happen).", e);
         }
@@ -147,15 +354,73 @@ abstract public class BaseMessage<T> implements Message<T> {
     }
 
     public void writeFramed(OutputStream output) throws IOException {
-        CodedOutputStream codedOutput = new CodedOutputStream(output);
-        writeFramed(codedOutput);
-        codedOutput.flush();
+        CodedOutputStream codedOutput = takeStream(output);
+        try {
+            codedOutput.writeRawVarint32(serializedSizeUnframed());
+            writeUnframed(codedOutput);
+            codedOutput.flush();
+        } finally {
+            releaseStream(codedOutput);
+        }
     }
 
     public void writeUnframed(OutputStream output) throws IOException {
-        CodedOutputStream codedOutput = new CodedOutputStream(output);
-        writeUnframed(codedOutput);
-        codedOutput.flush();
+        CodedOutputStream codedOutput = takeStream(output);
+        try {
+            writeUnframed(codedOutput);
+            codedOutput.flush();
+        } finally {
+            releaseStream(codedOutput);
+        }
+    }
+
+    // The stream which messages are written to OutputStreams with, kept per
+    // thread so that a write does not allocate a buffer.  It is taken out
+    // while in use in case the OutputStream writes another message.
+    private static final ThreadLocal<CodedOutputStream> STREAM = new ThreadLocal<CodedOutputStream>();
+
+    private static CodedOutputStream takeStream(OutputStream output) {
+        CodedOutputStream stream = STREAM.get();
+        if (stream == null) {
+            return new CodedOutputStream(output);
+        }
+        STREAM.set(null);
+        stream.reset(output);
+        return stream;
+    }
+
+    private static void releaseStream(CodedOutputStream stream) {
+        // don't keep the caller's stream reachable.
+        stream.reset((OutputStream) null);
+        STREAM.set(stream);
+    }
+
+    public void writeUnframed(ByteBuffer output) {
+        if( serializedSizeUnframed() > output.remaining() ) {
+            throw new BufferOverflowException();
+        }
+        try {
+            CodedOutputStream codedOutput = new CodedOutputStream(output);
+            writeUnframed(codedOutput);
+            codedOutput.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Serializing to a ByteBuffer threw an IOException " + "(should never happen).", e);
+        }
+    }
+
+    public void writeFramed(ByteBuffer output) {
+        int t = serializedSizeUnframed();
+        if( CodedOutputStream.computeRawVarint32Size(t) + t > output.remaining() ) {
+            throw new BufferOverflowException();
+        }
+        try {
+            CodedOutputStream codedOutput = new CodedOutputStream(output);
+            codedOutput.writeRawVarint32(t);
+            writeUnframed(codedOutput);
+            codedOutput.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Serializing to a ByteBuffer threw an IOException " + "(should never happen).", e);
+        }
     }
 
     public int serializedSizeFramed() {
@@ -177,6 +442,49 @@ abstract public class BaseMessage<T> implements Message<T> {
         return rc;
     }
 
+    /**
+     * Merges only the fields in the mask, the others are skipped.  Messages
+     * which do not support field masks merge every field.
+     */
+    public T mergeUnframed(CodedInputStream input, FieldMask mask) throws IOException {
+        return mergeUnframed(input);
+    }
+
+    public T mergeFramed(CodedInputStream input, FieldMask mask) throws IOException {
+        int length = input.readRawVarint32();
+        int oldLimit = input.pushLimit(length);
+        T rc = mergeUnframed(input, mask);
+        input.checkLastTagWas(0);
+        input.popLimit(oldLimit);
+        return rc;
+    }
+
+    public T mergeUnframed(Buffer data, FieldMask mask) throws InvalidProtocolBufferException {
+        try {
+            CodedInputStream input = new CodedInputStream(data);
+            mergeUnframed(input, mask);
+            input.checkLastTagWas(0);
+            return getThis();
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException("An IOException was thrown (should never happen in this method).", e);
+        }
+    }
+
+    public T mergeFramed(Buffer data, FieldMask mask) throws InvalidProtocolBufferException {
+        try {
+            CodedInputStream input = new CodedInputStream(data);
+            mergeFramed(input, mask);
+            input.checkLastTagWas(0);
+            return getThis();
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException("An IOException was thrown (should never happen in this method).", e);
+        }
+    }
+
     public T mergeUnframed(Buffer data) throws InvalidProtocolBufferException {
         try {
             CodedInputStream input = new CodedInputStream(data);
@@ -190,6 +498,43 @@ abstract public class BaseMessage<T> implements Message<T> {
         }
     }
 
+    // The input used by the parse*Into methods of the calling thread, it is
+    // taken out while in use so that a nested parse creates its own.
+    private static final ThreadLocal<CodedInputStream> REUSED_INPUT = new ThreadLocal<CodedInputStream>();
+    private static final Buffer EMPTY = new Buffer(new byte[0]);
+
+    /**
+     * Merges the data like {@link #mergeFramed(Buffer)} or
+     * {@link #mergeUnframed(Buffer)} but reads it with a CodedInputStream
+     * kept for the calling thread.
+     */
+    protected T mergeReusingInput(Buffer data, boolean framed) throws InvalidProtocolBufferException {
+        CodedInputStream input = REUSED_INPUT.get();
+        if (input == null) {
+            input = new CodedInputStream(data);
+        } else {
+            REUSED_INPUT.set(null);
+            input.reset(data);
+        }
+        try {
+            if (framed) {
+                mergeFramed(input);
+            } else {
+                mergeUnframed(input);
+            }
+            input.checkLastTagWas(0);
+            return getThis();
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException("An IOException was thrown (should never happen in this method).", e);
+        } finally {
+            // don't hold on to the data.
+            input.reset(EMPTY);
+            REUSED_INPUT.set(input);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private T getThis() {
         return (T) this;
@@ -208,6 +553,35 @@ abstract public class BaseMessage<T> implements Message<T> {
         }
     }
 
+    public T mergeUnframed(ByteBuffer data) throws InvalidProtocolBufferException {
+        try {
+            CodedInputStream input = new CodedInputStream(data);
+            input.enableAliasing(false);
+            mergeUnframed(input);
+            input.checkLastTagWas(0);
+            data.position(data.position() + input.getTotalBytesRead());
+            return getThis();
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException("An IOException was thrown (should never happen in this method).", e);
+        }
+    }
+
+    public T mergeFramed(ByteBuffer data) throws InvalidProtocolBufferException {
+        try {
+            CodedInputStream input = new CodedInputStream(data);
+            input.enableAliasing(false);
+            mergeFramed(input);
+            data.position(data.position() + input.getTotalBytesRead());
+            return getThis();
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException("An IOException was thrown (should never happen in this method).", e);
+        }
+    }
+
     public T mergeUnframed(byte[] data) throws InvalidProtocolBufferException {
         return mergeUnframed(new Buffer(data));
     }
@@ -272,6 +646,19 @@ abstract public class BaseMessage<T> implements Message<T> {
         message.writeFramed(output);
     }
 
+    static protected void writeGroupReverse(ReverseCodedOutputStream output, int tag, BaseMessage message) {
+        output.writeTag(tag, WireFormat.WIRETYPE_END_GROUP);
+        message.writeUnframedReverse(output);
+        output.writeTag(tag, WireFormat.WIRETYPE_START_GROUP);
+    }
+
+    static protected void writeMessageReverse(ReverseCodedOutputStream output, int tag, BaseMessage message) {
+        int end = output.size();
+        message.writeUnframedReverse(output);
+        output.writeRawVarint32(output.size() - end);
+        output.writeTag(tag, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    }
+
     static protected int computeMessageSize(int tag, BaseMessage message) {
         return CodedOutputStream.computeTagSize(tag) + message.serializedSizeFramed();
     }
@@ -1,421 +1,847 @@
-// Protocol Buffers - Google's data interchange format
-// Copyright 2008 Google Inc.
-// http://code.google.com/p/protobuf/
-//
-// Licensed under the Apache License, Version 2.0 (the "License");
-// you may not use this file except in compliance with the License.
-// You may obtain a copy of the License at
-//
-//      http://www.apache.org/licenses/LICENSE-2.0
-//
-// Unless required by applicable law or agreed to in writing, software
-// distributed under the License is distributed on an "AS IS" BASIS,
-// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-// See the License for the specific language governing permissions and
-// limitations under the License.
-
-package org.fusesource.hawtbuf.proto;
-
-import java.io.EOFException;
-import java.io.FilterInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
-import org.fusesource.hawtbuf.Buffer;
-import org.fusesource.hawtbuf.BufferInputStream;
-
-/**
- * Reads and decodes protocol message fields.
- * 
- * This class contains two kinds of methods: methods that read specific protocol
- * message constructs and field types (e.g. {@link #readTag()} and
- * {@link #readInt32()}) and methods that read low-level values (e.g.
- * {@link #readRawVarint32()} and {@link #readRawBytes}). If you are reading
- * encoded protocol messages, you should use the former methods, but if you are
- * reading some other format of your own design, use the latter.
- * 
- * @author kenton@google.com Kenton Varda
- */
-public final class CodedInputStream extends FilterInputStream {
-
-    private int lastTag = 0;
-    private int limit = Integer.MAX_VALUE;
-    private int pos;
-    private BufferInputStream bis;
-    
-    public CodedInputStream(InputStream in) {
-        super(in);
-        if( in.getClass() == BufferInputStream.class ) {
-            bis = (BufferInputStream)in;
-        }
-    }
-
-    public CodedInputStream(Buffer data) {
-        this(new BufferInputStream(data));
-        limit = data.length;
-    }
-
-    public CodedInputStream(byte[] data) {
-        this(new BufferInputStream(data));
-        limit = data.length;
-    }
-
-    /**
-     * Attempt to read a field tag, returning zero if we have reached EOF.
-     * Protocol message parsers use this to read tags, since a protocol message
-     * may legally end wherever a tag occurs, and zero is not a valid tag
-     * number.
-     */
-    public int readTag() throws IOException {
-        if( pos >= limit ) {
-            lastTag=0;
-            return 0;
-        }
-        try {
-            lastTag = readRawVarint32();
-            if (lastTag == 0) {
-                // If we actually read zero, that's not a valid tag.
-                throw InvalidProtocolBufferException.invalidTag();
-            }
-            return lastTag;
-        } catch (EOFException e) {
-            lastTag=0;
-            return 0;
-        }
-    }
-
-    
-    /**
-     * Verifies that the last call to readTag() returned the given tag value.
-     * This is used to verify that a nested group ended with the correct end
-     * tag.
-     * 
-     * @throws InvalidProtocolBufferException
-     *             {@code value} does not match the last tag.
-     */
-    public void checkLastTagWas(int value) throws InvalidProtocolBufferException {
-        if (lastTag != value) {
-            throw InvalidProtocolBufferException.invalidEndTag();
-        }
-    }
-
-    /**
-     * Reads and discards a single field, given its tag value.
-     * 
-     * @return {@code false} if the tag is an endgroup tag, in which case
-     *         nothing is skipped. Otherwise, returns {@code true}.
-     */
-    public boolean skipField(int tag) throws IOException {
-        switch (WireFormat.getTagWireType(tag)) {
-        case WireFormat.WIRETYPE_VARINT:
-            readInt32();
-            return true;
-        case WireFormat.WIRETYPE_FIXED64:
-            readRawLittleEndian64();
-            return true;
-        case WireFormat.WIRETYPE_LENGTH_DELIMITED:
-            skipRawBytes(readRawVarint32());
-            return true;
-        case WireFormat.WIRETYPE_START_GROUP:
-            skipMessage();
-            checkLastTagWas(WireFormat.makeTag(WireFormat.getTagFieldNumber(tag), WireFormat.WIRETYPE_END_GROUP));
-            return true;
-        case WireFormat.WIRETYPE_END_GROUP:
-            return false;
-        case WireFormat.WIRETYPE_FIXED32:
-            readRawLittleEndian32();
-            return true;
-        default:
-            throw InvalidProtocolBufferException.invalidWireType();
-        }
-    }
-
-    /**
-     * Reads and discards an entire message. This will read either until EOF or
-     * until an endgroup tag, whichever comes first.
-     */
-    public void skipMessage() throws IOException {
-        while (true) {
-            int tag = readTag();
-            if (tag == 0 || !skipField(tag))
-                return;
-        }
-    }
-
-    // -----------------------------------------------------------------
-
-    /** Read a {@code double} field value from the stream. */
-    public double readDouble() throws IOException {
-        return Double.longBitsToDouble(readRawLittleEndian64());
-    }
-
-    /** Read a {@code float} field value from the stream. */
-    public float readFloat() throws IOException {
-        return Float.intBitsToFloat(readRawLittleEndian32());
-    }
-
-    /** Read a {@code uint64} field value from the stream. */
-    public long readUInt64() throws IOException {
-        return readRawVarint64();
-    }
-
-    /** Read an {@code int64} field value from the stream. */
-    public long readInt64() throws IOException {
-        return readRawVarint64();
-    }
-
-    /** Read an {@code int32} field value from the stream. */
-    public int readInt32() throws IOException {
-        return readRawVarint32();
-    }
-
-    /** Read a {@code fixed64} field value from the stream. */
-    public long readFixed64() throws IOException {
-        return readRawLittleEndian64();
-    }
-
-    /** Read a {@code fixed32} field value from the stream. */
-    public int readFixed32() throws IOException {
-        return readRawLittleEndian32();
-    }
-
-    /** Read a {@code bool} field value from the stream. */
-    public boolean readBool() throws IOException {
-        return readRawVarint32() != 0;
-    }
-
-    /** Read a {@code string} field value from the stream. */
-    public String readString() throws IOException {
-        int size = readRawVarint32();
-        Buffer data = readRawBytes(size);
-        return new String(data.data, data.offset, data.length, "UTF-8");
-    }
-
-    /** Read a {@code bytes} field value from the stream. */
-    public Buffer readBytes() throws IOException {
-        int size = readRawVarint32();
-        return readRawBytes(size);
-    }
-
-    /** Read a {@code uint32} field value from the stream. */
-    public int readUInt32() throws IOException {
-        return readRawVarint32();
-    }
-
-    /**
-     * Read an enum field value from the stream. Caller is responsible for
-     * converting the numeric value to an actual enum.
-     */
-    public int readEnum() throws IOException {
-        return readRawVarint32();
-    }
-
-    /** Read an {@code sfixed32} field value from the stream. */
-    public int readSFixed32() throws IOException {
-        return readRawLittleEndian32();
-    }
-
-    /** Read an {@code sfixed64} field value from the stream. */
-    public long readSFixed64() throws IOException {
-        return readRawLittleEndian64();
-    }
-
-    /** Read an {@code sint32} field value from the stream. */
-    public int readSInt32() throws IOException {
-        return decodeZigZag32(readRawVarint32());
-    }
-
-    /** Read an {@code sint64} field value from the stream. */
-    public long readSInt64() throws IOException {
-        return decodeZigZag64(readRawVarint64());
-    }
-
-    // =================================================================
-
-    /**
-     * Read a raw Varint from the stream. If larger than 32 bits, discard the
-     * upper bits.
-     */
-    public int readRawVarint32() throws IOException {
-        byte tmp = readRawByte();
-        if (tmp >= 0) {
-            return tmp;
-        }
-        int result = tmp & 0x7f;
-        if ((tmp = readRawByte()) >= 0) {
-            result |= tmp << 7;
-        } else {
-            result |= (tmp & 0x7f) << 7;
-            if ((tmp = readRawByte()) >= 0) {
-                result |= tmp << 14;
-            } else {
-                result |= (tmp & 0x7f) << 14;
-                if ((tmp = readRawByte()) >= 0) {
-                    result |= tmp << 21;
-                } else {
-                    result |= (tmp & 0x7f) << 21;
-                    result |= (tmp = readRawByte()) << 28;
-                    if (tmp < 0) {
-                        // Discard upper 32 bits.
-                        for (int i = 0; i < 5; i++) {
-                            if (readRawByte() >= 0)
-                                return result;
-                        }
-                        throw InvalidProtocolBufferException.malformedVarint();
-                    }
-                }
-            }
-        }
-        return result;
-    }
-
-    /** Read a raw Varint from the stream. */
-    public long readRawVarint64() throws IOException {
-        int shift = 0;
-        long result = 0;
-        while (shift < 64) {
-            byte b = readRawByte();
-            result |= (long) (b & 0x7F) << shift;
-            if ((b & 0x80) == 0)
-                return result;
-            shift += 7;
-        }
-        throw InvalidProtocolBufferException.malformedVarint();
-    }
-
-    /** Read a 32-bit little-endian integer from the stream. */
-    public int readRawLittleEndian32() throws IOException {
-        byte b1 = readRawByte();
-        byte b2 = readRawByte();
-        byte b3 = readRawByte();
-        byte b4 = readRawByte();
-        return (((int) b1 & 0xff)) | (((int) b2 & 0xff) << 8) | (((int) b3 & 0xff) << 16) | (((int) b4 & 0xff) << 24);
-    }
-
-    /** Read a 64-bit little-endian integer from the stream. */
-    public long readRawLittleEndian64() throws IOException {
-        byte b1 = readRawByte();
-        byte b2 = readRawByte();
-        byte b3 = readRawByte();
-        byte b4 = readRawByte();
-        byte b5 = readRawByte();
-        byte b6 = readRawByte();
-        byte b7 = readRawByte();
-        byte b8 = readRawByte();
-        return (((long) b1 & 0xff)) | (((long) b2 & 0xff) << 8) | (((long) b3 & 0xff) << 16) | (((long) b4 & 0xff) << 24) | (((long) b5 & 0xff) << 32) | (((long) b6 & 0xff) << 40) | (((long) b7 & 0xff) << 48) | (((long) b8 & 0xff) << 56);
-    }
-
-    /**
-     * Decode a ZigZag-encoded 32-bit value. ZigZag encodes signed integers into
-     * values that can be efficiently encoded with varint. (Otherwise, negative
-     * values must be sign-extended to 64 bits to be varint encoded, thus always
-     * taking 10 bytes on the wire.)
-     * 
-     * @param n
-     *            An unsigned 32-bit integer, stored in a signed int because
-     *            Java has no explicit unsigned support.
-     * @return A signed 32-bit integer.
-     */
-    public static int decodeZigZag32(int n) {
-        return (n >>> 1) ^ -(n & 1);
-    }
-
-    /**
-     * Decode a ZigZag-encoded 64-bit value. ZigZag encodes signed integers into
-     * values that can be efficiently encoded with varint. (Otherwise, negative
-     * values must be sign-extended to 64 bits to be varint encoded, thus always
-     * taking 10 bytes on the wire.)
-     * 
-     * @param n
-     *            An unsigned 64-bit integer, stored in a signed int because
-     *            Java has no explicit unsigned support.
-     * @return A signed 64-bit integer.
-     */
-    public static long decodeZigZag64(long n) {
-        return (n >>> 1) ^ -(n & 1);
-    }   
-
-    /**
-     * Read one byte from the input.
-     * 
-     * @throws InvalidProtocolBufferException
-     *             The end of the stream or the current limit was reached.
-     */
-    public byte readRawByte() throws IOException {
-        if( pos >= limit ) {
-            throw new EOFException();
-        }
-        int rc = in.read();
-        if( rc < 0 ) {
-            throw new EOFException();
-        }
-        pos++;
-        return (byte)( rc & 0xFF); 
-    }
-
-    /**
-     * Read a fixed size of bytes from the input.
-     * 
-     * @throws InvalidProtocolBufferException
-     *             The end of the stream or the current limit was reached.
-     */
-    public Buffer readRawBytes(int size) throws IOException {
-        if( size == 0) {
-            return new Buffer(new byte[]{});
-        }
-        if( this.pos+size > limit ) {
-            throw new EOFException();
-        }
-        
-        // If the underlying stream is a ByteArrayInputStream
-        // then we can avoid an array copy.
-        if( bis!=null ) {
-            Buffer rc = bis.readBuffer(size);
-            if( rc==null || rc.getLength() < size ) {
-                throw new EOFException();
-            }
-            this.pos += rc.getLength();
-            return rc;
-        }
-
-        // Otherwise we, have to do it the old fasioned way
-        byte[] rc = new byte[size];
-        int c;
-        int pos=0;
-        while( pos < size ) {
-            c = in.read(rc, pos, size-pos);
-            if( c < 0 ) {
-                throw new EOFException();
-            }
-            this.pos += c;
-            pos += c;
-        }
-        
-        return new Buffer(rc);
-    }
-
-    /**
-     * Reads and discards {@code size} bytes.
-     * 
-     * @throws InvalidProtocolBufferException
-     *             The end of the stream or the current limit was reached.
-     */
-    public void skipRawBytes(int size) throws IOException {
-        int pos = 0;
-        while (pos < size) {
-            int n = (int) in.skip(size - pos);
-            pos += n;
-        }
-    }
-
-    public int pushLimit(int limit) {
-        int rc = this.limit;
-        this.limit = pos+limit;
-        return rc;
-    }
-
-    public void popLimit(int limit) {
-        this.limit = limit;
-    }
-  
-}
+// Protocol Buffers - Google's data interchange format
+// Copyright 2008 Google Inc.
+// http://code.google.com/p/protobuf/
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.fusesource.hawtbuf.proto;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.BufferInputStream;
+
+/**
+ * Reads and decodes protocol message fields.
+ * 
+ * This class contains two kinds of methods: methods that read specific protocol
+ * message constructs and field types (e.g. {@link #readTag()} and
+ * {@link #readInt32()}) and methods that read low-level values (e.g.
+ * {@link #readRawVarint32()} and {@link #readRawBytes}). If you are reading
+ * encoded protocol messages, you should use the former methods, but if you are
+ * reading some other format of your own design, use the latter.
+ * <p>
+ * When the source is a {@link Buffer}, a <code>byte[]</code>, a heap
+ * {@link ByteBuffer} or a {@link BufferInputStream}, values are decoded
+ * straight out of the backing array instead of being read a byte at a time
+ * from the stream.  Direct {@link ByteBuffer}s are read with absolute gets.
+ * By default the buffers returned by {@link #readBytes()} and
+ * {@link #readRawBytes(int)} are then slices of that array, see
+ * {@link #enableAliasing(boolean)}.
+ * </p>
+ * 
+ * @author kenton@google.com Kenton Varda
+ */
+public final class CodedInputStream extends FilterInputStream {
+
+    private int lastTag = 0;
+    private int lastTagPos;
+    private int limit = Integer.MAX_VALUE;
+    private int pos;
+
+    // Set when reading from an array or a direct ByteBuffer. pos is relative
+    // to bufferOffset and end is the smaller of limit and bufferSize.
+    private byte[] buffer;
+    private ByteBuffer byteBuffer;
+    private int bufferOffset;
+    private int bufferSize = Integer.MAX_VALUE;
+    private int end = Integer.MAX_VALUE;
+    private boolean aliasing = true;
+
+    /**
+     * If <code>in</code> is a {@link BufferInputStream}, its remaining bytes
+     * are consumed up front and decoded straight from its backing array.
+     */
+    public CodedInputStream(InputStream in) {
+        super(in);
+        if( in.getClass() == BufferInputStream.class ) {
+            BufferInputStream bis = (BufferInputStream)in;
+            Buffer remaining = bis.readBuffer(bis.available());
+            if( remaining == null ) {
+                remaining = new Buffer(new byte[0]);
+            }
+            reset(remaining);
+        }
+    }
+
+    public CodedInputStream(Buffer data) {
+        super(null);
+        reset(data);
+    }
+
+    public CodedInputStream(byte[] data) {
+        super(null);
+        setBuffer(data, 0, data.length);
+    }
+
+    /**
+     * Reads the remaining bytes of the ByteBuffer, its position is
+     * not changed.
+     */
+    public CodedInputStream(ByteBuffer data) {
+        super(null);
+        reset(data);
+    }
+
+    /**
+     * Resets this stream so that it reads the given buffer, allowing
+     * an instance to be reused across parses.
+     */
+    public void reset(Buffer data) {
+        setBuffer(data.data, data.offset, data.length);
+    }
+
+    /**
+     * Resets this stream so that it reads the remaining bytes of the
+     * ByteBuffer, its position is not changed.
+     */
+    public void reset(ByteBuffer data) {
+        if( data.hasArray() ) {
+            setBuffer(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            setBuffer(null, data.position(), data.remaining());
+            // a private view so that we can pick the byte order.
+            byteBuffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * @return the number of bytes read since this stream was created or reset.
+     */
+    public int getTotalBytesRead() {
+        return pos;
+    }
+
+    /**
+     * Controls whether the buffers returned by {@link #readBytes()} and
+     * {@link #readRawBytes(int)} may alias the source array when reading
+     * from one.  Aliasing is enabled by default which avoids a copy, but
+     * the returned buffers keep the whole source array reachable and see
+     * any later changes to it.  Disable it to get copies instead.
+     */
+    public void enableAliasing(boolean enabled) {
+        aliasing = enabled;
+    }
+
+    public boolean isAliasing() {
+        return aliasing;
+    }
+
+    private void setBuffer(byte[] data, int offset, int length) {
+        in = null;
+        buffer = data;
+        byteBuffer = null;
+        bufferOffset = offset;
+        bufferSize = length;
+        pos = 0;
+        limit = length;
+        end = length;
+        lastTag = 0;
+    }
+
+    /**
+     * Attempt to read a field tag, returning zero if we have reached EOF.
+     * Protocol message parsers use this to read tags, since a protocol message
+     * may legally end wherever a tag occurs, and zero is not a valid tag
+     * number.
+     */
+    public int readTag() throws IOException {
+        if( pos >= end ) {
+            lastTag=0;
+            return 0;
+        }
+        try {
+            lastTagPos = pos;
+            lastTag = readRawVarint32();
+            if (lastTag == 0) {
+                // If we actually read zero, that's not a valid tag.
+                throw InvalidProtocolBufferException.invalidTag();
+            }
+            return lastTag;
+        } catch (EOFException e) {
+            lastTag=0;
+            return 0;
+        }
+    }
+
+    
+    /**
+     * Verifies that the last call to readTag() returned the given tag value.
+     * This is used to verify that a nested group ended with the correct end
+     * tag.
+     * 
+     * @throws InvalidProtocolBufferException
+     *             {@code value} does not match the last tag.
+     */
+    public void checkLastTagWas(int value) throws InvalidProtocolBufferException {
+        if (lastTag != value) {
+            throw InvalidProtocolBufferException.invalidEndTag();
+        }
+    }
+
+    /**
+     * Reads and discards a single field, given its tag value.
+     * 
+     * @return {@code false} if the tag is an endgroup tag, in which case
+     *         nothing is skipped. Otherwise, returns {@code true}.
+     */
+    public boolean skipField(int tag) throws IOException {
+        switch (WireFormat.getTagWireType(tag)) {
+        case WireFormat.WIRETYPE_VARINT:
+            readInt32();
+            return true;
+        case WireFormat.WIRETYPE_FIXED64:
+            readRawLittleEndian64();
+            return true;
+        case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+            skipRawBytes(readRawVarint32());
+            return true;
+        case WireFormat.WIRETYPE_START_GROUP:
+            skipMessage();
+            checkLastTagWas(WireFormat.makeTag(WireFormat.getTagFieldNumber(tag), WireFormat.WIRETYPE_END_GROUP));
+            return true;
+        case WireFormat.WIRETYPE_END_GROUP:
+            return false;
+        case WireFormat.WIRETYPE_FIXED32:
+            readRawLittleEndian32();
+            return true;
+        default:
+            throw InvalidProtocolBufferException.invalidWireType();
+        }
+    }
+
+    /**
+     * Reads and discards an entire message. This will read either until EOF or
+     * until an endgroup tag, whichever comes first.
+     */
+    public void skipMessage() throws IOException {
+        while (true) {
+            int tag = readTag();
+            if (tag == 0 || !skipField(tag))
+                return;
+        }
+    }
+
+    /**
+     * Reads a field whose tag was just returned by {@link #readTag()} and
+     * returns the field, tag included, exactly as it was encoded.  Used to
+     * keep unknown fields so that they can be written back out unchanged.
+     * <p>
+     * When reading from an array the result is a slice of it unless
+     * aliasing is disabled.  Otherwise the field is copied.
+     * </p>
+     *
+     * @return {@code null} if the tag is an endgroup tag.
+     */
+    public Buffer readRawField(int tag) throws IOException {
+        if( in == null ) {
+            int start = lastTagPos;
+            if( !skipField(tag) ) {
+                return null;
+            }
+            int size = pos - start;
+            if( buffer != null && aliasing ) {
+                return new Buffer(buffer, bufferOffset + start, size);
+            }
+            Buffer rc = new Buffer(size);
+            if( buffer != null ) {
+                System.arraycopy(buffer, bufferOffset + start, rc.data, 0, size);
+            } else {
+                ByteBuffer source = byteBuffer.duplicate();
+                source.position(bufferOffset + start);
+                source.get(rc.data, 0, size);
+            }
+            return rc;
+        }
+
+        // The bytes read from a stream are gone, so encode the field again.
+        org.fusesource.hawtbuf.ByteArrayOutputStream baos = new org.fusesource.hawtbuf.ByteArrayOutputStream();
+        CodedOutputStream output = new CodedOutputStream(baos);
+        if( !copyField(tag, output) ) {
+            return null;
+        }
+        output.flush();
+        return baos.toBuffer();
+    }
+
+    private boolean copyField(int tag, CodedOutputStream output) throws IOException {
+        output.writeRawVarint32(tag);
+        switch (WireFormat.getTagWireType(tag)) {
+        case WireFormat.WIRETYPE_VARINT:
+            output.writeRawVarint64(readRawVarint64());
+            return true;
+        case WireFormat.WIRETYPE_FIXED64:
+            output.writeRawLittleEndian64(readRawLittleEndian64());
+            return true;
+        case WireFormat.WIRETYPE_LENGTH_DELIMITED: {
+            int size = readRawVarint32();
+            output.writeRawVarint32(size);
+            output.writeRawBytes(readRawBytes(size));
+            return true;
+        }
+        case WireFormat.WIRETYPE_START_GROUP:
+            while (true) {
+                int t = readTag();
+                if (t == 0 || !copyField(t, output))
+                    break;
+            }
+            checkLastTagWas(WireFormat.makeTag(WireFormat.getTagFieldNumber(tag), WireFormat.WIRETYPE_END_GROUP));
+            return true;
+        case WireFormat.WIRETYPE_END_GROUP:
+            return false;
+        case WireFormat.WIRETYPE_FIXED32:
+            output.writeRawLittleEndian32(readRawLittleEndian32());
+            return true;
+        default:
+            throw InvalidProtocolBufferException.invalidWireType();
+        }
+    }
+
+    // -----------------------------------------------------------------
+
+    /** Read a {@code double} field value from the stream. */
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readRawLittleEndian64());
+    }
+
+    /** Read a {@code float} field value from the stream. */
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readRawLittleEndian32());
+    }
+
+    /** Read a {@code uint64} field value from the stream. */
+    public long readUInt64() throws IOException {
+        return readRawVarint64();
+    }
+
+    /** Read an {@code int64} field value from the stream. */
+    public long readInt64() throws IOException {
+        return readRawVarint64();
+    }
+
+    /** Read an {@code int32} field value from the stream. */
+    public int readInt32() throws IOException {
+        return readRawVarint32();
+    }
+
+    /** Read a {@code fixed64} field value from the stream. */
+    public long readFixed64() throws IOException {
+        return readRawLittleEndian64();
+    }
+
+    /** Read a {@code fixed32} field value from the stream. */
+    public int readFixed32() throws IOException {
+        return readRawLittleEndian32();
+    }
+
+    /** Read a {@code bool} field value from the stream. */
+    public boolean readBool() throws IOException {
+        return readRawVarint32() != 0;
+    }
+
+    /** Read a {@code string} field value from the stream. */
+    public String readString() throws IOException {
+        int size = readRawVarint32();
+        if( buffer != null && size >= 0 && size <= end - pos ) {
+            // decode it straight from the array.
+            String rc = new String(buffer, bufferOffset + pos, size, "UTF-8");
+            pos += size;
+            return rc;
+        }
+        Buffer data = readRawBytes(size);
+        return new String(data.data, data.offset, data.length, "UTF-8");
+    }
+
+    /** Read a {@code bytes} field value from the stream. */
+    public Buffer readBytes() throws IOException {
+        int size = readRawVarint32();
+        return readRawBytes(size);
+    }
+
+    /** Read a {@code uint32} field value from the stream. */
+    public int readUInt32() throws IOException {
+        return readRawVarint32();
+    }
+
+    /**
+     * Read an enum field value from the stream. Caller is responsible for
+     * converting the numeric value to an actual enum.
+     */
+    public int readEnum() throws IOException {
+        return readRawVarint32();
+    }
+
+    /** Read an {@code sfixed32} field value from the stream. */
+    public int readSFixed32() throws IOException {
+        return readRawLittleEndian32();
+    }
+
+    /** Read an {@code sfixed64} field value from the stream. */
+    public long readSFixed64() throws IOException {
+        return readRawLittleEndian64();
+    }
+
+    /** Read an {@code sint32} field value from the stream. */
+    public int readSInt32() throws IOException {
+        return decodeZigZag32(readRawVarint32());
+    }
+
+    /** Read an {@code sint64} field value from the stream. */
+    public long readSInt64() throws IOException {
+        return decodeZigZag64(readRawVarint64());
+    }
+
+    // =================================================================
+
+    /**
+     * Read a raw Varint from the stream. If larger than 32 bits, discard the
+     * upper bits.
+     */
+    public int readRawVarint32() throws IOException {
+        if( buffer != null && end - pos >= 10 ) {
+            // It can't run past the end so skip the bounds checks.
+            final byte[] buffer = this.buffer;
+            int i = bufferOffset + pos;
+            int tmp = buffer[i++];
+            if (tmp < 0) {
+                int result = tmp & 0x7f;
+                if ((tmp = buffer[i++]) >= 0) {
+                    result |= tmp << 7;
+                } else {
+                    result |= (tmp & 0x7f) << 7;
+                    if ((tmp = buffer[i++]) >= 0) {
+                        result |= tmp << 14;
+                    } else {
+                        result |= (tmp & 0x7f) << 14;
+                        if ((tmp = buffer[i++]) >= 0) {
+                            result |= tmp << 21;
+                        } else {
+                            result |= (tmp & 0x7f) << 21;
+                            result |= (tmp = buffer[i++]) << 28;
+                            if (tmp < 0) {
+                                // Discard upper 32 bits.
+                                int j = 0;
+                                while (buffer[i++] < 0) {
+                                    if (++j == 5) {
+                                        throw InvalidProtocolBufferException.malformedVarint();
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                tmp = result;
+            }
+            pos = i - bufferOffset;
+            return tmp;
+        }
+        if( byteBuffer != null && end - pos >= 10 ) {
+            final ByteBuffer buffer = this.byteBuffer;
+            int i = bufferOffset + pos;
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = buffer.get(i++);
+                result |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    pos = i - bufferOffset;
+                    return result;
+                }
+            }
+            // Discard upper 32 bits.
+            for (int j = 0; j < 5; j++) {
+                if (buffer.get(i++) >= 0) {
+                    pos = i - bufferOffset;
+                    return result;
+                }
+            }
+            throw InvalidProtocolBufferException.malformedVarint();
+        }
+        byte tmp = readRawByte();
+        if (tmp >= 0) {
+            return tmp;
+        }
+        int result = tmp & 0x7f;
+        if ((tmp = readRawByte()) >= 0) {
+            result |= tmp << 7;
+        } else {
+            result |= (tmp & 0x7f) << 7;
+            if ((tmp = readRawByte()) >= 0) {
+                result |= tmp << 14;
+            } else {
+                result |= (tmp & 0x7f) << 14;
+                if ((tmp = readRawByte()) >= 0) {
+                    result |= tmp << 21;
+                } else {
+                    result |= (tmp & 0x7f) << 21;
+                    result |= (tmp = readRawByte()) << 28;
+                    if (tmp < 0) {
+                        // Discard upper 32 bits.
+                        for (int i = 0; i < 5; i++) {
+                            if (readRawByte() >= 0)
+                                return result;
+                        }
+                        throw InvalidProtocolBufferException.malformedVarint();
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Read a raw Varint from the stream. */
+    public long readRawVarint64() throws IOException {
+        if( buffer != null && end - pos >= 10 ) {
+            final byte[] buffer = this.buffer;
+            int i = bufferOffset + pos;
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer[i++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    pos = i - bufferOffset;
+                    return result;
+                }
+            }
+            throw InvalidProtocolBufferException.malformedVarint();
+        }
+        if( byteBuffer != null && end - pos >= 10 ) {
+            final ByteBuffer buffer = this.byteBuffer;
+            int i = bufferOffset + pos;
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get(i++);
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    pos = i - bufferOffset;
+                    return result;
+                }
+            }
+            throw InvalidProtocolBufferException.malformedVarint();
+        }
+        int shift = 0;
+        long result = 0;
+        while (shift < 64) {
+            byte b = readRawByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+            shift += 7;
+        }
+        throw InvalidProtocolBufferException.malformedVarint();
+    }
+
+    /** Read a 32-bit little-endian integer from the stream. */
+    public int readRawLittleEndian32() throws IOException {
+        if( buffer != null && end - pos >= 4 ) {
+            final byte[] buffer = this.buffer;
+            int i = bufferOffset + pos;
+            pos += 4;
+            return (buffer[i] & 0xff) | ((buffer[i + 1] & 0xff) << 8) | ((buffer[i + 2] & 0xff) << 16) | ((buffer[i + 3] & 0xff) << 24);
+        }
+        if( byteBuffer != null && end - pos >= 4 ) {
+            int rc = byteBuffer.getInt(bufferOffset + pos);
+            pos += 4;
+            return rc;
+        }
+        byte b1 = readRawByte();
+        byte b2 = readRawByte();
+        byte b3 = readRawByte();
+        byte b4 = readRawByte();
+        return (((int) b1 & 0xff)) | (((int) b2 & 0xff) << 8) | (((int) b3 & 0xff) << 16) | (((int) b4 & 0xff) << 24);
+    }
+
+    /** Read a 64-bit little-endian integer from the stream. */
+    public long readRawLittleEndian64() throws IOException {
+        if( buffer != null && end - pos >= 8 ) {
+            final byte[] buffer = this.buffer;
+            int i = bufferOffset + pos;
+            pos += 8;
+            return ((long) buffer[i] & 0xff) | (((long) buffer[i + 1] & 0xff) << 8) | (((long) buffer[i + 2] & 0xff) << 16) | (((long) buffer[i + 3] & 0xff) << 24)
+                    | (((long) buffer[i + 4] & 0xff) << 32) | (((long) buffer[i + 5] & 0xff) << 40) | (((long) buffer[i + 6] & 0xff) << 48) | (((long) buffer[i + 7] & 0xff) << 56);
+        }
+        if( byteBuffer != null && end - pos >= 8 ) {
+            long rc = byteBuffer.getLong(bufferOffset + pos);
+            pos += 8;
+            return rc;
+        }
+        byte b1 = readRawByte();
+        byte b2 = readRawByte();
+        byte b3 = readRawByte();
+        byte b4 = readRawByte();
+        byte b5 = readRawByte();
+        byte b6 = readRawByte();
+        byte b7 = readRawByte();
+        byte b8 = readRawByte();
+        return (((long) b1 & 0xff)) | (((long) b2 & 0xff) << 8) | (((long) b3 & 0xff) << 16) | (((long) b4 & 0xff) << 24) | (((long) b5 & 0xff) << 32) | (((long) b6 & 0xff) << 40) | (((long) b7 & 0xff) << 48) | (((long) b8 & 0xff) << 56);
+    }
+
+    /**
+     * Decode a ZigZag-encoded 32-bit value. ZigZag encodes signed integers into
+     * values that can be efficiently encoded with varint. (Otherwise, negative
+     * values must be sign-extended to 64 bits to be varint encoded, thus always
+     * taking 10 bytes on the wire.)
+     * 
+     * @param n
+     *            An unsigned 32-bit integer, stored in a signed int because
+     *            Java has no explicit unsigned support.
+     * @return A signed 32-bit integer.
+     */
+    public static int decodeZigZag32(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Decode a ZigZag-encoded 64-bit value. ZigZag encodes signed integers into
+     * values that can be efficiently encoded with varint. (Otherwise, negative
+     * values must be sign-extended to 64 bits to be varint encoded, thus always
+     * taking 10 bytes on the wire.)
+     * 
+     * @param n
+     *            An unsigned 64-bit integer, stored in a signed int because
+     *            Java has no explicit unsigned support.
+     * @return A signed 64-bit integer.
+     */
+    public static long decodeZigZag64(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }   
+
+    /**
+     * Read one byte from the input.
+     * 
+     * @throws InvalidProtocolBufferException
+     *             The end of the stream or the current limit was reached.
+     */
+    public byte readRawByte() throws IOException {
+        if( pos >= end ) {
+            throw new EOFException();
+        }
+        if( buffer != null ) {
+            return buffer[bufferOffset + pos++];
+        }
+        if( byteBuffer != null ) {
+            return byteBuffer.get(bufferOffset + pos++);
+        }
+        int rc = in.read();
+        if( rc < 0 ) {
+            throw new EOFException();
+        }
+        pos++;
+        return (byte)( rc & 0xFF); 
+    }
+
+    /**
+     * Read a fixed size of bytes from the input.
+     * 
+     * @throws InvalidProtocolBufferException
+     *             The end of the stream or the current limit was reached.
+     */
+    public Buffer readRawBytes(int size) throws IOException {
+        if( size < 0 ) {
+            throw InvalidProtocolBufferException.negativeSize();
+        }
+        if( size == 0) {
+            return new Buffer(new byte[]{});
+        }
+        
+        // If we are reading from an array then we can avoid an array copy.
+        if( buffer != null ) {
+            if( size > end - pos ) {
+                throw new EOFException();
+            }
+            Buffer rc;
+            if( aliasing ) {
+                rc = new Buffer(buffer, bufferOffset + pos, size);
+            } else {
+                rc = new Buffer(size);
+                System.arraycopy(buffer, bufferOffset + pos, rc.data, 0, size);
+            }
+            pos += size;
+            return rc;
+        }
+
+        if( byteBuffer != null ) {
+            if( size > end - pos ) {
+                throw new EOFException();
+            }
+            Buffer rc = new Buffer(size);
+            readByteBuffer(rc.data, 0, size);
+            return rc;
+        }
+
+        if( this.pos+size > limit ) {
+            throw new EOFException();
+        }
+
+        // Otherwise we, have to do it the old fasioned way
+        byte[] rc = new byte[size];
+        int c;
+        int pos=0;
+        while( pos < size ) {
+            c = in.read(rc, pos, size-pos);
+            if( c < 0 ) {
+                throw new EOFException();
+            }
+            this.pos += c;
+            pos += c;
+        }
+        
+        return new Buffer(rc);
+    }
+
+    /**
+     * Reads and discards {@code size} bytes.
+     * 
+     * @throws InvalidProtocolBufferException
+     *             The end of the stream or the current limit was reached.
+     */
+    public void skipRawBytes(int size) throws IOException {
+        if( size < 0 ) {
+            throw InvalidProtocolBufferException.negativeSize();
+        }
+        if( in == null ) {
+            if( size > end - pos ) {
+                throw new EOFException();
+            }
+            pos += size;
+            return;
+        }
+        if( this.pos+size > limit ) {
+            throw new EOFException();
+        }
+        int pos = 0;
+        while (pos < size) {
+            int n = (int) in.skip(size - pos);
+            if( n <= 0 ) {
+                // skip() may not be able to tell us about the EOF.
+                if( in.read() < 0 ) {
+                    throw new EOFException();
+                }
+                n = 1;
+            }
+            pos += n;
+            this.pos += n;
+        }
+    }
+
+    public int pushLimit(int limit) {
+        int rc = this.limit;
+        this.limit = pos+limit;
+        end = Math.min(this.limit, bufferSize);
+        return rc;
+    }
+
+    public void popLimit(int limit) {
+        this.limit = limit;
+        end = Math.min(limit, bufferSize);
+    }
+
+    /**
+     * @return the number of bytes left before the limit set by
+     *         {@link #pushLimit(int)} is reached.
+     */
+    public int getBytesUntilLimit() {
+        return limit - pos;
+    }
+
+    // -----------------------------------------------------------------
+    // InputStream methods, reading from the array when we have one.
+    // -----------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException {
+        if( in != null ) {
+            return super.read();
+        }
+        if( pos >= end ) {
+            return -1;
+        }
+        return readRawByte() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if( in != null ) {
+            return super.read(b, off, len);
+        }
+        if( pos >= end ) {
+            return -1;
+        }
+        len = Math.min(len, end - pos);
+        if( buffer != null ) {
+            System.arraycopy(buffer, bufferOffset + pos, b, off, len);
+            pos += len;
+        } else {
+            readByteBuffer(b, off, len);
+        }
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if( in != null ) {
+            return super.skip(n);
+        }
+        int rc = (int) Math.max(0, Math.min(n, end - pos));
+        pos += rc;
+        return rc;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if( in != null ) {
+            return super.available();
+        }
+        return end - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( in != null ) {
+            super.close();
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return in != null && super.markSupported();
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        if( in != null ) {
+            super.mark(readlimit);
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if( in != null ) {
+            super.reset();
+        } else {
+            throw new IOException("mark/reset not supported");
+        }
+    }
+  
+
+    private void readByteBuffer(byte[] b, int off, int len) {
+        byteBuffer.position(bufferOffset + pos);
+        byteBuffer.get(b, off, len);
+        pos += len;
+    }
+
+}
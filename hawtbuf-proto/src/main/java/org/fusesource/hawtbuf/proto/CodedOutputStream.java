@@ -1,484 +1,922 @@
-//Protocol Buffers - Google's data interchange format
-//Copyright 2008 Google Inc.
-//http://code.google.com/p/protobuf/
-//
-//Licensed under the Apache License, Version 2.0 (the "License");
-//you may not use this file except in compliance with the License.
-//You may obtain a copy of the License at
-//
-//   http://www.apache.org/licenses/LICENSE-2.0
-//
-//Unless required by applicable law or agreed to in writing, software
-//distributed under the License is distributed on an "AS IS" BASIS,
-//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-//See the License for the specific language governing permissions and
-//limitations under the License.
-package org.fusesource.hawtbuf.proto;
-
-import java.io.FilterOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-
-import org.fusesource.hawtbuf.Buffer;
-import org.fusesource.hawtbuf.BufferOutputStream;
-
-/**
- * Encodes and writes protocol message fields.
- * 
- * <p>
- * This class contains two kinds of methods: methods that write specific
- * protocol message constructs and field types (e.g. {@link #writeTag} and
- * {@link #writeInt32}) and methods that write low-level values (e.g.
- * {@link #writeRawVarint32} and {@link #writeRawBytes}). If you are writing
- * encoded protocol messages, you should use the former methods, but if you are
- * writing some other format of your own design, use the latter.
- * 
- * <p>
- * This class is totally unsynchronized.
- * 
- * @author kneton@google.com Kenton Varda
- */
-public final class CodedOutputStream extends FilterOutputStream {
-
-    private BufferOutputStream bos;
-
-    public CodedOutputStream(OutputStream os) {
-        super(os);
-        if( os instanceof BufferOutputStream ) {
-            bos = (BufferOutputStream)os;
-        }
-    }
-    
-    public CodedOutputStream(byte[] data) {
-        super(new BufferOutputStream(data));
-    }
-    
-    public CodedOutputStream(Buffer data) {
-        super(new BufferOutputStream(data));
-    }
-
-    // -----------------------------------------------------------------
-
-    /** Write a {@code double} field, including tag, to the stream. */
-    public void writeDouble(int fieldNumber, double value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
-        writeRawLittleEndian64(Double.doubleToRawLongBits(value));
-    }
-
-    /** Write a {@code float} field, including tag, to the stream. */
-    public void writeFloat(int fieldNumber, float value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
-        writeRawLittleEndian32(Float.floatToRawIntBits(value));
-    }
-
-    /** Write a {@code uint64} field, including tag, to the stream. */
-    public void writeUInt64(int fieldNumber, long value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
-        writeRawVarint64(value);
-    }
-
-    /** Write an {@code int64} field, including tag, to the stream. */
-    public void writeInt64(int fieldNumber, long value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
-        writeRawVarint64(value);
-    }
-
-    /** Write an {@code int32} field, including tag, to the stream. */
-    public void writeInt32(int fieldNumber, int value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
-        if (value >= 0) {
-            writeRawVarint32(value);
-        } else {
-            // Must sign-extend.
-            writeRawVarint64(value);
-        }
-    }
-
-    /** Write a {@code fixed64} field, including tag, to the stream. */
-    public void writeFixed64(int fieldNumber, long value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
-        writeRawLittleEndian64(value);
-    }
-
-    /** Write a {@code fixed32} field, including tag, to the stream. */
-    public void writeFixed32(int fieldNumber, int value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
-        writeRawLittleEndian32(value);
-    }
-
-    /** Write a {@code bool} field, including tag, to the stream. */
-    public void writeBool(int fieldNumber, boolean value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
-        writeRawByte(value ? 1 : 0);
-    }
-
-    /** Write a {@code string} field, including tag, to the stream. */
-    public void writeString(int fieldNumber, String value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
-        // Unfortunately there does not appear to be any way to tell Java to
-        // encode
-        // UTF-8 directly into our buffer, so we have to let it create its own
-        // byte
-        // array and then copy.
-        byte[] bytes = value.getBytes("UTF-8");
-        writeRawVarint32(bytes.length);
-        writeRawBytes(bytes);
-    }
-
-    /** Write a {@code bytes} field, including tag, to the stream. */
-    public void writeBytes(int fieldNumber, Buffer value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
-        writeRawVarint32(value.length);
-        writeRawBytes(value.data, value.offset, value.length);
-    }
-
-    /** Write a {@code uint32} field, including tag, to the stream. */
-    public void writeUInt32(int fieldNumber, int value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
-        writeRawVarint32(value);
-    }
-
-    /**
-     * Write an enum field, including tag, to the stream. Caller is responsible
-     * for converting the enum value to its numeric value.
-     */
-    public void writeEnum(int fieldNumber, int value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
-        writeRawVarint32(value);
-    }
-
-    /** Write an {@code sfixed32} field, including tag, to the stream. */
-    public void writeSFixed32(int fieldNumber, int value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
-        writeRawLittleEndian32(value);
-    }
-
-    /** Write an {@code sfixed64} field, including tag, to the stream. */
-    public void writeSFixed64(int fieldNumber, long value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
-        writeRawLittleEndian64(value);
-    }
-
-    /** Write an {@code sint32} field, including tag, to the stream. */
-    public void writeSInt32(int fieldNumber, int value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
-        writeRawVarint32(encodeZigZag32(value));
-    }
-
-    /** Write an {@code sint64} field, including tag, to the stream. */
-    public void writeSInt64(int fieldNumber, long value) throws IOException {
-        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
-        writeRawVarint64(encodeZigZag64(value));
-    }
-
-    // =================================================================
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code
-     * double} field, including tag.
-     */
-    public static int computeDoubleSize(int fieldNumber, double value) {
-        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_64_SIZE;
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code
-     * float} field, including tag.
-     */
-    public static int computeFloatSize(int fieldNumber, float value) {
-        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_32_SIZE;
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code
-     * uint64} field, including tag.
-     */
-    public static int computeUInt64Size(int fieldNumber, long value) {
-        return computeTagSize(fieldNumber) + computeRawVarint64Size(value);
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode an {@code
-     * int64} field, including tag.
-     */
-    public static int computeInt64Size(int fieldNumber, long value) {
-        return computeTagSize(fieldNumber) + computeRawVarint64Size(value);
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode an {@code
-     * int32} field, including tag.
-     */
-    public static int computeInt32Size(int fieldNumber, int value) {
-        if (value >= 0) {
-            return computeTagSize(fieldNumber) + computeRawVarint32Size(value);
-        } else {
-            // Must sign-extend.
-            return computeTagSize(fieldNumber) + 10;
-        }
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code
-     * fixed64} field, including tag.
-     */
-    public static int computeFixed64Size(int fieldNumber, long value) {
-        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_64_SIZE;
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code
-     * fixed32} field, including tag.
-     */
-    public static int computeFixed32Size(int fieldNumber, int value) {
-        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_32_SIZE;
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code bool}
-     * field, including tag.
-     */
-    public static int computeBoolSize(int fieldNumber, boolean value) {
-        return computeTagSize(fieldNumber) + 1;
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code
-     * string} field, including tag.
-     */
-    public static int computeStringSize(int fieldNumber, String value) {
-        try {
-            byte[] bytes = value.getBytes("UTF-8");
-            return computeTagSize(fieldNumber) + computeRawVarint32Size(bytes.length) + bytes.length;
-        } catch (java.io.UnsupportedEncodingException e) {
-            throw new RuntimeException("UTF-8 not supported.", e);
-        }
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code
-     * bytes} field, including tag.
-     */
-    public static int computeBytesSize(int fieldNumber, Buffer value) {
-        return computeTagSize(fieldNumber) + computeRawVarint32Size(value.length) + value.length;
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a {@code
-     * uint32} field, including tag.
-     */
-    public static int computeUInt32Size(int fieldNumber, int value) {
-        return computeTagSize(fieldNumber) + computeRawVarint32Size(value);
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode an enum field,
-     * including tag. Caller is responsible for converting the enum value to its
-     * numeric value.
-     */
-    public static int computeEnumSize(int fieldNumber, int value) {
-        return computeTagSize(fieldNumber) + computeRawVarint32Size(value);
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode an {@code
-     * sfixed32} field, including tag.
-     */
-    public static int computeSFixed32Size(int fieldNumber, int value) {
-        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_32_SIZE;
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode an {@code
-     * sfixed64} field, including tag.
-     */
-    public static int computeSFixed64Size(int fieldNumber, long value) {
-        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_64_SIZE;
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode an {@code
-     * sint32} field, including tag.
-     */
-    public static int computeSInt32Size(int fieldNumber, int value) {
-        return computeTagSize(fieldNumber) + computeRawVarint32Size(encodeZigZag32(value));
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode an {@code
-     * sint64} field, including tag.
-     */
-    public static int computeSInt64Size(int fieldNumber, long value) {
-        return computeTagSize(fieldNumber) + computeRawVarint64Size(encodeZigZag64(value));
-    }
-
-    /** Write a single byte. */
-    public void writeRawByte(byte value) throws IOException {
-        out.write(value);
-    }
-
-    /** Write a single byte, represented by an integer value. */
-    public void writeRawByte(int value) throws IOException {
-        writeRawByte((byte) value);
-    }
-
-    /** Write an array of bytes. */
-    public void writeRawBytes(byte[] value) throws IOException {
-        writeRawBytes(value, 0, value.length);
-    }
-
-    /** Write part of an array of bytes. */
-    public void writeRawBytes(byte[] value, int offset, int length) throws IOException {
-        out.write(value, offset, length);
-    }
-
-    public void writeRawBytes(Buffer data) throws IOException {
-        out.write(data.data, data.offset, data.length);
-    }
-
-    /** Encode and write a tag. */
-    public void writeTag(int fieldNumber, int wireType) throws IOException {
-        writeRawVarint32(WireFormat.makeTag(fieldNumber, wireType));
-    }
-
-    /** Compute the number of bytes that would be needed to encode a tag. */
-    public static int computeTagSize(int fieldNumber) {
-        return computeRawVarint32Size(WireFormat.makeTag(fieldNumber, 0));
-    }
-
-    /**
-     * Encode and write a varint. {@code value} is treated as unsigned, so it
-     * won't be sign-extended if negative.
-     */
-    public void writeRawVarint32(int value) throws IOException {
-        while (true) {
-            if ((value & ~0x7F) == 0) {
-                writeRawByte(value);
-                return;
-            } else {
-                writeRawByte((value & 0x7F) | 0x80);
-                value >>>= 7;
-            }
-        }
-    }
-
-    /**
-     * Compute the number of bytes that would be needed to encode a varint.
-     * {@code value} is treated as unsigned, so it won't be sign-extended if
-     * negative.
-     */
-    public static int computeRawVarint32Size(int value) {
-        if ((value & (0xffffffff << 7)) == 0)
-            return 1;
-        if ((value & (0xffffffff << 14)) == 0)
-            return 2;
-        if ((value & (0xffffffff << 21)) == 0)
-            return 3;
-        if ((value & (0xffffffff << 28)) == 0)
-            return 4;
-        return 5;
-    }
-
-    /** Encode and write a varint. */
-    public void writeRawVarint64(long value) throws IOException {
-        while (true) {
-            if ((value & ~0x7FL) == 0) {
-                writeRawByte((int) value);
-                return;
-            } else {
-                writeRawByte(((int) value & 0x7F) | 0x80);
-                value >>>= 7;
-            }
-        }
-    }
-
-    /** Compute the number of bytes that would be needed to encode a varint. */
-    public static int computeRawVarint64Size(long value) {
-        if ((value & (0xffffffffffffffffL << 7)) == 0)
-            return 1;
-        if ((value & (0xffffffffffffffffL << 14)) == 0)
-            return 2;
-        if ((value & (0xffffffffffffffffL << 21)) == 0)
-            return 3;
-        if ((value & (0xffffffffffffffffL << 28)) == 0)
-            return 4;
-        if ((value & (0xffffffffffffffffL << 35)) == 0)
-            return 5;
-        if ((value & (0xffffffffffffffffL << 42)) == 0)
-            return 6;
-        if ((value & (0xffffffffffffffffL << 49)) == 0)
-            return 7;
-        if ((value & (0xffffffffffffffffL << 56)) == 0)
-            return 8;
-        if ((value & (0xffffffffffffffffL << 63)) == 0)
-            return 9;
-        return 10;
-    }
-
-    /** Write a little-endian 32-bit integer. */
-    public void writeRawLittleEndian32(int value) throws IOException {
-        writeRawByte((value) & 0xFF);
-        writeRawByte((value >> 8) & 0xFF);
-        writeRawByte((value >> 16) & 0xFF);
-        writeRawByte((value >> 24) & 0xFF);
-    }
-
-    public static final int LITTLE_ENDIAN_32_SIZE = 4;
-
-    /** Write a little-endian 64-bit integer. */
-    public void writeRawLittleEndian64(long value) throws IOException {
-        writeRawByte((int) (value) & 0xFF);
-        writeRawByte((int) (value >> 8) & 0xFF);
-        writeRawByte((int) (value >> 16) & 0xFF);
-        writeRawByte((int) (value >> 24) & 0xFF);
-        writeRawByte((int) (value >> 32) & 0xFF);
-        writeRawByte((int) (value >> 40) & 0xFF);
-        writeRawByte((int) (value >> 48) & 0xFF);
-        writeRawByte((int) (value >> 56) & 0xFF);
-    }
-
-    public static final int LITTLE_ENDIAN_64_SIZE = 8;
-
-    /**
-     * Encode a ZigZag-encoded 32-bit value. ZigZag encodes signed integers into
-     * values that can be efficiently encoded with varint. (Otherwise, negative
-     * values must be sign-extended to 64 bits to be varint encoded, thus always
-     * taking 10 bytes on the wire.)
-     * 
-     * @param n
-     *            A signed 32-bit integer.
-     * @return An unsigned 32-bit integer, stored in a signed int because Java
-     *         has no explicit unsigned support.
-     */
-    public static int encodeZigZag32(int n) {
-        // Note: the right-shift must be arithmetic
-        return (n << 1) ^ (n >> 31);
-    }
-
-    /**
-     * Encode a ZigZag-encoded 64-bit value. ZigZag encodes signed integers into
-     * values that can be efficiently encoded with varint. (Otherwise, negative
-     * values must be sign-extended to 64 bits to be varint encoded, thus always
-     * taking 10 bytes on the wire.)
-     * 
-     * @param n
-     *            A signed 64-bit integer.
-     * @return An unsigned 64-bit integer, stored in a signed int because Java
-     *         has no explicit unsigned support.
-     */
-    public static long encodeZigZag64(long n) {
-        // Note: the right-shift must be arithmetic
-        return (n << 1) ^ (n >> 63);
-    }
-
-    public void checkNoSpaceLeft() {
-    }
-
-    public Buffer getNextBuffer(int size) throws IOException {
-        if( bos==null ) {
-            return null;
-        }
-        return bos.getNextBuffer(size);
-    }
-
-}
+//Protocol Buffers - Google's data interchange format
+//Copyright 2008 Google Inc.
+//http://code.google.com/p/protobuf/
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+package org.fusesource.hawtbuf.proto;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.BufferOutputStream;
+
+/**
+ * Encodes and writes protocol message fields.
+ * 
+ * <p>
+ * This class contains two kinds of methods: methods that write specific
+ * protocol message constructs and field types (e.g. {@link #writeTag} and
+ * {@link #writeInt32}) and methods that write low-level values (e.g.
+ * {@link #writeRawVarint32} and {@link #writeRawBytes}). If you are writing
+ * encoded protocol messages, you should use the former methods, but if you are
+ * writing some other format of your own design, use the latter.
+ * 
+ * <p>
+ * Values are encoded straight into a <code>byte[]</code>.  When created
+ * from a <code>byte[]</code>, {@link Buffer} or heap {@link ByteBuffer} that
+ * is the caller's array, when wrapping a {@link BufferOutputStream} it is the
+ * stream's array, and for any other stream it is an internal buffer which is
+ * written to the stream in bulk.  Direct {@link ByteBuffer}s are written with
+ * absolute puts.  Call {@link #flush()} before using the underlying stream
+ * or ByteBuffer.
+ * 
+ * <p>
+ * This class is totally unsynchronized.
+ * 
+ * @author kneton@google.com Kenton Varda
+ */
+public final class CodedOutputStream extends FilterOutputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    // The internal buffer used when writing to other streams.
+    private byte[] streamBuffer;
+
+    // Set when writing directly into a BufferOutputStream's array, start
+    // is where the bytes not yet flushed to it begin.
+    private BufferOutputStream bos;
+    private int start;
+
+    // Set when writing into a ByteBuffer, byteBuffer is only used for
+    // direct ones.  position - targetOffset is the target's position.
+    private ByteBuffer target;
+    private ByteBuffer byteBuffer;
+    private int targetOffset;
+
+    // Set when the stream can keep references to large writes.
+    private Retainer retainer;
+
+    /**
+     * Implemented by streams which can keep a reference to the bytes of a
+     * raw write which is too big to buffer instead of copying them.
+     */
+    interface Retainer {
+        void retain(Buffer data) throws IOException;
+    }
+
+    /**
+     * Buffers up to {@link #DEFAULT_BUFFER_SIZE} bytes before writing them
+     * to <code>os</code>, call {@link #flush()} or {@link #close()} so that
+     * the last ones are written.
+     */
+    public CodedOutputStream(OutputStream os) {
+        this(os, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize the size of the internal buffer used when
+     *        <code>os</code> is not a {@link BufferOutputStream}.
+     */
+    public CodedOutputStream(OutputStream os, int bufferSize) {
+        super(os);
+        if( !(os instanceof BufferOutputStream) ) {
+            streamBuffer = new byte[Math.max(bufferSize, 16)];
+        }
+        reset(os);
+    }
+    
+    public CodedOutputStream(byte[] data) {
+        super(null);
+        setBuffer(data, 0, data.length);
+    }
+    
+    public CodedOutputStream(Buffer data) {
+        super(null);
+        reset(data);
+    }
+
+    /**
+     * Writes into the remaining space of the ByteBuffer, its position
+     * is advanced when the stream is flushed.
+     */
+    public CodedOutputStream(ByteBuffer data) {
+        super(null);
+        reset(data);
+    }
+
+    /**
+     * Resets this stream so that it writes into the given buffer.
+     * Unflushed data is discarded.
+     */
+    public void reset(Buffer data) {
+        out = null;
+        bos = null;
+        setBuffer(data.data, data.offset, data.length);
+    }
+
+    /**
+     * Resets this stream so that it writes into the remaining space of the
+     * ByteBuffer.  Unflushed data is discarded.
+     */
+    public void reset(ByteBuffer data) {
+        out = null;
+        bos = null;
+        if( data.hasArray() ) {
+            setBuffer(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            targetOffset = data.arrayOffset();
+        } else {
+            setBuffer(null, data.position(), data.remaining());
+            // a private view so that we can pick the byte order.
+            byteBuffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            targetOffset = 0;
+        }
+        target = data;
+    }
+
+    /**
+     * Resets this stream so that it writes to the given stream.
+     * Unflushed data is discarded.
+     */
+    public void reset(OutputStream os) {
+        out = os;
+        retainer = os instanceof Retainer ? (Retainer)os : null;
+        if( os instanceof BufferOutputStream ) {
+            bos = (BufferOutputStream)os;
+            Buffer next = bos.remainingBuffer();
+            setBuffer(next.data, next.offset, next.length);
+            start = position;
+        } else {
+            bos = null;
+            if( streamBuffer == null ) {
+                streamBuffer = new byte[DEFAULT_BUFFER_SIZE];
+            }
+            setBuffer(streamBuffer, 0, streamBuffer.length);
+        }
+    }
+
+    private void setBuffer(byte[] data, int offset, int length) {
+        target = null;
+        byteBuffer = null;
+        buffer = data;
+        position = offset;
+        limit = offset + length;
+    }
+
+    /**
+     * Makes room in the buffer by writing what it holds to the stream.
+     */
+    private void refresh() throws IOException {
+        if( out == null || bos != null ) {
+            throw new EOFException("Buffer limit reached.");
+        }
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if( target != null ) {
+            target.position(position - targetOffset);
+        } else if( bos != null ) {
+            bos.skip(position - start);
+            start = position;
+        } else if( out != null ) {
+            if( position > 0 ) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if( out != null ) {
+            out.close();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        writeRawByte(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeRawBytes(b, off, len);
+    }
+
+    // -----------------------------------------------------------------
+
+    /** Write a {@code double} field, including tag, to the stream. */
+    public void writeDouble(int fieldNumber, double value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+        writeDoubleNoTag(value);
+    }
+
+    /** Write a {@code float} field, including tag, to the stream. */
+    public void writeFloat(int fieldNumber, float value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+        writeFloatNoTag(value);
+    }
+
+    /** Write a {@code uint64} field, including tag, to the stream. */
+    public void writeUInt64(int fieldNumber, long value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        writeUInt64NoTag(value);
+    }
+
+    /** Write an {@code int64} field, including tag, to the stream. */
+    public void writeInt64(int fieldNumber, long value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        writeInt64NoTag(value);
+    }
+
+    /** Write an {@code int32} field, including tag, to the stream. */
+    public void writeInt32(int fieldNumber, int value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        writeInt32NoTag(value);
+    }
+
+    /** Write a {@code fixed64} field, including tag, to the stream. */
+    public void writeFixed64(int fieldNumber, long value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+        writeFixed64NoTag(value);
+    }
+
+    /** Write a {@code fixed32} field, including tag, to the stream. */
+    public void writeFixed32(int fieldNumber, int value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+        writeFixed32NoTag(value);
+    }
+
+    /** Write a {@code bool} field, including tag, to the stream. */
+    public void writeBool(int fieldNumber, boolean value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        writeBoolNoTag(value);
+    }
+
+    /** Write a {@code string} field, including tag, to the stream. */
+    public void writeString(int fieldNumber, String value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        // Unfortunately there does not appear to be any way to tell Java to
+        // encode
+        // UTF-8 directly into our buffer, so we have to let it create its own
+        // byte
+        // array and then copy.
+        byte[] bytes = value.getBytes("UTF-8");
+        writeRawVarint32(bytes.length);
+        writeRawBytes(bytes);
+    }
+
+    /** Write a {@code bytes} field, including tag, to the stream. */
+    public void writeBytes(int fieldNumber, Buffer value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        writeRawVarint32(value.length);
+        writeRawBytes(value.data, value.offset, value.length);
+    }
+
+    /** Write a {@code uint32} field, including tag, to the stream. */
+    public void writeUInt32(int fieldNumber, int value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        writeUInt32NoTag(value);
+    }
+
+    /**
+     * Write an enum field, including tag, to the stream. Caller is responsible
+     * for converting the enum value to its numeric value.
+     */
+    public void writeEnum(int fieldNumber, int value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        writeEnumNoTag(value);
+    }
+
+    /** Write an {@code sfixed32} field, including tag, to the stream. */
+    public void writeSFixed32(int fieldNumber, int value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+        writeSFixed32NoTag(value);
+    }
+
+    /** Write an {@code sfixed64} field, including tag, to the stream. */
+    public void writeSFixed64(int fieldNumber, long value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+        writeSFixed64NoTag(value);
+    }
+
+    /** Write an {@code sint32} field, including tag, to the stream. */
+    public void writeSInt32(int fieldNumber, int value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        writeSInt32NoTag(value);
+    }
+
+    /** Write an {@code sint64} field, including tag, to the stream. */
+    public void writeSInt64(int fieldNumber, long value) throws IOException {
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        writeSInt64NoTag(value);
+    }
+
+    /** Write a {@code double} value, without a tag, to the stream. */
+    public void writeDoubleNoTag(double value) throws IOException {
+        writeRawLittleEndian64(Double.doubleToRawLongBits(value));
+    }
+
+    /** Write a {@code float} value, without a tag, to the stream. */
+    public void writeFloatNoTag(float value) throws IOException {
+        writeRawLittleEndian32(Float.floatToRawIntBits(value));
+    }
+
+    /** Write a {@code uint64} value, without a tag, to the stream. */
+    public void writeUInt64NoTag(long value) throws IOException {
+        writeRawVarint64(value);
+    }
+
+    /** Write an {@code int64} value, without a tag, to the stream. */
+    public void writeInt64NoTag(long value) throws IOException {
+        writeRawVarint64(value);
+    }
+
+    /** Write an {@code int32} value, without a tag, to the stream. */
+    public void writeInt32NoTag(int value) throws IOException {
+        if (value >= 0) {
+            writeRawVarint32(value);
+        } else {
+            // Must sign-extend.
+            writeRawVarint64(value);
+        }
+    }
+
+    /** Write a {@code fixed64} value, without a tag, to the stream. */
+    public void writeFixed64NoTag(long value) throws IOException {
+        writeRawLittleEndian64(value);
+    }
+
+    /** Write a {@code fixed32} value, without a tag, to the stream. */
+    public void writeFixed32NoTag(int value) throws IOException {
+        writeRawLittleEndian32(value);
+    }
+
+    /** Write a {@code bool} value, without a tag, to the stream. */
+    public void writeBoolNoTag(boolean value) throws IOException {
+        writeRawByte(value ? 1 : 0);
+    }
+
+    /** Write a {@code uint32} value, without a tag, to the stream. */
+    public void writeUInt32NoTag(int value) throws IOException {
+        writeRawVarint32(value);
+    }
+
+    /** Write an enum value, without a tag, to the stream. */
+    public void writeEnumNoTag(int value) throws IOException {
+        writeRawVarint32(value);
+    }
+
+    /** Write a {@code sfixed32} value, without a tag, to the stream. */
+    public void writeSFixed32NoTag(int value) throws IOException {
+        writeRawLittleEndian32(value);
+    }
+
+    /** Write a {@code sfixed64} value, without a tag, to the stream. */
+    public void writeSFixed64NoTag(long value) throws IOException {
+        writeRawLittleEndian64(value);
+    }
+
+    /** Write a {@code sint32} value, without a tag, to the stream. */
+    public void writeSInt32NoTag(int value) throws IOException {
+        writeRawVarint32(encodeZigZag32(value));
+    }
+
+    /** Write a {@code sint64} value, without a tag, to the stream. */
+    public void writeSInt64NoTag(long value) throws IOException {
+        writeRawVarint64(encodeZigZag64(value));
+    }
+
+    // =================================================================
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code
+     * double} field, including tag.
+     */
+    public static int computeDoubleSize(int fieldNumber, double value) {
+        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_64_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code
+     * float} field, including tag.
+     */
+    public static int computeFloatSize(int fieldNumber, float value) {
+        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_32_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code
+     * uint64} field, including tag.
+     */
+    public static int computeUInt64Size(int fieldNumber, long value) {
+        return computeTagSize(fieldNumber) + computeRawVarint64Size(value);
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an {@code
+     * int64} field, including tag.
+     */
+    public static int computeInt64Size(int fieldNumber, long value) {
+        return computeTagSize(fieldNumber) + computeRawVarint64Size(value);
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an {@code
+     * int32} field, including tag.
+     */
+    public static int computeInt32Size(int fieldNumber, int value) {
+        if (value >= 0) {
+            return computeTagSize(fieldNumber) + computeRawVarint32Size(value);
+        } else {
+            // Must sign-extend.
+            return computeTagSize(fieldNumber) + 10;
+        }
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code
+     * fixed64} field, including tag.
+     */
+    public static int computeFixed64Size(int fieldNumber, long value) {
+        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_64_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code
+     * fixed32} field, including tag.
+     */
+    public static int computeFixed32Size(int fieldNumber, int value) {
+        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_32_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code bool}
+     * field, including tag.
+     */
+    public static int computeBoolSize(int fieldNumber, boolean value) {
+        return computeTagSize(fieldNumber) + 1;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code
+     * string} field, including tag.
+     */
+    public static int computeStringSize(int fieldNumber, String value) {
+        try {
+            byte[] bytes = value.getBytes("UTF-8");
+            return computeTagSize(fieldNumber) + computeRawVarint32Size(bytes.length) + bytes.length;
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 not supported.", e);
+        }
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code
+     * bytes} field, including tag.
+     */
+    public static int computeBytesSize(int fieldNumber, Buffer value) {
+        return computeTagSize(fieldNumber) + computeRawVarint32Size(value.length) + value.length;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code
+     * uint32} field, including tag.
+     */
+    public static int computeUInt32Size(int fieldNumber, int value) {
+        return computeTagSize(fieldNumber) + computeRawVarint32Size(value);
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an enum field,
+     * including tag. Caller is responsible for converting the enum value to its
+     * numeric value.
+     */
+    public static int computeEnumSize(int fieldNumber, int value) {
+        return computeTagSize(fieldNumber) + computeRawVarint32Size(value);
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an {@code
+     * sfixed32} field, including tag.
+     */
+    public static int computeSFixed32Size(int fieldNumber, int value) {
+        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_32_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an {@code
+     * sfixed64} field, including tag.
+     */
+    public static int computeSFixed64Size(int fieldNumber, long value) {
+        return computeTagSize(fieldNumber) + LITTLE_ENDIAN_64_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an {@code
+     * sint32} field, including tag.
+     */
+    public static int computeSInt32Size(int fieldNumber, int value) {
+        return computeTagSize(fieldNumber) + computeRawVarint32Size(encodeZigZag32(value));
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an {@code
+     * sint64} field, including tag.
+     */
+    public static int computeSInt64Size(int fieldNumber, long value) {
+        return computeTagSize(fieldNumber) + computeRawVarint64Size(encodeZigZag64(value));
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code double}
+     * value, without a tag.
+     */
+    public static int computeDoubleSizeNoTag(double value) {
+        return LITTLE_ENDIAN_64_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code float}
+     * value, without a tag.
+     */
+    public static int computeFloatSizeNoTag(float value) {
+        return LITTLE_ENDIAN_32_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code uint64}
+     * value, without a tag.
+     */
+    public static int computeUInt64SizeNoTag(long value) {
+        return computeRawVarint64Size(value);
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an {@code int64}
+     * value, without a tag.
+     */
+    public static int computeInt64SizeNoTag(long value) {
+        return computeRawVarint64Size(value);
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an {@code int32}
+     * value, without a tag.
+     */
+    public static int computeInt32SizeNoTag(int value) {
+        return value >= 0 ? computeRawVarint32Size(value) : 10;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code fixed64}
+     * value, without a tag.
+     */
+    public static int computeFixed64SizeNoTag(long value) {
+        return LITTLE_ENDIAN_64_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code fixed32}
+     * value, without a tag.
+     */
+    public static int computeFixed32SizeNoTag(int value) {
+        return LITTLE_ENDIAN_32_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code bool}
+     * value, without a tag.
+     */
+    public static int computeBoolSizeNoTag(boolean value) {
+        return 1;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code uint32}
+     * value, without a tag.
+     */
+    public static int computeUInt32SizeNoTag(int value) {
+        return computeRawVarint32Size(value);
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode an enum
+     * value, without a tag.
+     */
+    public static int computeEnumSizeNoTag(int value) {
+        return computeRawVarint32Size(value);
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code sfixed32}
+     * value, without a tag.
+     */
+    public static int computeSFixed32SizeNoTag(int value) {
+        return LITTLE_ENDIAN_32_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code sfixed64}
+     * value, without a tag.
+     */
+    public static int computeSFixed64SizeNoTag(long value) {
+        return LITTLE_ENDIAN_64_SIZE;
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code sint32}
+     * value, without a tag.
+     */
+    public static int computeSInt32SizeNoTag(int value) {
+        return computeRawVarint32Size(encodeZigZag32(value));
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a {@code sint64}
+     * value, without a tag.
+     */
+    public static int computeSInt64SizeNoTag(long value) {
+        return computeRawVarint64Size(encodeZigZag64(value));
+    }
+
+    /** Write a single byte. */
+    public void writeRawByte(byte value) throws IOException {
+        if( position == limit ) {
+            refresh();
+        }
+        if( buffer != null ) {
+            buffer[position++] = value;
+        } else {
+            byteBuffer.put(position++, value);
+        }
+    }
+
+    /** Write a single byte, represented by an integer value. */
+    public void writeRawByte(int value) throws IOException {
+        writeRawByte((byte) value);
+    }
+
+    /** Write an array of bytes. */
+    public void writeRawBytes(byte[] value) throws IOException {
+        writeRawBytes(value, 0, value.length);
+    }
+
+    /** Write part of an array of bytes. */
+    public void writeRawBytes(byte[] value, int offset, int length) throws IOException {
+        if( limit - position >= length ) {
+            if( buffer != null ) {
+                System.arraycopy(value, offset, buffer, position, length);
+            } else {
+                byteBuffer.position(position);
+                byteBuffer.put(value, offset, length);
+            }
+            position += length;
+        } else {
+            refresh();
+            if( length <= limit ) {
+                System.arraycopy(value, offset, buffer, 0, length);
+                position = length;
+            } else if( retainer != null ) {
+                retainer.retain(new Buffer(value, offset, length));
+            } else {
+                // Too big to buffer, write it straight out.
+                out.write(value, offset, length);
+            }
+        }
+    }
+
+    public void writeRawBytes(Buffer data) throws IOException {
+        writeRawBytes(data.data, data.offset, data.length);
+    }
+
+    /** Encode and write a tag. */
+    public void writeTag(int fieldNumber, int wireType) throws IOException {
+        writeRawVarint32(WireFormat.makeTag(fieldNumber, wireType));
+    }
+
+    /** Compute the number of bytes that would be needed to encode a tag. */
+    public static int computeTagSize(int fieldNumber) {
+        return computeRawVarint32Size(WireFormat.makeTag(fieldNumber, 0));
+    }
+
+    /**
+     * Encode and write a varint. {@code value} is treated as unsigned, so it
+     * won't be sign-extended if negative.
+     */
+    public void writeRawVarint32(int value) throws IOException {
+        if( buffer != null && limit - position >= 5 ) {
+            final byte[] buffer = this.buffer;
+            int p = position;
+            while ((value & ~0x7F) != 0) {
+                buffer[p++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[p++] = (byte) value;
+            position = p;
+            return;
+        }
+        while (true) {
+            if ((value & ~0x7F) == 0) {
+                writeRawByte(value);
+                return;
+            } else {
+                writeRawByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+        }
+    }
+
+    /**
+     * Compute the number of bytes that would be needed to encode a varint.
+     * {@code value} is treated as unsigned, so it won't be sign-extended if
+     * negative.
+     */
+    public static int computeRawVarint32Size(int value) {
+        if ((value & (0xffffffff << 7)) == 0)
+            return 1;
+        if ((value & (0xffffffff << 14)) == 0)
+            return 2;
+        if ((value & (0xffffffff << 21)) == 0)
+            return 3;
+        if ((value & (0xffffffff << 28)) == 0)
+            return 4;
+        return 5;
+    }
+
+    /** Encode and write a varint. */
+    public void writeRawVarint64(long value) throws IOException {
+        if( buffer != null && limit - position >= 10 ) {
+            final byte[] buffer = this.buffer;
+            int p = position;
+            while ((value & ~0x7FL) != 0) {
+                buffer[p++] = (byte) (((int) value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[p++] = (byte) value;
+            position = p;
+            return;
+        }
+        while (true) {
+            if ((value & ~0x7FL) == 0) {
+                writeRawByte((int) value);
+                return;
+            } else {
+                writeRawByte(((int) value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+        }
+    }
+
+    /** Compute the number of bytes that would be needed to encode a varint. */
+    public static int computeRawVarint64Size(long value) {
+        if ((value & (0xffffffffffffffffL << 7)) == 0)
+            return 1;
+        if ((value & (0xffffffffffffffffL << 14)) == 0)
+            return 2;
+        if ((value & (0xffffffffffffffffL << 21)) == 0)
+            return 3;
+        if ((value & (0xffffffffffffffffL << 28)) == 0)
+            return 4;
+        if ((value & (0xffffffffffffffffL << 35)) == 0)
+            return 5;
+        if ((value & (0xffffffffffffffffL << 42)) == 0)
+            return 6;
+        if ((value & (0xffffffffffffffffL << 49)) == 0)
+            return 7;
+        if ((value & (0xffffffffffffffffL << 56)) == 0)
+            return 8;
+        if ((value & (0xffffffffffffffffL << 63)) == 0)
+            return 9;
+        return 10;
+    }
+
+    /** Write a little-endian 32-bit integer. */
+    public void writeRawLittleEndian32(int value) throws IOException {
+        if( limit - position < 4 ) {
+            refresh();
+        }
+        if( byteBuffer != null ) {
+            byteBuffer.putInt(position, value);
+            position += 4;
+            return;
+        }
+        final byte[] buffer = this.buffer;
+        int p = position;
+        buffer[p] = (byte) value;
+        buffer[p + 1] = (byte) (value >> 8);
+        buffer[p + 2] = (byte) (value >> 16);
+        buffer[p + 3] = (byte) (value >> 24);
+        position = p + 4;
+    }
+
+    public static final int LITTLE_ENDIAN_32_SIZE = 4;
+
+    /** Write a little-endian 64-bit integer. */
+    public void writeRawLittleEndian64(long value) throws IOException {
+        if( limit - position < 8 ) {
+            refresh();
+        }
+        if( byteBuffer != null ) {
+            byteBuffer.putLong(position, value);
+            position += 8;
+            return;
+        }
+        final byte[] buffer = this.buffer;
+        int p = position;
+        buffer[p] = (byte) value;
+        buffer[p + 1] = (byte) (value >> 8);
+        buffer[p + 2] = (byte) (value >> 16);
+        buffer[p + 3] = (byte) (value >> 24);
+        buffer[p + 4] = (byte) (value >> 32);
+        buffer[p + 5] = (byte) (value >> 40);
+        buffer[p + 6] = (byte) (value >> 48);
+        buffer[p + 7] = (byte) (value >> 56);
+        position = p + 8;
+    }
+
+    public static final int LITTLE_ENDIAN_64_SIZE = 8;
+
+    /**
+     * Encode a ZigZag-encoded 32-bit value. ZigZag encodes signed integers into
+     * values that can be efficiently encoded with varint. (Otherwise, negative
+     * values must be sign-extended to 64 bits to be varint encoded, thus always
+     * taking 10 bytes on the wire.)
+     * 
+     * @param n
+     *            A signed 32-bit integer.
+     * @return An unsigned 32-bit integer, stored in a signed int because Java
+     *         has no explicit unsigned support.
+     */
+    public static int encodeZigZag32(int n) {
+        // Note: the right-shift must be arithmetic
+        return (n << 1) ^ (n >> 31);
+    }
+
+    /**
+     * Encode a ZigZag-encoded 64-bit value. ZigZag encodes signed integers into
+     * values that can be efficiently encoded with varint. (Otherwise, negative
+     * values must be sign-extended to 64 bits to be varint encoded, thus always
+     * taking 10 bytes on the wire.)
+     * 
+     * @param n
+     *            A signed 64-bit integer.
+     * @return An unsigned 64-bit integer, stored in a signed int because Java
+     *         has no explicit unsigned support.
+     */
+    public static long encodeZigZag64(long n) {
+        // Note: the right-shift must be arithmetic
+        return (n << 1) ^ (n >> 63);
+    }
+
+    /**
+     * Verifies that a stream created from a <code>byte[]</code> or {@link Buffer}
+     * has been completely filled.
+     *
+     * @throws IllegalStateException if it has not.
+     */
+    public void checkNoSpaceLeft() {
+        if( out == null && position != limit ) {
+            throw new IllegalStateException("Did not write as much data as expected.");
+        }
+    }
+
+    /**
+     * @return the region that the next <code>size</code> bytes will be written
+     *         into, or null if they are not written into a caller visible array.
+     *         ByteBuffers are usually recycled so their arrays are never exposed.
+     */
+    public Buffer getNextBuffer(int size) throws IOException {
+        if( target != null || (out != null && bos == null) ) {
+            return null;
+        }
+        if( limit - position < size ) {
+            throw new EOFException("Buffer limit reached.");
+        }
+        return new Buffer(buffer, position, size);
+    }
+
+}
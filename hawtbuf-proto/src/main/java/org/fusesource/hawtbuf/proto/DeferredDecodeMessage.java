@@ -35,6 +35,22 @@ abstract public class DeferredDecodeMessage<T> extends BaseMessage<T> {
         return rc;
     }
 
+    /**
+     * The mask is ignored, the message is decoded in full when first accessed.
+     */
+    @Override
+    public T mergeFramed(CodedInputStream input, FieldMask mask) throws IOException {
+        return mergeFramed(input);
+    }
+
+    /**
+     * The mask is ignored, the message is decoded in full when first accessed.
+     */
+    @Override
+    public T mergeUnframed(Buffer data, FieldMask mask) throws InvalidProtocolBufferException {
+        return mergeUnframed(data);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public T mergeUnframed(Buffer data) throws InvalidProtocolBufferException {
@@ -46,6 +62,9 @@ abstract public class DeferredDecodeMessage<T> extends BaseMessage<T> {
     @Override
     public Buffer toUnframedBuffer() {
         if (encodedForm == null) {
+            if (untracked) {
+                return super.toUnframedBuffer();
+            }
             encodedForm = super.toUnframedBuffer();
         }
         return encodedForm;
@@ -76,6 +95,12 @@ abstract public class DeferredDecodeMessage<T> extends BaseMessage<T> {
         encodedForm = null;
     }
 
+    boolean dropMemoizedSize() {
+        boolean rc = super.dropMemoizedSize() || encodedForm != null;
+        encodedForm = null;
+        return rc;
+    }
+
     public void clear() {
         super.clear();
         encodedForm = null;
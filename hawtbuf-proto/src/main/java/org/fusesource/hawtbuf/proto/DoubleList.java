@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A growable list of <code>double</code> values held in a double[] so that
+ * the elements are not boxed.  Generated messages use it for repeated
+ * double fields when the <code>primitive_lists</code> option is set.
+ * Use <code>getDouble</code>, <code>addDouble</code> and <code>setDouble</code> to avoid the
+ * boxing done by the {@link java.util.List} methods.
+ */
+public final class DoubleList extends FieldList<Double> implements RandomAccess {
+
+    private double[] elements;
+    private int size;
+
+    public DoubleList() {
+        this(10);
+    }
+
+    public DoubleList(int capacity) {
+        elements = new double[capacity];
+    }
+
+    public DoubleList(double[] values) {
+        this(values.length);
+        addAll(values);
+    }
+
+    public DoubleList(Collection<? extends Double> values) {
+        this(values.size());
+        addAll(values);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Double get(int index) {
+        return getDouble(index);
+    }
+
+    public double getDouble(int index) {
+        rangeCheck(index);
+        return elements[index];
+    }
+
+    public Double set(int index, Double value) {
+        return setDouble(index, value);
+    }
+
+    /**
+     * @return the value previously at the index.
+     */
+    public double setDouble(int index, double value) {
+        changed();
+        rangeCheck(index);
+        double rc = elements[index];
+        elements[index] = value;
+        return rc;
+    }
+
+    public boolean add(Double value) {
+        addDouble(value);
+        return true;
+    }
+
+    public void addDouble(double value) {
+        changed();
+        ensureCapacity(size + 1);
+        elements[size++] = value;
+        modCount++;
+    }
+
+    public void add(int index, Double value) {
+        changed();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = value;
+        size++;
+        modCount++;
+    }
+
+    public void addAll(double[] values) {
+        addAll(values, 0, values.length);
+    }
+
+    public void addAll(double[] values, int offset, int length) {
+        changed();
+        ensureCapacity(size + length);
+        System.arraycopy(values, offset, elements, size, length);
+        size += length;
+        modCount++;
+    }
+
+    public Double remove(int index) {
+        changed();
+        rangeCheck(index);
+        double rc = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        size--;
+        modCount++;
+        return rc;
+    }
+
+    public void clear() {
+        changed();
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * @return a copy of the elements.
+     */
+    public double[] toDoubleArray() {
+        double[] rc = new double[size];
+        System.arraycopy(elements, 0, rc, 0, size);
+        return rc;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > elements.length) {
+            double[] grown = new double[Math.max(capacity, elements.length * 3 / 2 + 1)];
+            System.arraycopy(elements, 0, grown, 0, size);
+            elements = grown;
+        }
+    }
+
+    private void rangeCheck(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
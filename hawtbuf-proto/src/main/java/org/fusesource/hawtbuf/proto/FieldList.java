@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.AbstractList;
+
+/**
+ * Base of the lists which generated messages keep their repeated fields in.
+ * A list owned by a message tells it about every change, so that it drops
+ * its memoized size, and links the messages put in the list to it the same
+ * way the generated setters do.
+ */
+public abstract class FieldList<E> extends AbstractList<E> {
+
+    private BaseMessage<?> owner;
+
+    FieldList() {
+    }
+
+    void setOwner(BaseMessage<?> owner) {
+        this.owner = owner;
+    }
+
+    // called before the elements are changed.
+    final void changed() {
+        if (owner != null) {
+            owner.loadAndClear();
+        }
+    }
+
+    // called with each element put in the list.
+    final void added(Object element) {
+        if (owner != null && element instanceof BaseMessage) {
+            owner.adopt((BaseMessage<?>) element);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+/**
+ * <p>
+ * The set of fields to decode when partially parsing a message.  Fields are
+ * identified by their field numbers.  A nested message field can carry its
+ * own mask so that only some of its fields are decoded, for example the path
+ * <code>"3.1"</code> decodes just field 1 of the message in field 3.
+ * </p>
+ * <p>
+ * Fields outside the mask are skipped without being decoded, so the parsed
+ * message will usually not pass the required field checks.
+ * </p>
+ */
+public final class FieldMask {
+
+    // fields below 64 are kept in bits and nested, the rest in others.
+    private long bits;
+    private FieldMask[] nested;
+    private HashMap<Integer, FieldMask> others;
+
+    /**
+     * @return a mask of the given fields.
+     */
+    public static FieldMask of(int... fields) {
+        FieldMask rc = new FieldMask();
+        for (int field : fields) {
+            rc.include(field);
+        }
+        return rc;
+    }
+
+    /**
+     * @param paths comma separated field paths like <code>"1,3.1,3.4"</code>
+     * @return the mask of the fields on the paths.
+     */
+    public static FieldMask parse(String paths) {
+        FieldMask rc = new FieldMask();
+        StringTokenizer st = new StringTokenizer(paths, ", ");
+        while (st.hasMoreTokens()) {
+            rc.includePath(st.nextToken());
+        }
+        return rc;
+    }
+
+    /**
+     * Includes the whole field.
+     */
+    public FieldMask include(int field) {
+        put(field, null, true);
+        return this;
+    }
+
+    /**
+     * Includes a nested message field, decoding only the fields in the
+     * nested mask, which replaces any earlier nested mask for the field.
+     * Has no effect if the whole field is already included.
+     */
+    public FieldMask include(int field, FieldMask mask) {
+        put(field, mask, false);
+        return this;
+    }
+
+    /**
+     * Includes the field at a dot separated path of field numbers.
+     */
+    public FieldMask includePath(String path) {
+        int dot = path.indexOf('.');
+        if (dot < 0) {
+            return include(parseField(path));
+        }
+        int field = parseField(path.substring(0, dot));
+        if (includes(field) && getNested(field) == null) {
+            return this;
+        }
+        FieldMask child = getNested(field);
+        if (child == null) {
+            child = new FieldMask();
+            include(field, child);
+        }
+        child.includePath(path.substring(dot + 1));
+        return this;
+    }
+
+    public boolean includes(int field) {
+        if (field < 64) {
+            return (bits & (1L << field)) != 0;
+        }
+        return others != null && others.containsKey(field);
+    }
+
+    /**
+     * @return the mask to apply to the nested message in the field, or null
+     *         if the whole nested message should be decoded.
+     */
+    public FieldMask getNested(int field) {
+        if (field < 64) {
+            return nested == null || field >= nested.length ? null : nested[field];
+        }
+        return others == null ? null : others.get(field);
+    }
+
+    private void put(int field, FieldMask mask, boolean whole) {
+        if (field <= 0) {
+            throw new IllegalArgumentException("Invalid field number: " + field);
+        }
+        boolean present = includes(field);
+        if (present && getNested(field) == null) {
+            // the whole field is already included.
+            return;
+        }
+        if (whole) {
+            mask = null;
+        }
+        if (field < 64) {
+            bits |= 1L << field;
+            if (mask != null) {
+                if (nested == null || field >= nested.length) {
+                    FieldMask[] grown = new FieldMask[field + 1];
+                    if (nested != null) {
+                        System.arraycopy(nested, 0, grown, 0, nested.length);
+                    }
+                    nested = grown;
+                }
+                nested[field] = mask;
+            } else if (nested != null && field < nested.length) {
+                nested[field] = null;
+            }
+        } else {
+            if (others == null) {
+                others = new HashMap<Integer, FieldMask>();
+            }
+            others.put(field, mask);
+        }
+    }
+
+    private static int parseField(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid field number: " + value);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A growable list of <code>float</code> values held in a float[] so that
+ * the elements are not boxed.  Generated messages use it for repeated
+ * float fields when the <code>primitive_lists</code> option is set.
+ * Use <code>getFloat</code>, <code>addFloat</code> and <code>setFloat</code> to avoid the
+ * boxing done by the {@link java.util.List} methods.
+ */
+public final class FloatList extends FieldList<Float> implements RandomAccess {
+
+    private float[] elements;
+    private int size;
+
+    public FloatList() {
+        this(10);
+    }
+
+    public FloatList(int capacity) {
+        elements = new float[capacity];
+    }
+
+    public FloatList(float[] values) {
+        this(values.length);
+        addAll(values);
+    }
+
+    public FloatList(Collection<? extends Float> values) {
+        this(values.size());
+        addAll(values);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Float get(int index) {
+        return getFloat(index);
+    }
+
+    public float getFloat(int index) {
+        rangeCheck(index);
+        return elements[index];
+    }
+
+    public Float set(int index, Float value) {
+        return setFloat(index, value);
+    }
+
+    /**
+     * @return the value previously at the index.
+     */
+    public float setFloat(int index, float value) {
+        changed();
+        rangeCheck(index);
+        float rc = elements[index];
+        elements[index] = value;
+        return rc;
+    }
+
+    public boolean add(Float value) {
+        addFloat(value);
+        return true;
+    }
+
+    public void addFloat(float value) {
+        changed();
+        ensureCapacity(size + 1);
+        elements[size++] = value;
+        modCount++;
+    }
+
+    public void add(int index, Float value) {
+        changed();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = value;
+        size++;
+        modCount++;
+    }
+
+    public void addAll(float[] values) {
+        addAll(values, 0, values.length);
+    }
+
+    public void addAll(float[] values, int offset, int length) {
+        changed();
+        ensureCapacity(size + length);
+        System.arraycopy(values, offset, elements, size, length);
+        size += length;
+        modCount++;
+    }
+
+    public Float remove(int index) {
+        changed();
+        rangeCheck(index);
+        float rc = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        size--;
+        modCount++;
+        return rc;
+    }
+
+    public void clear() {
+        changed();
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * @return a copy of the elements.
+     */
+    public float[] toFloatArray() {
+        float[] rc = new float[size];
+        System.arraycopy(elements, 0, rc, 0, size);
+        return rc;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > elements.length) {
+            float[] grown = new float[Math.max(capacity, elements.length * 3 / 2 + 1)];
+            System.arraycopy(elements, 0, grown, 0, size);
+            elements = grown;
+        }
+    }
+
+    private void rangeCheck(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * <p>
+ * Incrementally splits a stream of varint length prefixed frames, as
+ * written by {@link MessageBuffer#writeFramed(java.io.OutputStream)}, out of
+ * the chunks read from a non-blocking channel.  Partial length prefixes
+ * and frame bodies are kept between calls, so the chunks can be split at
+ * any byte.
+ * </p>
+ * <p>
+ * While aliasing is enabled, a frame which is fully contained in a heap
+ * ByteBuffer chunk is returned as a Buffer over that chunk's array.  The
+ * chunk then must not be overwritten while the frame is still in use.  When
+ * reading from a channel, the decoder never overwrites a read buffer that
+ * frames were handed out from: it starts a new one instead.
+ * </p>
+ */
+public class FrameDecoder {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_READ_BUFFER_SIZE = 8 * 1024;
+
+    private final int maxFrameSize;
+    private final int readBufferSize;
+    private boolean aliasing = true;
+
+    // the partially read length prefix.
+    private long length;
+    private int shift;
+
+    // the partially read frame body.
+    private byte[] frame;
+    private int framePos;
+
+    private ByteBuffer readBuffer;
+    private boolean readBufferAliased;
+
+    public FrameDecoder() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public FrameDecoder(int maxFrameSize) {
+        this(maxFrameSize, DEFAULT_READ_BUFFER_SIZE);
+    }
+
+    public FrameDecoder(int maxFrameSize, int readBufferSize) {
+        if (maxFrameSize < 0) {
+            throw new IllegalArgumentException("Invalid max frame size: " + maxFrameSize);
+        }
+        if (readBufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid read buffer size: " + readBufferSize);
+        }
+        this.maxFrameSize = maxFrameSize;
+        this.readBufferSize = readBufferSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Enables or disables returning frames which share the input's byte
+     * array.  Aliasing is enabled by default.
+     */
+    public void enableAliasing(boolean enabled) {
+        this.aliasing = enabled;
+    }
+
+    public boolean isAliasing() {
+        return aliasing;
+    }
+
+    /**
+     * @return true if part of a frame has been consumed but the frame is not
+     *         yet complete.
+     */
+    public boolean isPartial() {
+        return frame != null || shift != 0;
+    }
+
+    /**
+     * Discards any partially decoded frame.
+     */
+    public void reset() {
+        length = 0;
+        shift = 0;
+        frame = null;
+        framePos = 0;
+    }
+
+    /**
+     * Consumes bytes from the input until a complete frame is available.
+     *
+     * @return the next frame or null if the input was used up before the
+     *         frame was complete.  In that case all of the input was
+     *         consumed and decoding resumes with the next chunk.
+     * @throws InvalidProtocolBufferException if the length prefix is
+     *         malformed or exceeds the max frame size.
+     */
+    public Buffer decode(ByteBuffer input) throws InvalidProtocolBufferException {
+        if (frame == null) {
+            while (true) {
+                if (!input.hasRemaining()) {
+                    return null;
+                }
+                byte b = input.get();
+                length |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+                shift += 7;
+                if (shift >= 35) {
+                    reset();
+                    throw InvalidProtocolBufferException.malformedVarint();
+                }
+            }
+            if (length > maxFrameSize) {
+                long size = length;
+                reset();
+                throw new InvalidProtocolBufferException("Frame size of " + size + " exceeds the max frame size of " + maxFrameSize + ".");
+            }
+            int size = (int) length;
+            length = 0;
+            shift = 0;
+            if (aliasing && input.hasArray() && input.remaining() >= size) {
+                int pos = input.position();
+                input.position(pos + size);
+                return new Buffer(input.array(), input.arrayOffset() + pos, size);
+            }
+            frame = new byte[size];
+            framePos = 0;
+        }
+
+        int count = Math.min(input.remaining(), frame.length - framePos);
+        input.get(frame, framePos, count);
+        framePos += count;
+        if (framePos < frame.length) {
+            return null;
+        }
+        Buffer rc = new Buffer(frame);
+        frame = null;
+        framePos = 0;
+        return rc;
+    }
+
+    /**
+     * Returns the next frame read from a non-blocking channel.
+     *
+     * @return the next frame or null if the channel has no more bytes
+     *         available right now.
+     * @throws EOFException if the channel reached its end between frames.
+     * @throws InvalidProtocolBufferException if the channel ended in the
+     *         middle of a frame or the frame is malformed.
+     */
+    public Buffer read(ReadableByteChannel channel) throws IOException {
+        while (true) {
+            if (readBuffer != null) {
+                Buffer rc = decode(readBuffer);
+                if (rc != null) {
+                    if (rc.data == readBuffer.array()) {
+                        readBufferAliased = true;
+                    }
+                    return rc;
+                }
+            }
+
+            // The read buffer is drained, refill it.
+            int count;
+            if (frame != null && frame.length - framePos >= readBufferSize) {
+                // Large frames are read straight into place.
+                count = channel.read(ByteBuffer.wrap(frame, framePos, frame.length - framePos));
+                if (count > 0) {
+                    framePos += count;
+                    if (framePos == frame.length) {
+                        Buffer rc = new Buffer(frame);
+                        frame = null;
+                        framePos = 0;
+                        return rc;
+                    }
+                }
+            } else {
+                if (readBuffer == null || readBufferAliased) {
+                    readBuffer = ByteBuffer.allocate(readBufferSize);
+                    readBufferAliased = false;
+                } else {
+                    readBuffer.clear();
+                }
+                count = channel.read(readBuffer);
+                readBuffer.flip();
+            }
+
+            if (count < 0) {
+                if (isPartial()) {
+                    reset();
+                    throw InvalidProtocolBufferException.truncatedMessage();
+                }
+                throw new EOFException();
+            }
+            if (count == 0) {
+                return null;
+            }
+        }
+    }
+}
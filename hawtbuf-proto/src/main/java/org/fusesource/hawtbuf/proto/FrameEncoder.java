@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * <p>
+ * Writes varint length prefixed frames to a non-blocking channel.  Messages
+ * are queued with {@link #offer} and {@link #flush} writes as much as the
+ * channel accepts, picking up where it left off on the next call.
+ * </p>
+ * <p>
+ * Only one message is encoded at a time: the next one is encoded once the
+ * previous one has been fully written.  While encoding, raw byte writes
+ * larger than the buffer size (big bytes fields or the encoded form of
+ * frozen messages) are not copied, the encoder keeps a reference to them
+ * and writes them to the channel from where they are.  The small writes are
+ * copied into a window of the buffer size, which is written to the channel
+ * whenever it fills up so that it can be reused for the rest of the
+ * message.
+ * </p>
+ * <p>
+ * This keeps a message which is bigger than the channel's free space from
+ * being buffered as a whole, as long as the channel keeps accepting bytes
+ * while it is encoded.  The generated message writers can not be suspended
+ * half way though, so if the channel stops accepting bytes in the middle
+ * of a message the window grows until the rest of the message has been
+ * encoded, holding up to the whole message, and shrinks back once it has
+ * been written.  A queued message must not be modified until it has been
+ * written.
+ * </p>
+ */
+public class FrameEncoder {
+
+    private static final ByteBuffer[] EMPTY = new ByteBuffer[0];
+
+    private final LinkedList<Object> queue = new LinkedList<Object>();
+    private final Sink sink;
+    private final CodedOutputStream output;
+
+    // the encoded message being written.
+    private ByteBuffer[] segments = EMPTY;
+    private int index;
+
+    public FrameEncoder() {
+        this(CodedOutputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize raw writes bigger than this are referenced instead
+     *        of copied.
+     */
+    public FrameEncoder(int bufferSize) {
+        sink = new Sink(Math.max(bufferSize, 16));
+        output = new CodedOutputStream(sink, bufferSize);
+    }
+
+    public void offer(Message<?> message) {
+        queue.add(message);
+    }
+
+    public void offer(MessageBuffer message) {
+        queue.add(message);
+    }
+
+    /**
+     * @return true if all the offered messages have been written.
+     */
+    public boolean isEmpty() {
+        return index == segments.length && queue.isEmpty();
+    }
+
+    /**
+     * Writes the queued messages until the channel stops accepting bytes.
+     *
+     * @return true if all the offered messages have been written.
+     */
+    public boolean flush(WritableByteChannel channel) throws IOException {
+        while (true) {
+            if (index == segments.length) {
+                sink.trim();
+                if (queue.isEmpty()) {
+                    return true;
+                }
+                encode(queue.removeFirst(), channel);
+                if (index == segments.length) {
+                    // it was all written while encoding.
+                    continue;
+                }
+            }
+            long count;
+            if (channel instanceof GatheringByteChannel) {
+                count = ((GatheringByteChannel) channel).write(segments, index, segments.length - index);
+            } else {
+                count = channel.write(segments[index]);
+            }
+            while (index < segments.length && !segments[index].hasRemaining()) {
+                segments[index++] = null;
+            }
+            if (count == 0 && index < segments.length) {
+                return false;
+            }
+        }
+    }
+
+    private void encode(Object message, WritableByteChannel channel) throws IOException {
+        sink.reset(channel);
+        try {
+            if (message instanceof MessageBuffer) {
+                ((MessageBuffer) message).writeFramed(output);
+            } else {
+                ((Message<?>) message).writeFramed(output);
+            }
+            output.flush();
+        } finally {
+            sink.channel = null;
+        }
+        segments = sink.segments();
+        index = 0;
+    }
+
+    /**
+     * @return the size of the window the small writes are copied into.
+     */
+    int windowCapacity() {
+        return sink.data.length;
+    }
+
+    /**
+     * Collects the encoded message as a list of segments: copies of the
+     * small writes and references to the large ones.
+     */
+    private static final class Sink extends OutputStream implements CodedOutputStream.Retainer {
+
+        private final ArrayList<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+        // the segments handed to a gathering write, reused between writes.
+        private ByteBuffer[] gather = new ByteBuffer[8];
+        private final int windowSize;
+        private byte[] data;
+        private int size;
+        // where the bytes not yet in a segment start.
+        private int mark;
+        // where the window is drained to while encoding.
+        private WritableByteChannel channel;
+
+        Sink(int windowSize) {
+            this.windowSize = windowSize;
+            data = new byte[windowSize];
+        }
+
+        void reset(WritableByteChannel channel) {
+            segments.clear();
+            size = 0;
+            mark = 0;
+            this.channel = channel;
+        }
+
+        /**
+         * Drops a window which grew, must only be called once all the
+         * segments have been written.
+         */
+        void trim() {
+            if (data.length > windowSize) {
+                data = new byte[windowSize];
+            }
+        }
+
+        ByteBuffer[] segments() {
+            cut();
+            return segments.toArray(new ByteBuffer[segments.size()]);
+        }
+
+        public void write(int b) throws IOException {
+            ensureCapacity(1);
+            data[size++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureCapacity(len);
+            System.arraycopy(b, off, data, size, len);
+            size += len;
+        }
+
+        public void retain(Buffer buffer) {
+            cut();
+            segments.add(ByteBuffer.wrap(buffer.data, buffer.offset, buffer.length));
+        }
+
+        private void cut() {
+            if (size > mark) {
+                segments.add(ByteBuffer.wrap(data, mark, size - mark));
+                mark = size;
+            }
+        }
+
+        private void ensureCapacity(int len) throws IOException {
+            if (size + len <= data.length) {
+                return;
+            }
+            if (drain()) {
+                // everything was written, start over at the front.
+                size = 0;
+                mark = 0;
+                if (len <= data.length) {
+                    return;
+                }
+            }
+            // Segments cut from the old array stay valid, it is no
+            // longer written to.
+            byte[] grown = new byte[Math.max(data.length << 1, size - mark + len)];
+            System.arraycopy(data, mark, grown, 0, size - mark);
+            size -= mark;
+            mark = 0;
+            data = grown;
+        }
+
+        /**
+         * Writes the segments encoded so far to the channel.
+         *
+         * @return true if the channel took all of them.
+         */
+        private boolean drain() throws IOException {
+            if (channel == null) {
+                return false;
+            }
+            cut();
+            while (!segments.isEmpty()) {
+                long count;
+                if (channel instanceof GatheringByteChannel) {
+                    gather = segments.toArray(gather);
+                    count = ((GatheringByteChannel) channel).write(gather, 0, segments.size());
+                } else {
+                    count = channel.write(segments.get(0));
+                }
+                while (!segments.isEmpty() && !segments.get(0).hasRemaining()) {
+                    segments.remove(0);
+                }
+                if (count == 0) {
+                    break;
+                }
+            }
+            // don't keep the written buffers reachable.
+            Arrays.fill(gather, null);
+            return segments.isEmpty();
+        }
+    }
+}
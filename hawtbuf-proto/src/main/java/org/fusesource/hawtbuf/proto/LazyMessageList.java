@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.RandomAccess;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * A list of messages which holds the elements read off the wire in their
+ * encoded form and only decodes an element when it is first accessed.
+ * Elements which are never accessed are written back out as is, so
+ * passing a large repeated field through is cheap.
+ * <p>
+ * Generated messages use it for repeated message fields with the
+ * <code>lazy</code> option and implement {@link #decode(Buffer)}.
+ * </p>
+ */
+public abstract class LazyMessageList<T> extends FieldList<T> implements RandomAccess {
+
+    // each element is either an encoded Buffer or a decoded T
+    private Object[] elements = new Object[10];
+    private int size;
+
+    /**
+     * Decodes an element from its unframed encoding.
+     */
+    protected abstract T decode(Buffer encoded) throws InvalidProtocolBufferException;
+
+    public int size() {
+        return size;
+    }
+
+    public T get(int index) {
+        rangeCheck(index);
+        Object element = elements[index];
+        if (element instanceof Buffer) {
+            T decoded = decoded(index);
+            elements[index] = decoded;
+            added(decoded);
+            return decoded;
+        }
+        return cast(element);
+    }
+
+    /**
+     * @return the encoded form of the element or null if it has been decoded.
+     */
+    public Buffer getEncoded(int index) {
+        rangeCheck(index);
+        Object element = elements[index];
+        return element instanceof Buffer ? (Buffer) element : null;
+    }
+
+    public T set(int index, T value) {
+        T rc = decoded(index);
+        replaceEncoded(index, value);
+        return rc;
+    }
+
+    /**
+     * Replaces an element without decoding it first.
+     */
+    public void replaceEncoded(int index, T value) {
+        rangeCheck(index);
+        changed();
+        added(value);
+        elements[index] = value;
+    }
+
+    public void add(int index, T value) {
+        insert(index, value);
+        added(value);
+    }
+
+    /**
+     * Adds an element in its unframed encoded form.
+     */
+    public void addEncoded(Buffer encoded) {
+        insert(size, encoded);
+    }
+
+    public T remove(int index) {
+        T rc = decoded(index);
+        removeEncoded(index);
+        return rc;
+    }
+
+    /**
+     * Removes an element without decoding it first.
+     */
+    public void removeEncoded(int index) {
+        rangeCheck(index);
+        changed();
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        elements[--size] = null;
+        modCount++;
+    }
+
+    public void clear() {
+        changed();
+        for (int i = 0; i < size; i++) {
+            elements[i] = null;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    // the element, decoded from its encoded form if need be without
+    // keeping it in the list.
+    private T decoded(int index) {
+        rangeCheck(index);
+        Object element = elements[index];
+        if (element instanceof Buffer) {
+            try {
+                return decode((Buffer) element);
+            } catch (InvalidProtocolBufferException e) {
+                throw new RuntimeException("Lazy field decoding failed: " + e.getMessage(), e);
+            }
+        }
+        return cast(element);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T cast(Object element) {
+        return (T) element;
+    }
+
+    private void insert(int index, Object value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        changed();
+        if (size == elements.length) {
+            Object[] grown = new Object[elements.length * 3 / 2 + 1];
+            System.arraycopy(elements, 0, grown, 0, size);
+            elements = grown;
+        }
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = value;
+        size++;
+        modCount++;
+    }
+
+    private void rangeCheck(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.fusesource.hawtbuf.proto;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.fusesource.hawtbuf.Buffer;
 
@@ -53,6 +54,18 @@ public interface Message<T> {
     public T mergeUnframed(CodedInputStream input) throws IOException;
     
     public T mergeFramed(CodedInputStream input) throws IOException;
+
+    /**
+     * Merges the remaining bytes of the ByteBuffer, its position is moved
+     * to its limit.  Bytes fields are copied out of the ByteBuffer.
+     */
+    public T mergeUnframed(ByteBuffer buffer) throws InvalidProtocolBufferException;
+
+    /**
+     * Merges the next frame of the ByteBuffer, its position is moved
+     * past the frame.  Bytes fields are copied out of the ByteBuffer.
+     */
+    public T mergeFramed(ByteBuffer buffer) throws InvalidProtocolBufferException;
     
 
     public Buffer toUnframedBuffer();
@@ -71,5 +84,15 @@ public interface Message<T> {
     
     public void writeFramed(OutputStream output) throws java.io.IOException;
 
+    /**
+     * @throws java.nio.BufferOverflowException if there is not enough space remaining.
+     */
+    public void writeUnframed(ByteBuffer output);
+
+    /**
+     * @throws java.nio.BufferOverflowException if there is not enough space remaining.
+     */
+    public void writeFramed(ByteBuffer output);
+
 
 }
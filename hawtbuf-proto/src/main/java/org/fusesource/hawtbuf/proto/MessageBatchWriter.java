@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * <p>
+ * Serializes a batch of messages as consecutive varint framed records.
+ * The whole batch is sized in one pass and then written into a single
+ * exact-size buffer, so there is one allocation for the batch instead of
+ * an output stream and buffer per message.
+ * </p>
+ * <p>
+ * {@link #getOffsets()} gives the position of every frame in the last
+ * buffer built, which can be stored alongside the batch for random access.
+ * </p>
+ */
+public class MessageBatchWriter {
+
+    private final ArrayList<Object> messages = new ArrayList<Object>();
+    private int[] sizes = new int[16];
+    private int[] offsets = new int[0];
+    private Buffer buffer;
+
+    public MessageBatchWriter add(Message<?> message) {
+        messages.add(message);
+        return this;
+    }
+
+    public MessageBatchWriter add(MessageBuffer message) {
+        messages.add(message);
+        return this;
+    }
+
+    /**
+     * @return the number of messages in the batch.
+     */
+    public int size() {
+        return messages.size();
+    }
+
+    /**
+     * Removes all the messages so that the writer can be reused.
+     */
+    public void clear() {
+        messages.clear();
+    }
+
+    /**
+     * Encodes the messages added so far.
+     *
+     * @return the framed messages.
+     */
+    public Buffer toBuffer() {
+        int count = messages.size();
+        if (sizes.length < count) {
+            sizes = new int[Math.max(count, sizes.length << 1)];
+        }
+        offsets = new int[count];
+
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            Object message = messages.get(i);
+            int size;
+            if (message instanceof MessageBuffer) {
+                size = ((MessageBuffer) message).serializedSizeUnframed();
+            } else {
+                size = ((Message<?>) message).serializedSizeUnframed();
+            }
+            sizes[i] = size;
+            offsets[i] = total;
+            total += CodedOutputStream.computeRawVarint32Size(size) + size;
+        }
+
+        byte[] data = new byte[total];
+        try {
+            CodedOutputStream output = new CodedOutputStream(data);
+            for (int i = 0; i < count; i++) {
+                Object message = messages.get(i);
+                output.writeRawVarint32(sizes[i]);
+                if (message instanceof MessageBuffer) {
+                    ((MessageBuffer) message).writeUnframed(output);
+                } else {
+                    ((Message<?>) message).writeUnframed(output);
+                }
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new RuntimeException("Serializing to a byte array threw an IOException " + "(should never happen).", e);
+        }
+        buffer = new Buffer(data);
+        return buffer;
+    }
+
+    /**
+     * @return where each frame starts in the last buffer built by
+     *         {@link #toBuffer()}.
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * @return the unframed message at <code>index</code> in the last buffer
+     *         built by {@link #toBuffer()}.
+     */
+    public Buffer getFrame(int index) {
+        return frame(buffer, offsets, index);
+    }
+
+    /**
+     * Looks up the unframed message at <code>index</code> of a batch using
+     * its frame offsets.
+     */
+    public static Buffer frame(Buffer batch, int[] offsets, int index) {
+        int offset = offsets[index];
+        try {
+            CodedInputStream input = new CodedInputStream(new Buffer(batch.data, batch.offset + offset, batch.length - offset));
+            return input.readRawBytes(input.readRawVarint32());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid frame offset: " + offset);
+        }
+    }
+}
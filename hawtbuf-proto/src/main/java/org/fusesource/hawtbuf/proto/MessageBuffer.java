@@ -2,6 +2,7 @@ package org.fusesource.hawtbuf.proto;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.fusesource.hawtbuf.Buffer;
 
@@ -28,4 +29,14 @@ public interface MessageBuffer<B, MB extends MessageBuffer> extends PBMessage<B,
     
     public void writeFramed(OutputStream output) throws java.io.IOException;    
 
+    /**
+     * @throws java.nio.BufferOverflowException if there is not enough space remaining.
+     */
+    public void writeUnframed(ByteBuffer output);
+
+    /**
+     * @throws java.nio.BufferOverflowException if there is not enough space remaining.
+     */
+    public void writeFramed(ByteBuffer output);
+
 }
@@ -3,10 +3,12 @@ package org.fusesource.hawtbuf.proto;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
 
 import org.fusesource.hawtbuf.Buffer;
-import org.fusesource.hawtbuf.BufferOutputStream;
 
 
 final public class MessageBufferSupport {
@@ -16,12 +18,11 @@ final public class MessageBufferSupport {
     static public Buffer toUnframedBuffer(MessageBuffer message) {
         try {
             int size = message.serializedSizeUnframed();
-            BufferOutputStream baos = new BufferOutputStream(size);
-            CodedOutputStream output = new CodedOutputStream(baos);
+            byte[] data = new byte[size];
+            CodedOutputStream output = new CodedOutputStream(data);
             message.writeUnframed(output);
-            Buffer rc = baos.toBuffer();
-            assert rc.length == size : "Did not write as much data as expected.";
-            return rc;
+            output.checkNoSpaceLeft();
+            return new Buffer(data);
         } catch (IOException e) {
             throw new RuntimeException("Serializing to a byte array threw an IOException " + "(should never happen).", e);
         }
@@ -30,17 +31,42 @@ final public class MessageBufferSupport {
     static public Buffer toFramedBuffer(MessageBuffer message) {
         try {
             int size = message.serializedSizeFramed();
-            BufferOutputStream baos = new BufferOutputStream(size);
-            CodedOutputStream output = new CodedOutputStream(baos);
+            byte[] data = new byte[size];
+            CodedOutputStream output = new CodedOutputStream(data);
             message.writeFramed(output);
-            Buffer rc = baos.toBuffer();
-            assert rc.length==size : "Did not write as much data as expected.";
-            return rc;
+            output.checkNoSpaceLeft();
+            return new Buffer(data);
         } catch (IOException e) {
             throw new RuntimeException("Serializing to a byte array threw an IOException " + "(should never happen).", e);
         }
     }
     
+    static public void writeUnframed(MessageBuffer message, ByteBuffer output) {
+        if( message.serializedSizeUnframed() > output.remaining() ) {
+            throw new BufferOverflowException();
+        }
+        try {
+            CodedOutputStream codedOutput = new CodedOutputStream(output);
+            message.writeUnframed(codedOutput);
+            codedOutput.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Serializing to a ByteBuffer threw an IOException " + "(should never happen).", e);
+        }
+    }
+
+    static public void writeFramed(MessageBuffer message, ByteBuffer output) {
+        if( message.serializedSizeFramed() > output.remaining() ) {
+            throw new BufferOverflowException();
+        }
+        try {
+            CodedOutputStream codedOutput = new CodedOutputStream(output);
+            message.writeFramed(codedOutput);
+            codedOutput.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Serializing to a ByteBuffer threw an IOException " + "(should never happen).", e);
+        }
+    }
+
     public static void writeMessage(CodedOutputStream output, int tag, MessageBuffer message) throws IOException {
         output.writeTag(tag, WireFormat.WIRETYPE_LENGTH_DELIMITED);
         message.writeFramed(output);
@@ -74,6 +100,203 @@ final public class MessageBufferSupport {
         return new Buffer(data);
     }
     
+    /**
+     * Copies the next frame out of the ByteBuffer and moves its position
+     * past it.  The position is not changed if the frame is incomplete.
+     */
+    public static Buffer readFrame(ByteBuffer input) throws InvalidProtocolBufferException {
+        try {
+            CodedInputStream in = new CodedInputStream(input);
+            in.enableAliasing(false);
+            Buffer rc = in.readRawBytes(in.readRawVarint32());
+            input.position(input.position() + in.getTotalBytesRead());
+            return rc;
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+    }
+
+    /**
+     * Copies the remaining bytes out of the ByteBuffer and moves its
+     * position to its limit.
+     */
+    public static Buffer readRemaining(ByteBuffer input) {
+        Buffer rc = new Buffer(input.remaining());
+        input.get(rc.data);
+        return rc;
+    }
+
+    /**
+     * Scans an encoded message and records where the value of the last
+     * occurrence of each of the tags starts.  Used by the flyweight
+     * accessors to decode single fields straight from the buffer.
+     *
+     * @param tags the field tags sorted in ascending order
+     * @return the value offsets relative to the buffer, -1 for the tags
+     *         which are not present.
+     */
+    static public int[] scanFields(Buffer buffer, int[] tags) {
+        int[] rc = new int[tags.length];
+        Arrays.fill(rc, -1);
+        try {
+            CodedInputStream input = new CodedInputStream(buffer);
+            while (true) {
+                int tag = input.readTag();
+                if (tag == 0) {
+                    return rc;
+                }
+                int slot = Arrays.binarySearch(tags, tag);
+                if (slot >= 0) {
+                    rc[slot] = input.getTotalBytesRead();
+                }
+                if (!input.skipField(tag)) {
+                    return rc;
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException("An IOException was thrown (should never happen in this method).", e);
+        }
+    }
+
+    /**
+     * Decodes the varint at <code>offset</code> of the buffer, discarding
+     * the bits above 32.
+     */
+    static public int readRawVarint32(Buffer buffer, int offset) {
+        return (int) readRawVarint64(buffer, offset);
+    }
+
+    /**
+     * Decodes the varint at <code>offset</code> of the buffer.
+     */
+    static public long readRawVarint64(Buffer buffer, int offset) {
+        byte[] data = buffer.data;
+        int i = buffer.offset + offset;
+        int end = buffer.offset + buffer.length;
+        long result = 0;
+        for (int shift = 0; shift < 64 && i < end; shift += 7) {
+            byte b = data[i++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new RuntimeException(InvalidProtocolBufferException.malformedVarint());
+    }
+
+    /**
+     * Decodes the little endian 32 bit value at <code>offset</code> of the buffer.
+     */
+    static public int readRawLittleEndian32(Buffer buffer, int offset) {
+        byte[] data = buffer.data;
+        int i = buffer.offset + offset;
+        return (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8) | ((data[i + 2] & 0xff) << 16) | ((data[i + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Decodes the little endian 64 bit value at <code>offset</code> of the buffer.
+     */
+    static public long readRawLittleEndian64(Buffer buffer, int offset) {
+        return (readRawLittleEndian32(buffer, offset) & 0xffffffffL) | ((long) readRawLittleEndian32(buffer, offset + 4) << 32);
+    }
+
+    /**
+     * @return a slice of the length delimited value at <code>offset</code>
+     *         of the buffer.
+     */
+    static public Buffer readBytes(Buffer buffer, int offset) {
+        int length = readRawVarint32(buffer, offset);
+        return new Buffer(buffer.data, buffer.offset + offset + CodedOutputStream.computeRawVarint32Size(length), length);
+    }
+
+    /**
+     * Decodes the length delimited UTF-8 string at <code>offset</code> of the buffer.
+     */
+    static public String readString(Buffer buffer, int offset) {
+        Buffer value = readBytes(buffer, offset);
+        try {
+            return new String(value.data, value.offset, value.length, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Overwrites the value of a fixed32 encoded field in place.  Copy the
+     * buffer first if it is shared.
+     *
+     * @param tag the field's wire tag
+     * @return false if the field is not present in the message.
+     */
+    static public boolean patchFixed32(Buffer unframed, int tag, int value) {
+        int offset = scanFields(unframed, new int[]{tag})[0];
+        if (offset < 0) {
+            return false;
+        }
+        byte[] data = unframed.data;
+        int i = unframed.offset + offset;
+        data[i] = (byte) value;
+        data[i + 1] = (byte) (value >> 8);
+        data[i + 2] = (byte) (value >> 16);
+        data[i + 3] = (byte) (value >> 24);
+        return true;
+    }
+
+    /**
+     * Overwrites the value of a fixed64 encoded field in place.  Copy the
+     * buffer first if it is shared.
+     *
+     * @param tag the field's wire tag
+     * @return false if the field is not present in the message.
+     */
+    static public boolean patchFixed64(Buffer unframed, int tag, long value) {
+        int offset = scanFields(unframed, new int[]{tag})[0];
+        if (offset < 0) {
+            return false;
+        }
+        byte[] data = unframed.data;
+        int i = unframed.offset + offset;
+        for (int j = 0; j < 8; j++) {
+            data[i + j] = (byte) (value >> (j * 8));
+        }
+        return true;
+    }
+
+    /**
+     * Overwrites the value of a varint encoded field in place.  This is only
+     * possible when the new value encodes to the same number of bytes as
+     * the current one.  Copy the buffer first if it is shared.
+     *
+     * @param tag the field's wire tag
+     * @return false if the field is not present in the message or the
+     *         encoded length of the value would change.
+     */
+    static public boolean patchVarint(Buffer unframed, int tag, long value) {
+        int offset = scanFields(unframed, new int[]{tag})[0];
+        if (offset < 0) {
+            return false;
+        }
+        byte[] data = unframed.data;
+        int i = unframed.offset + offset;
+        int size = 1;
+        while (data[i + size - 1] < 0) {
+            size++;
+        }
+        if (size != CodedOutputStream.computeRawVarint64Size(value)) {
+            return false;
+        }
+        for (int j = 1; j < size; j++) {
+            data[i++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[i] = (byte) value;
+        return true;
+    }
+
     /**
      * Read a raw Varint from the stream. If larger than 32 bits, discard the
      * upper bits.
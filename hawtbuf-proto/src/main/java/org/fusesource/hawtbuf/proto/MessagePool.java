@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps cleared message instances per thread so that they can be filled
+ * again instead of allocating new ones.
+ * <p>
+ * Generated messages have a <code>POOL</code> which the parser takes nested
+ * messages from, when parsing into a message which was cleared for reuse,
+ * and which {@link BaseMessage#clearForReuse()} gives them back to.  A
+ * message must not be used after it has been released.  Messages which were
+ * not taken from a pool are never released, and neither are the ones which
+ * were set into another message, so those can be shared between messages.
+ * </p>
+ */
+public abstract class MessagePool<T extends BaseMessage<T>> {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int capacity;
+
+    private final ThreadLocal<ArrayList<T>> free = new ThreadLocal<ArrayList<T>>() {
+        protected ArrayList<T> initialValue() {
+            return new ArrayList<T>();
+        }
+    };
+
+    public MessagePool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of released messages kept per thread,
+     *        the others are left to the garbage collector
+     */
+    public MessagePool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a new message when the pool of the calling thread is empty.
+     */
+    protected abstract T create();
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return a cleared message, released earlier by the calling thread
+     *         or newly created.
+     */
+    public T take() {
+        ArrayList<T> messages = free.get();
+        int size = messages.size();
+        T message = size == 0 ? create() : messages.remove(size - 1);
+        message.pooled = true;
+        message.reused = true;
+        return message;
+    }
+
+    /**
+     * Clears the message, releasing its nested messages too, and keeps it
+     * for the calling thread.  Messages which were not taken from a pool,
+     * were released already or are held by another message are left as
+     * they are.
+     */
+    public void release(T message) {
+        release(message, null);
+    }
+
+    /**
+     * Releases a message nested in the owner, as done by the generated
+     * {@link BaseMessage#clearForReuse()}.  The message is left as it is
+     * when it was set into another message too, or was moved out of the
+     * owner.
+     */
+    public void release(T message, BaseMessage<?> owner) {
+        if (!message.pooled || message.shared || message.parent != owner) {
+            return;
+        }
+        message.pooled = false;
+        message.parent = null;
+        message.clearForReuse();
+        ArrayList<T> messages = free.get();
+        if (messages.size() < capacity) {
+            messages.add(message);
+        }
+    }
+
+    /**
+     * @return the number of messages kept for the calling thread.
+     */
+    public int size() {
+        return free.get().size();
+    }
+
+}
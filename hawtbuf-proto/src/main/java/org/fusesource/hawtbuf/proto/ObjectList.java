@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.RandomAccess;
+
+/**
+ * A growable list of objects.  Generated messages use it for the repeated
+ * fields which are not kept in one of the primitive lists.
+ */
+public final class ObjectList<E> extends FieldList<E> implements RandomAccess {
+
+    private Object[] elements;
+    private int size;
+
+    public ObjectList() {
+        this(10);
+    }
+
+    public ObjectList(int capacity) {
+        elements = new Object[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        rangeCheck(index);
+        return (E) elements[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E set(int index, E value) {
+        rangeCheck(index);
+        changed();
+        added(value);
+        E rc = (E) elements[index];
+        elements[index] = value;
+        return rc;
+    }
+
+    public void add(int index, E value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        changed();
+        added(value);
+        ensureCapacity(size + 1);
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = value;
+        size++;
+        modCount++;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E remove(int index) {
+        rangeCheck(index);
+        changed();
+        E rc = (E) elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        elements[--size] = null;
+        modCount++;
+        return rc;
+    }
+
+    public void clear() {
+        changed();
+        for (int i = 0; i < size; i++) {
+            elements[i] = null;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > elements.length) {
+            Object[] grown = new Object[Math.max(capacity, elements.length * 3 / 2 + 1)];
+            System.arraycopy(elements, 0, grown, 0, size);
+            elements = grown;
+        }
+    }
+
+    private void rangeCheck(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
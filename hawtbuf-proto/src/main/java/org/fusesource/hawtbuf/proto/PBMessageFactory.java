@@ -36,4 +36,7 @@ public interface PBMessageFactory<Bean extends PBMessage, Buffer extends Message
    public Buffer parseFramed(byte[] data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException;
    public Buffer parseFramed(java.io.InputStream data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException, java.io.IOException;
 
+   public Buffer parseUnframed(java.nio.ByteBuffer data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException;
+   public Buffer parseFramed(java.nio.ByteBuffer data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException;
+
 }
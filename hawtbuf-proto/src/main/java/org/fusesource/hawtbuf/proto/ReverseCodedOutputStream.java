@@ -0,0 +1,337 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * Encodes protocol message fields back to front into a growable array.
+ * <p>
+ * Fields are written in reverse order and the value of a field is written
+ * before its tag.  The length of a nested message is only needed after its
+ * fields have been written, when it is simply the number of bytes written
+ * since it was started, so messages can be encoded in a single pass
+ * without computing their sizes first.  See
+ * {@link BaseMessage#writeUnframedReverse(ReverseCodedOutputStream)}.
+ * </p>
+ * <p>
+ * This class is totally unsynchronized.
+ * </p>
+ */
+public final class ReverseCodedOutputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    // The encoded bytes are at the end of the array, starting at position.
+    private byte[] buffer;
+    private int position;
+
+    public ReverseCodedOutputStream() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public ReverseCodedOutputStream(int capacity) {
+        buffer = new byte[capacity];
+        position = capacity;
+    }
+
+    /**
+     * @return the number of bytes written so far.
+     */
+    public int size() {
+        return buffer.length - position;
+    }
+
+    /**
+     * Discards the bytes written so far, keeping the array for reuse.
+     */
+    public void reset() {
+        position = buffer.length;
+    }
+
+    /**
+     * @return the bytes written so far, this is not a copy so it is only
+     *         valid until the stream is written to again or reset.
+     */
+    public Buffer toBuffer() {
+        return new Buffer(buffer, position, size());
+    }
+
+    private void reserve(int size) {
+        if (position < size) {
+            int used = size();
+            byte[] data = new byte[Math.max(buffer.length << 1, used + size)];
+            System.arraycopy(buffer, position, data, data.length - used, used);
+            buffer = data;
+            position = data.length - used;
+        }
+    }
+
+    // =================================================================
+
+    /** Write a {@code double} field, including tag, to the stream. */
+    public void writeDouble(int fieldNumber, double value) {
+        writeDoubleNoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+    }
+
+    /** Write a {@code float} field, including tag, to the stream. */
+    public void writeFloat(int fieldNumber, float value) {
+        writeFloatNoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+    }
+
+    /** Write a {@code uint64} field, including tag, to the stream. */
+    public void writeUInt64(int fieldNumber, long value) {
+        writeUInt64NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    }
+
+    /** Write an {@code int64} field, including tag, to the stream. */
+    public void writeInt64(int fieldNumber, long value) {
+        writeInt64NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    }
+
+    /** Write an {@code int32} field, including tag, to the stream. */
+    public void writeInt32(int fieldNumber, int value) {
+        writeInt32NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    }
+
+    /** Write a {@code fixed64} field, including tag, to the stream. */
+    public void writeFixed64(int fieldNumber, long value) {
+        writeFixed64NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+    }
+
+    /** Write a {@code fixed32} field, including tag, to the stream. */
+    public void writeFixed32(int fieldNumber, int value) {
+        writeFixed32NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+    }
+
+    /** Write a {@code bool} field, including tag, to the stream. */
+    public void writeBool(int fieldNumber, boolean value) {
+        writeBoolNoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    }
+
+    /** Write a {@code string} field, including tag, to the stream. */
+    public void writeString(int fieldNumber, String value) {
+        byte[] bytes;
+        try {
+            bytes = value.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 not supported.", e);
+        }
+        writeRawBytes(bytes, 0, bytes.length);
+        writeRawVarint32(bytes.length);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    }
+
+    /** Write a {@code bytes} field, including tag, to the stream. */
+    public void writeBytes(int fieldNumber, Buffer value) {
+        writeRawBytes(value.data, value.offset, value.length);
+        writeRawVarint32(value.length);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    }
+
+    /** Write a {@code uint32} field, including tag, to the stream. */
+    public void writeUInt32(int fieldNumber, int value) {
+        writeUInt32NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    }
+
+    /**
+     * Write an enum field, including tag, to the stream. Caller is responsible
+     * for converting the enum value to its numeric value.
+     */
+    public void writeEnum(int fieldNumber, int value) {
+        writeEnumNoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    }
+
+    /** Write an {@code sfixed32} field, including tag, to the stream. */
+    public void writeSFixed32(int fieldNumber, int value) {
+        writeSFixed32NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+    }
+
+    /** Write an {@code sfixed64} field, including tag, to the stream. */
+    public void writeSFixed64(int fieldNumber, long value) {
+        writeSFixed64NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+    }
+
+    /** Write an {@code sint32} field, including tag, to the stream. */
+    public void writeSInt32(int fieldNumber, int value) {
+        writeSInt32NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    }
+
+    /** Write an {@code sint64} field, including tag, to the stream. */
+    public void writeSInt64(int fieldNumber, long value) {
+        writeSInt64NoTag(value);
+        writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+    }
+
+    /** Write a {@code double} value, without a tag, to the stream. */
+    public void writeDoubleNoTag(double value) {
+        writeRawLittleEndian64(Double.doubleToRawLongBits(value));
+    }
+
+    /** Write a {@code float} value, without a tag, to the stream. */
+    public void writeFloatNoTag(float value) {
+        writeRawLittleEndian32(Float.floatToRawIntBits(value));
+    }
+
+    /** Write a {@code uint64} value, without a tag, to the stream. */
+    public void writeUInt64NoTag(long value) {
+        writeRawVarint64(value);
+    }
+
+    /** Write an {@code int64} value, without a tag, to the stream. */
+    public void writeInt64NoTag(long value) {
+        writeRawVarint64(value);
+    }
+
+    /** Write an {@code int32} value, without a tag, to the stream. */
+    public void writeInt32NoTag(int value) {
+        if (value >= 0) {
+            writeRawVarint32(value);
+        } else {
+            // Must sign-extend.
+            writeRawVarint64(value);
+        }
+    }
+
+    /** Write a {@code fixed64} value, without a tag, to the stream. */
+    public void writeFixed64NoTag(long value) {
+        writeRawLittleEndian64(value);
+    }
+
+    /** Write a {@code fixed32} value, without a tag, to the stream. */
+    public void writeFixed32NoTag(int value) {
+        writeRawLittleEndian32(value);
+    }
+
+    /** Write a {@code bool} value, without a tag, to the stream. */
+    public void writeBoolNoTag(boolean value) {
+        writeRawByte(value ? 1 : 0);
+    }
+
+    /** Write a {@code uint32} value, without a tag, to the stream. */
+    public void writeUInt32NoTag(int value) {
+        writeRawVarint32(value);
+    }
+
+    /** Write an enum value, without a tag, to the stream. */
+    public void writeEnumNoTag(int value) {
+        writeRawVarint32(value);
+    }
+
+    /** Write a {@code sfixed32} value, without a tag, to the stream. */
+    public void writeSFixed32NoTag(int value) {
+        writeRawLittleEndian32(value);
+    }
+
+    /** Write a {@code sfixed64} value, without a tag, to the stream. */
+    public void writeSFixed64NoTag(long value) {
+        writeRawLittleEndian64(value);
+    }
+
+    /** Write a {@code sint32} value, without a tag, to the stream. */
+    public void writeSInt32NoTag(int value) {
+        writeRawVarint32(CodedOutputStream.encodeZigZag32(value));
+    }
+
+    /** Write a {@code sint64} value, without a tag, to the stream. */
+    public void writeSInt64NoTag(long value) {
+        writeRawVarint64(CodedOutputStream.encodeZigZag64(value));
+    }
+
+    // =================================================================
+
+    public void writeTag(int fieldNumber, int wireType) {
+        writeRawVarint32(WireFormat.makeTag(fieldNumber, wireType));
+    }
+
+    public void writeRawByte(int value) {
+        reserve(1);
+        buffer[--position] = (byte) value;
+    }
+
+    /**
+     * Writes the bytes in front of the ones written so far, they keep
+     * their order.
+     */
+    public void writeRawBytes(byte[] value, int offset, int length) {
+        reserve(length);
+        position -= length;
+        System.arraycopy(value, offset, buffer, position, length);
+    }
+
+    public void writeRawBytes(Buffer data) {
+        writeRawBytes(data.data, data.offset, data.length);
+    }
+
+    /**
+     * Encode and write a varint. {@code value} is treated as unsigned, so it
+     * won't be sign-extended if negative.
+     */
+    public void writeRawVarint32(int value) {
+        int size = CodedOutputStream.computeRawVarint32Size(value);
+        reserve(size);
+        position -= size;
+        int p = position;
+        while ((value & ~0x7F) != 0) {
+            buffer[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[p] = (byte) value;
+    }
+
+    /** Encode and write a varint. */
+    public void writeRawVarint64(long value) {
+        int size = CodedOutputStream.computeRawVarint64Size(value);
+        reserve(size);
+        position -= size;
+        int p = position;
+        while ((value & ~0x7FL) != 0) {
+            buffer[p++] = (byte) (((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[p] = (byte) value;
+    }
+
+    /** Write a little-endian 32-bit integer. */
+    public void writeRawLittleEndian32(int value) {
+        reserve(4);
+        int p = position -= 4;
+        buffer[p] = (byte) value;
+        buffer[p + 1] = (byte) (value >> 8);
+        buffer[p + 2] = (byte) (value >> 16);
+        buffer[p + 3] = (byte) (value >> 24);
+    }
+
+    /** Write a little-endian 64-bit integer. */
+    public void writeRawLittleEndian64(long value) {
+        writeRawLittleEndian32((int) (value >> 32));
+        writeRawLittleEndian32((int) value);
+    }
+}
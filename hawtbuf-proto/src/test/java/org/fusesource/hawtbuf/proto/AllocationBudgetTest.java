@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.fusesource.hawtbuf.AllocationMeter;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.BufferOutputStream;
+import org.junit.Test;
+
+import static org.fusesource.hawtbuf.AllocationMeter.assertBudget;
+import static org.fusesource.hawtbuf.AllocationMeter.sink;
+
+/**
+ * Allocation budgets for the hot coded stream and message operations.
+ */
+public class AllocationBudgetTest {
+
+    @Test()
+    public void testReadBytes() throws Exception {
+        BufferOutputStream bos = new BufferOutputStream(AllocationMeter.BATCH_SIZE * 17);
+        CodedOutputStream out = new CodedOutputStream(bos);
+        for (int i = 0; i < AllocationMeter.BATCH_SIZE; i++) {
+            out.writeRawVarint32(16);
+            out.writeRawBytes(new byte[16]);
+        }
+        out.flush();
+        final Buffer encoded = bos.toBuffer();
+
+        // reading from a Buffer should only allocate the slice.
+        assertBudget("CodedInputStream.readBytes", 32, new AllocationMeter.Operation() {
+            CodedInputStream in;
+
+            public void prepare() {
+                in = new CodedInputStream(encoded);
+            }
+
+            public void run() throws IOException {
+                sink = in.readBytes();
+            }
+        });
+    }
+
+    @Test()
+    public void testReadVarint() throws Exception {
+        BufferOutputStream bos = new BufferOutputStream(AllocationMeter.BATCH_SIZE * 5);
+        CodedOutputStream out = new CodedOutputStream(bos);
+        for (int i = 0; i < AllocationMeter.BATCH_SIZE; i++) {
+            out.writeRawVarint32(i * 1000);
+        }
+        out.flush();
+        final Buffer encoded = bos.toBuffer();
+
+        assertBudget("CodedInputStream.readRawVarint32", 0, new AllocationMeter.Operation() {
+            CodedInputStream in;
+            int total;
+
+            public void prepare() {
+                in = new CodedInputStream(encoded);
+            }
+
+            public void run() throws IOException {
+                total += in.readRawVarint32();
+            }
+        });
+    }
+
+    @Test()
+    public void testToFramedBuffer() throws Exception {
+        final SampleMessage sample = new SampleMessage();
+        sample.id = 42;
+        sample.body = new Buffer(new byte[64]);
+
+        // the encoded byte array plus the stream and buffer wrappers.
+        assertBudget("BaseMessage.toFramedBuffer", 200, new AllocationMeter.Operation() {
+            public void run() {
+                sink = sample.toFramedBuffer();
+            }
+        });
+    }
+
+    @Test()
+    public void testWriteFramedToStream() throws Exception {
+        final SampleMessage sample = new SampleMessage();
+        sample.id = 42;
+        sample.body = new Buffer(new byte[64]);
+        final OutputStream discard = new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        // the coded stream and its buffer are kept for the thread.
+        assertBudget("BaseMessage.writeFramed(OutputStream)", 0, new AllocationMeter.Operation() {
+            public void run() throws IOException {
+                sample.writeFramed(discard);
+            }
+        });
+    }
+
+    @Test()
+    public void testParseInto() throws Exception {
+        SampleMessage sample = new SampleMessage();
+        sample.id = 42;
+        final Buffer encoded = sample.toFramedBuffer();
+        final MessagePool<SampleMessage> pool = new MessagePool<SampleMessage>() {
+            protected SampleMessage create() {
+                return new SampleMessage();
+            }
+        };
+
+        // a steady state parsing loop should not allocate at all.
+        assertBudget("MessagePool.take + BaseMessage.mergeReusingInput", 0, new AllocationMeter.Operation() {
+            public void run() throws IOException {
+                SampleMessage message = pool.take();
+                message.mergeReusingInput(encoded, true);
+                pool.release(message);
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reading and writing messages with heap and direct ByteBuffers.
+ */
+public class ByteBufferTest {
+
+    private static SampleMessage sample() {
+        SampleMessage rc = new SampleMessage();
+        rc.id = -12345678901L;
+        rc.body = new Buffer(new byte[]{1, 2, 3, 4, 5});
+        return rc;
+    }
+
+    private void assertRoundTrip(ByteBuffer bb) throws IOException {
+        SampleMessage message = sample();
+        Buffer expected = message.toFramedBuffer();
+
+        bb.position(3);
+        message.writeFramed(bb);
+        message.writeFramed(bb);
+        assertEquals(3 + expected.length * 2, bb.position());
+
+        bb.flip();
+        bb.position(3);
+        byte[] written = new byte[expected.length];
+        bb.duplicate().get(written);
+        assertEquals(expected, new Buffer(written));
+
+        for (int i = 0; i < 2; i++) {
+            SampleMessage rc = new SampleMessage().mergeFramed(bb);
+            assertEquals(message.id, rc.id);
+            assertEquals(message.body, rc.body);
+        }
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test()
+    public void testHeap() throws IOException {
+        assertRoundTrip(ByteBuffer.allocate(100));
+    }
+
+    @Test()
+    public void testDirect() throws IOException {
+        assertRoundTrip(ByteBuffer.allocateDirect(100));
+    }
+
+    @Test()
+    public void testBytesAreCopied() throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(100);
+        sample().writeUnframed(bb);
+        bb.flip();
+        SampleMessage rc = new SampleMessage().mergeUnframed(bb);
+        assertNotSame(bb.array(), rc.body.data);
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test()
+    public void testOverflow() {
+        ByteBuffer bb = ByteBuffer.allocateDirect(4);
+        try {
+            sample().writeFramed(bb);
+            fail("expected BufferOverflowException");
+        } catch (BufferOverflowException expected) {
+        }
+        assertEquals(0, bb.position());
+    }
+
+    @Test()
+    public void testCodedStreams() throws IOException {
+        ByteBuffer bb = ByteBuffer.allocateDirect(64);
+        CodedOutputStream out = new CodedOutputStream(bb);
+        out.writeRawVarint32(300);
+        out.writeRawVarint64(Long.MIN_VALUE);
+        out.writeRawLittleEndian32(0x01020304);
+        out.writeRawLittleEndian64(0x0102030405060708L);
+        out.writeString(1, "hello");
+        assertNull(out.getNextBuffer(1));
+        out.flush();
+        bb.flip();
+
+        CodedInputStream in = new CodedInputStream(bb);
+        assertEquals(300, in.readRawVarint32());
+        assertEquals(Long.MIN_VALUE, in.readRawVarint64());
+        assertEquals(0x01020304, in.readRawLittleEndian32());
+        assertEquals(0x0102030405060708L, in.readRawLittleEndian64());
+        assertEquals(WireFormat.makeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED), in.readTag());
+        assertEquals("hello", in.readString());
+        assertEquals(0, in.readTag());
+        assertEquals(bb.remaining(), in.getTotalBytesRead());
+        // reading does not move the ByteBuffer.
+        assertEquals(0, bb.position());
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.BufferInputStream;
+import org.fusesource.hawtbuf.BufferOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CodedInputStreamTest {
+
+    static final long[] VALUES = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+
+    private Buffer encode() throws IOException {
+        BufferOutputStream bos = new BufferOutputStream(256);
+        CodedOutputStream out = new CodedOutputStream(bos);
+        for (long value : VALUES) {
+            out.writeRawVarint32((int) value);
+            out.writeRawVarint64(value);
+            out.writeRawLittleEndian32((int) value);
+            out.writeRawLittleEndian64(value);
+        }
+        out.writeBytes(1, new Buffer(new byte[]{1, 2, 3}));
+        out.flush();
+        return bos.toBuffer();
+    }
+
+    private void assertDecodes(CodedInputStream in) throws IOException {
+        for (long value : VALUES) {
+            assertEquals((int) value, in.readRawVarint32());
+            assertEquals(value, in.readRawVarint64());
+            assertEquals((int) value, in.readRawLittleEndian32());
+            assertEquals(value, in.readRawLittleEndian64());
+        }
+        assertEquals(WireFormat.makeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED), in.readTag());
+        assertEquals(new Buffer(new byte[]{1, 2, 3}), in.readBytes());
+        assertEquals(0, in.readTag());
+    }
+
+    @Test()
+    public void testArrayAndStreamSourcesAgree() throws IOException {
+        Buffer encoded = encode();
+        // pad it so that the array is not the same size as the data.
+        byte[] padded = new byte[encoded.length + 10];
+        System.arraycopy(encoded.data, encoded.offset, padded, 5, encoded.length);
+
+        assertDecodes(new CodedInputStream(new Buffer(padded, 5, encoded.length)));
+        assertDecodes(new CodedInputStream(encoded.toByteArray()));
+        assertDecodes(new CodedInputStream(new BufferInputStream(padded, 5, encoded.length)));
+        assertDecodes(new CodedInputStream(new ByteArrayInputStream(encoded.toByteArray())));
+    }
+
+    @Test()
+    public void testReset() throws IOException {
+        Buffer encoded = encode();
+        CodedInputStream in = new CodedInputStream(new Buffer(new byte[]{8}));
+        assertEquals(8, in.readTag());
+        in.reset(encoded);
+        assertDecodes(in);
+        in.reset(encoded);
+        assertDecodes(in);
+    }
+
+    @Test()
+    public void testLimits() throws IOException {
+        Buffer encoded = encode();
+        CodedInputStream in = new CodedInputStream(encoded);
+        int old = in.pushLimit(3);
+        in.skipRawBytes(2);
+        assertEquals(1, in.available());
+        try {
+            in.readRawLittleEndian32();
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+        }
+        in.popLimit(old);
+        assertEquals(encoded.length - 3, in.available());
+    }
+
+    @Test()
+    public void testTruncated() throws IOException {
+        CodedInputStream in = new CodedInputStream(new Buffer(new byte[]{(byte) 0x80, (byte) 0x80}));
+        try {
+            in.readRawVarint64();
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+        }
+
+        in = new CodedInputStream(new Buffer(new byte[]{2, 1}));
+        try {
+            in.readBytes();
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test()
+    public void testAliasing() throws IOException {
+        byte[] data = new byte[]{3, 'a', 'b', 'c', 3, 'x', 'y', 'z'};
+        CodedInputStream in = new CodedInputStream(data);
+        assertTrue(in.isAliasing());
+        Buffer aliased = in.readBytes();
+        assertSame(data, aliased.data);
+        assertEquals(1, aliased.offset);
+
+        in.enableAliasing(false);
+        Buffer copy = in.readBytes();
+        assertNotSame(data, copy.data);
+        assertEquals(new Buffer(data, 5, 3), copy);
+    }
+
+    @Test()
+    public void testReadString() throws IOException {
+        byte[] utf8 = "h\u00e9llo".getBytes("UTF-8");
+        byte[] data = new byte[utf8.length + 1];
+        data[0] = (byte) utf8.length;
+        System.arraycopy(utf8, 0, data, 1, utf8.length);
+        assertEquals("h\u00e9llo", new CodedInputStream(data).readString());
+        assertEquals("h\u00e9llo", new CodedInputStream(new ByteArrayInputStream(data)).readString());
+    }
+}
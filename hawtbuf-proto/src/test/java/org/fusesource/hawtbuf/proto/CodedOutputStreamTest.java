@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.BufferOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CodedOutputStreamTest {
+
+    static final long[] VALUES = {0, 1, 127, 128, 300, 16384, Integer.MAX_VALUE, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+
+    private static void write(CodedOutputStream out, byte[] blob) throws IOException {
+        for (long value : VALUES) {
+            out.writeRawVarint32((int) value);
+            out.writeRawVarint64(value);
+            out.writeInt32(1, (int) value);
+            out.writeFixed32(2, (int) value);
+            out.writeFixed64(3, value);
+        }
+        out.writeString(4, "hello");
+        out.writeBytes(5, new Buffer(blob));
+    }
+
+    private static int size(byte[] blob) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream out = new CodedOutputStream(baos);
+        write(out, blob);
+        out.flush();
+        return baos.size();
+    }
+
+    @Test()
+    public void testAllModesWriteTheSameBytes() throws IOException {
+        byte[] blob = new byte[10000];
+        for (int i = 0; i < blob.length; i++) {
+            blob[i] = (byte) i;
+        }
+        int size = size(blob);
+
+        // stream mode, with a small buffer so that it has to refresh.
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        CodedOutputStream out = new CodedOutputStream(baos, 32);
+        write(out, blob);
+        out.flush();
+        Buffer expected = new Buffer(baos.toByteArray());
+        assertEquals(size, expected.length);
+
+        // array mode
+        byte[] array = new byte[size];
+        out = new CodedOutputStream(array);
+        write(out, blob);
+        out.checkNoSpaceLeft();
+        assertEquals(expected, new Buffer(array));
+
+        // direct mode, at an offset into the array.
+        BufferOutputStream bos = new BufferOutputStream(new Buffer(new byte[size + 10], 5, size));
+        out = new CodedOutputStream(bos);
+        write(out, blob);
+        out.flush();
+        assertEquals(size, bos.size());
+        assertEquals(expected, bos.toBuffer());
+    }
+
+    @Test()
+    public void testReset() throws IOException {
+        CodedOutputStream out = new CodedOutputStream(new byte[1]);
+        out.writeRawByte(1);
+
+        byte[] array = new byte[2];
+        out.reset(new Buffer(array));
+        out.writeRawVarint32(300);
+        assertEquals(new Buffer(new byte[]{(byte) 0xAC, 0x02}), new Buffer(array));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        out.reset(baos);
+        out.writeRawVarint32(300);
+        assertEquals(0, baos.size());
+        out.flush();
+        assertEquals(new Buffer(new byte[]{(byte) 0xAC, 0x02}), new Buffer(baos.toByteArray()));
+    }
+
+    @Test()
+    public void testGetNextBuffer() throws IOException {
+        byte[] array = new byte[8];
+        CodedOutputStream out = new CodedOutputStream(array);
+        out.writeRawByte(7);
+        Buffer next = out.getNextBuffer(4);
+        assertSame(array, next.data);
+        assertEquals(1, next.offset);
+
+        try {
+            out.getNextBuffer(8);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+        }
+
+        assertNull(new CodedOutputStream(new ByteArrayOutputStream()).getNextBuffer(4));
+    }
+
+    @Test()
+    public void testOverflow() throws IOException {
+        CodedOutputStream out = new CodedOutputStream(new byte[3]);
+        try {
+            out.writeRawLittleEndian32(1);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+        }
+        try {
+            out.checkNoSpaceLeft();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.BufferOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    private static Buffer frame(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + size);
+        }
+        return new Buffer(data);
+    }
+
+    private static Buffer encode(Buffer... frames) throws IOException {
+        int size = 0;
+        for (Buffer frame : frames) {
+            size += CodedOutputStream.computeRawVarint32Size(frame.length) + frame.length;
+        }
+        BufferOutputStream bos = new BufferOutputStream(size);
+        CodedOutputStream out = new CodedOutputStream(bos);
+        for (Buffer frame : frames) {
+            out.writeRawVarint32(frame.length);
+            out.writeRawBytes(frame);
+        }
+        out.flush();
+        return bos.toBuffer();
+    }
+
+    /**
+     * Hands out the data in chunks of up to chunkSize bytes, with a
+     * zero byte read between each chunk.
+     */
+    static class ChunkedChannel implements ReadableByteChannel {
+        final Buffer data;
+        final int chunkSize;
+        int pos;
+        boolean stall;
+
+        ChunkedChannel(Buffer data, int chunkSize) {
+            this.data = data;
+            this.chunkSize = chunkSize;
+        }
+
+        public int read(ByteBuffer dst) {
+            if (stall) {
+                stall = false;
+                return 0;
+            }
+            if (pos == data.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(chunkSize, dst.remaining()), data.length - pos);
+            dst.put(data.data, data.offset + pos, count);
+            pos += count;
+            stall = true;
+            return count;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    @Test()
+    public void testChunkBoundaries() throws IOException {
+        Buffer[] frames = {frame(0), frame(1), frame(127), frame(128), frame(300), frame(20000)};
+        Buffer data = encode(frames);
+        for (int chunkSize : new int[]{1, 2, 7, 128, 4096, data.length}) {
+            FrameDecoder decoder = new FrameDecoder();
+            ArrayList<Buffer> rc = new ArrayList<Buffer>();
+            for (int pos = 0; pos < data.length; pos += chunkSize) {
+                int len = Math.min(chunkSize, data.length - pos);
+                ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOfRange(data.data, pos, pos + len));
+                Buffer frame;
+                while ((frame = decoder.decode(chunk)) != null) {
+                    rc.add(frame);
+                }
+                assertFalse(chunk.hasRemaining());
+            }
+            assertFalse(decoder.isPartial());
+            assertEquals(Arrays.asList(frames), rc);
+        }
+    }
+
+    @Test()
+    public void testAliasing() throws IOException {
+        Buffer data = encode(frame(10), frame(20));
+        ByteBuffer chunk = ByteBuffer.wrap(data.data, data.offset, data.length);
+        FrameDecoder decoder = new FrameDecoder();
+        Buffer first = decoder.decode(chunk);
+        assertSame(data.data, first.data);
+        assertEquals(frame(10), first);
+
+        decoder.enableAliasing(false);
+        Buffer second = decoder.decode(chunk);
+        assertNotSame(data.data, second.data);
+        assertEquals(frame(20), second);
+
+        // direct buffers are always copied.
+        decoder.enableAliasing(true);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data.data, data.offset, data.length).flip();
+        assertEquals(frame(10), decoder.decode(direct));
+        assertEquals(frame(20), decoder.decode(direct));
+        assertNull(decoder.decode(direct));
+    }
+
+    @Test()
+    public void testMaxFrameSize() throws IOException {
+        FrameDecoder decoder = new FrameDecoder(100);
+        assertEquals(frame(100), decoder.decode(ByteBuffer.wrap(encode(frame(100)).toByteArray())));
+        try {
+            decoder.decode(ByteBuffer.wrap(encode(frame(101)).toByteArray()));
+            fail("expected InvalidProtocolBufferException");
+        } catch (InvalidProtocolBufferException expected) {
+        }
+        try {
+            decoder.decode(ByteBuffer.wrap(new byte[]{-1, -1, -1, -1, 0x0F}));
+            fail("expected InvalidProtocolBufferException");
+        } catch (InvalidProtocolBufferException expected) {
+        }
+        try {
+            decoder.decode(ByteBuffer.wrap(new byte[]{-1, -1, -1, -1, -1, 1}));
+            fail("expected InvalidProtocolBufferException");
+        } catch (InvalidProtocolBufferException expected) {
+        }
+        assertFalse(decoder.isPartial());
+    }
+
+    @Test()
+    public void testChannel() throws IOException {
+        Buffer[] frames = {frame(5), frame(200), frame(50000), frame(0), frame(3)};
+        for (int chunkSize : new int[]{1, 100, 1000, 100000}) {
+            ChunkedChannel channel = new ChunkedChannel(encode(frames), chunkSize);
+            FrameDecoder decoder = new FrameDecoder(FrameDecoder.DEFAULT_MAX_FRAME_SIZE, 256);
+            ArrayList<Buffer> rc = new ArrayList<Buffer>();
+            try {
+                while (true) {
+                    Buffer frame = decoder.read(channel);
+                    if (frame != null) {
+                        rc.add(frame);
+                    }
+                }
+            } catch (EOFException expected) {
+            }
+            // aliased frames must not have been overwritten by later reads.
+            assertEquals(Arrays.asList(frames), rc);
+        }
+    }
+
+    @Test()
+    public void testTruncatedChannel() throws IOException {
+        Buffer data = encode(frame(10));
+        ChunkedChannel channel = new ChunkedChannel(data.slice(0, 5), 100);
+        FrameDecoder decoder = new FrameDecoder();
+        assertNull(decoder.read(channel));
+        assertTrue(decoder.isPartial());
+        try {
+            decoder.read(channel);
+            fail("expected InvalidProtocolBufferException");
+        } catch (InvalidProtocolBufferException expected) {
+        }
+    }
+}
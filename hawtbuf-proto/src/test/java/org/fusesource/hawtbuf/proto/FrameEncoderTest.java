@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.ByteArrayOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameEncoderTest {
+
+    /**
+     * Accepts at most chunkSize bytes per write and then, when congested,
+     * nothing on the following write, like a slow socket.
+     */
+    static class SlowChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final ArrayList<byte[]> arrays = new ArrayList<byte[]>();
+        final int chunkSize;
+        boolean congested = true;
+        boolean full;
+
+        SlowChannel(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src}, 0, 1);
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            if (full) {
+                full = false;
+                return 0;
+            }
+            int count = 0;
+            for (int i = offset; i < offset + length && count < chunkSize; i++) {
+                ByteBuffer src = srcs[i];
+                arrays.add(src.array());
+                int n = Math.min(src.remaining(), chunkSize - count);
+                written.write(src.array(), src.arrayOffset() + src.position(), n);
+                src.position(src.position() + n);
+                count += n;
+            }
+            full = congested;
+            return count;
+        }
+
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * A message made of many small bytes fields, all of which get copied.
+     */
+    static class SmallFields extends BaseMessage<SmallFields> {
+        final int count;
+        final Buffer field;
+
+        SmallFields(int count, int fieldSize) {
+            this.count = count;
+            this.field = new Buffer(fieldSize);
+        }
+
+        public SmallFields clone() {
+            return new SmallFields(count, field.length);
+        }
+
+        public int serializedSizeUnframed() {
+            return count * CodedOutputStream.computeBytesSize(1, field);
+        }
+
+        public SmallFields mergeUnframed(CodedInputStream input) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        public void writeUnframed(CodedOutputStream output) throws IOException {
+            for (int i = 0; i < count; i++) {
+                output.writeBytes(1, field);
+            }
+        }
+    }
+
+    private static SampleMessage message(int id, int bodySize) {
+        SampleMessage rc = new SampleMessage();
+        rc.id = id;
+        rc.body = new Buffer(bodySize);
+        for (int i = 0; i < bodySize; i++) {
+            rc.body.data[i] = (byte) (i + id);
+        }
+        return rc;
+    }
+
+    @Test()
+    public void testPartialWrites() throws IOException {
+        SampleMessage[] messages = {message(1, 0), message(2, 10), message(3, 100000), message(4, 200)};
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (SampleMessage m : messages) {
+            m.writeFramed(expected);
+        }
+
+        for (int chunkSize : new int[]{1, 7, 1000, 1000000}) {
+            SlowChannel channel = new SlowChannel(chunkSize);
+            FrameEncoder encoder = new FrameEncoder(256);
+            assertTrue(encoder.isEmpty());
+            for (SampleMessage m : messages) {
+                encoder.offer(m);
+            }
+            while (!encoder.flush(channel)) {
+                assertFalse(encoder.isEmpty());
+            }
+            assertTrue(encoder.isEmpty());
+            assertEquals(expected.toBuffer(), channel.written.toBuffer());
+
+            // the large body was written from the message's own array.
+            assertTrue(channel.arrays.contains(messages[2].body.data));
+            assertFalse(channel.arrays.contains(messages[3].body.data));
+        }
+    }
+
+    @Test()
+    public void testDecodeRoundTrip() throws IOException {
+        SlowChannel channel = new SlowChannel(333);
+        FrameEncoder encoder = new FrameEncoder();
+        for (int i = 0; i < 50; i++) {
+            encoder.offer(message(i, i * 200));
+            encoder.flush(channel);
+        }
+        while (!encoder.flush(channel)) {
+        }
+
+        FrameDecoder decoder = new FrameDecoder();
+        ByteBuffer input = ByteBuffer.wrap(channel.written.toByteArray());
+        for (int i = 0; i < 50; i++) {
+            SampleMessage rc = new SampleMessage().mergeUnframed(decoder.decode(input));
+            assertEquals(i, rc.id);
+            assertEquals(message(i, i * 200).body, rc.body);
+        }
+        assertFalse(input.hasRemaining());
+    }
+
+    @Test()
+    public void testBoundedWindow() throws IOException {
+        SmallFields message = new SmallFields(1000, 100);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        message.writeFramed(expected);
+
+        // a channel which keeps up drains the window while encoding.
+        SlowChannel channel = new SlowChannel(Integer.MAX_VALUE);
+        channel.congested = false;
+        FrameEncoder encoder = new FrameEncoder(256);
+        encoder.offer(message);
+        assertTrue(encoder.flush(channel));
+        assertEquals(expected.toBuffer(), channel.written.toBuffer());
+        assertEquals(256, encoder.windowCapacity());
+
+        // a congested one makes it grow for the message in flight only.
+        channel = new SlowChannel(1000);
+        encoder.offer(message);
+        assertFalse(encoder.flush(channel));
+        assertTrue(encoder.windowCapacity() > 256);
+        while (!encoder.flush(channel)) {
+        }
+        assertEquals(expected.toBuffer(), channel.written.toBuffer());
+        assertEquals(256, encoder.windowCapacity());
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.IOException;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.ByteArrayOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageBatchWriterTest {
+
+    @Test()
+    public void testBatch() throws IOException {
+        MessageBatchWriter writer = new MessageBatchWriter();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 40; i++) {
+            SampleMessage message = new SampleMessage();
+            message.id = i;
+            message.body = new Buffer(new byte[i * 10]);
+            message.writeFramed(expected);
+            writer.add(message);
+        }
+        assertEquals(40, writer.size());
+
+        Buffer batch = writer.toBuffer();
+        assertEquals(expected.toBuffer(), batch);
+        assertEquals(batch.length, batch.data.length);
+
+        int[] offsets = writer.getOffsets();
+        assertEquals(40, offsets.length);
+        for (int i = 39; i >= 0; i--) {
+            SampleMessage message = new SampleMessage().mergeUnframed(MessageBatchWriter.frame(batch, offsets, i));
+            assertEquals(i, message.id);
+            assertEquals(i * 10, message.body.length);
+            assertEquals(writer.getFrame(i), MessageBatchWriter.frame(batch, offsets, i));
+        }
+
+        writer.clear();
+        assertEquals(0, writer.size());
+        assertEquals(0, writer.toBuffer().length);
+        assertEquals(0, writer.getOffsets().length);
+    }
+}
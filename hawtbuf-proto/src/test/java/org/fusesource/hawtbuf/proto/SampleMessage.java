@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.io.IOException;
+
+import org.fusesource.hawtbuf.Buffer;
+
+/**
+ * A hand written message like the ones the JavaGenerator produces.
+ */
+class SampleMessage extends BaseMessage<SampleMessage> {
+    long id;
+    Buffer body;
+
+    public SampleMessage clone() {
+        SampleMessage rc = new SampleMessage();
+        rc.id = id;
+        rc.body = body;
+        return rc;
+    }
+
+    public int serializedSizeUnframed() {
+        if (memoizedSerializedSize != -1) {
+            return memoizedSerializedSize;
+        }
+        int size = CodedOutputStream.computeInt64Size(1, id);
+        if (body != null) {
+            size += CodedOutputStream.computeBytesSize(2, body);
+        }
+        memoizedSerializedSize = size;
+        return size;
+    }
+
+    public SampleMessage mergeUnframed(CodedInputStream input) throws IOException {
+        while (true) {
+            int tag = input.readTag();
+            switch (tag) {
+                case 0:
+                    return this;
+                case 8:
+                    id = input.readInt64();
+                    break;
+                case 18:
+                    body = input.readBytes();
+                    break;
+                default:
+                    if (!input.skipField(tag)) {
+                        return this;
+                    }
+            }
+        }
+    }
+
+    public void writeUnframed(CodedOutputStream output) throws IOException {
+        output.writeInt64(1, id);
+        if (body != null) {
+            output.writeBytes(2, body);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import junit.framework.TestCase;
+
+import org.fusesource.hawtbuf.AsciiBuffer;
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.proto.Flyweight.Destination;
+import org.fusesource.hawtbuf.proto.Flyweight.Kind;
+import org.fusesource.hawtbuf.proto.Flyweight.Scalars;
+
+public class FlyweightTest extends TestCase {
+
+	public void testScalarsDecodedFromBuffer() throws InvalidProtocolBufferException {
+		Scalars.Bean bean = new Scalars.Bean();
+		bean.setFInt32(-1);
+		bean.setFInt64(Long.MIN_VALUE);
+		bean.setFUint32(0xFFFFFFFF);
+		bean.setFUint64(300);
+		bean.setFSint32(-5);
+		bean.setFSint64(-500000000000L);
+		bean.setFFixed32(0xCAFEBABE);
+		bean.setFFixed64(0x0123456789ABCDEFL);
+		bean.setFSfixed32(-2);
+		bean.setFSfixed64(-3);
+		bean.setFFloat(1.5f);
+		bean.setFDouble(-2.25d);
+		bean.setFBool(true);
+		bean.setFString("h\u00e9llo");
+		bean.setFBytes(new Buffer(new byte[]{1, 2, 3}));
+		bean.setFAscii(new AsciiBuffer("ascii"));
+		bean.setDestination(new Destination.Bean().setName("queue").setKind(Kind.TOPIC));
+		bean.addFRepeated(7);
+		Buffer encoded = bean.freeze().toUnframedBuffer();
+
+		Scalars.Buffer parsed = Scalars.FACTORY.parseUnframed(encoded);
+		assertEquals(-1, parsed.getFInt32());
+		assertEquals(Long.MIN_VALUE, parsed.getFInt64());
+		assertEquals(0xFFFFFFFF, parsed.getFUint32());
+		assertEquals(300, parsed.getFUint64());
+		assertEquals(-5, parsed.getFSint32());
+		assertEquals(-500000000000L, parsed.getFSint64());
+		assertEquals(0xCAFEBABE, parsed.getFFixed32());
+		assertEquals(0x0123456789ABCDEFL, parsed.getFFixed64());
+		assertEquals(-2, parsed.getFSfixed32());
+		assertEquals(-3, parsed.getFSfixed64());
+		assertEquals(1.5f, parsed.getFFloat());
+		assertEquals(-2.25d, parsed.getFDouble());
+		assertTrue(parsed.getFBool());
+		assertEquals("h\u00e9llo", parsed.getFString());
+		assertEquals(new Buffer(new byte[]{1, 2, 3}), parsed.getFBytes());
+		assertEquals(new AsciiBuffer("ascii"), parsed.getFAscii());
+		assertTrue(parsed.hasFInt32());
+		assertTrue(parsed.hasFAscii());
+
+		// absent fields report their defaults.
+		assertFalse(parsed.hasFDefault());
+		assertEquals(42, parsed.getFDefault());
+
+		// everything else still goes through the bean.
+		assertEquals("queue", parsed.getDestination().getName());
+		assertEquals(Kind.TOPIC, parsed.getDestination().getKind());
+		assertEquals(1, parsed.getFRepeatedCount());
+		assertEquals(-1, parsed.getFInt32());
+		assertEquals(encoded, parsed.toUnframedBuffer());
+	}
+
+	public void testEmptyMessage() throws InvalidProtocolBufferException {
+		Scalars.Buffer parsed = Scalars.FACTORY.parseUnframed(new Buffer(0));
+		assertFalse(parsed.hasFString());
+		assertNull(parsed.getFString());
+		assertFalse(parsed.hasFBool());
+		assertFalse(parsed.getFBool());
+		assertEquals(0L, parsed.getFFixed64());
+	}
+
+}
@@ -19,10 +19,15 @@ package org.fusesource.hawtbuf.proto;
 import java.util.Arrays;
 
 import junit.framework.TestCase;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
 import org.fusesource.hawtbuf.proto.UnittestProto.ForeignEnum;
 import org.fusesource.hawtbuf.proto.UnittestProto.ForeignMessage;
 import org.fusesource.hawtbuf.proto.UnittestProto.TestAllTypes;
+import org.fusesource.hawtbuf.proto.UnittestProto.TestEmptyMessage;
 import org.fusesource.hawtbuf.proto.UnittestProto.TestExtremeDefaultValues;
+import org.fusesource.hawtbuf.proto.UnittestProto.TestRecursiveMessage;
+import org.fusesource.hawtbuf.proto.UnittestProto.TestRequired;
+import org.fusesource.hawtbuf.proto.UnittestProto.TestRequiredForeign;
 
 /**
  * Unit test for generated messages and generated code.  See also
@@ -97,6 +102,270 @@ public class GeneratedMessageTest extends TestCase {
     assertEquals("\u1234", new TestExtremeDefaultValues().getUtf8String());
   }
 
+  public void testFieldMask() throws Exception {
+    TestAllTypes message = new TestAllTypes();
+    TestUtil.setAllFields(message);
+    org.fusesource.hawtbuf.Buffer data = message.toUnframedBuffer();
+
+    TestAllTypes partial = TestAllTypes.parseUnframed(data, FieldMask.of(1, 15, 18));
+    assertEquals(101, partial.getOptionalInt32());
+    assertEquals(message.getOptionalBytes(), partial.getOptionalBytes());
+    assertEquals(118, partial.getOptionalNestedMessage().getBb());
+    assertFalse(partial.hasOptionalInt64());
+    assertFalse(partial.hasOptionalGroup());
+    assertFalse(partial.hasOptionalForeignMessage());
+    assertEquals(0, partial.getRepeatedInt32Count());
+    assertEquals(0, partial.getRepeatedNestedMessageCount());
+
+    // nested paths only decode part of the nested message.
+    TestRecursiveMessage recursive = new TestRecursiveMessage()
+        .setI(1)
+        .setA(new TestRecursiveMessage().setI(2).setA(new TestRecursiveMessage().setI(3)));
+    TestRecursiveMessage rc = TestRecursiveMessage.parseFramed(recursive.toFramedBuffer(), FieldMask.parse("1.1.2"));
+    assertFalse(rc.hasI());
+    assertFalse(rc.getA().hasI());
+    assertEquals(3, rc.getA().getA().getI());
+
+    // required fields are not checked when a mask is used.
+    TestRequiredForeign foreign = new TestRequiredForeign()
+        .setDummy(5)
+        .setOptionalMessage(new TestRequired().setA(1).setB(2));
+    TestRequiredForeign parsed = TestRequiredForeign.parseUnframed(foreign.toUnframedBuffer(), FieldMask.parse("3, 1.2"));
+    assertEquals(5, parsed.getDummy());
+    assertFalse(parsed.getOptionalMessage().hasA());
+  }
+
+  public void testUnknownFields() throws Exception {
+    TestAllTypes message = new TestAllTypes();
+    TestUtil.setAllFields(message);
+    org.fusesource.hawtbuf.Buffer data = message.toUnframedBuffer();
+
+    // every field, groups included, is unknown to the empty message.
+    TestEmptyMessage empty = TestEmptyMessage.parseUnframed(data);
+    assertTrue(empty.hasUnknownFields());
+    assertEquals(data.length, empty.serializedSizeUnframed());
+    assertEquals(data, empty.toUnframedBuffer());
+    assertEquals(data, empty.clone().toUnframedBuffer());
+
+    // the fields are encoded again when reading from a stream.
+    empty = TestEmptyMessage.parseUnframed(new java.io.ByteArrayInputStream(data.toByteArray()));
+    assertEquals(data, empty.toUnframedBuffer());
+    assertEquals(message, TestAllTypes.parseUnframed(empty.toUnframedBuffer()));
+
+    empty.clearUnknownFields();
+    assertEquals(0, empty.serializedSizeUnframed());
+  }
+
+  public void testNestedModification() throws Exception {
+    TestRecursiveMessage message = new TestRecursiveMessage()
+        .setI(1)
+        .setA(new TestRecursiveMessage().setI(2).setA(new TestRecursiveMessage().setI(3)));
+    message.toFramedBuffer();
+    // the memoized sizes are kept across encodes.
+    assertTrue(message.memoizedSerializedSize != -1);
+    assertTrue(message.getA().memoizedSerializedSize != -1);
+
+    // changing a nested message drops the memoized sizes of its parents.
+    message.getA().getA().setI(300000);
+    assertEquals(-1, message.memoizedSerializedSize);
+    assertEquals(-1, message.getA().memoizedSerializedSize);
+    assertEquals(message.toUnframedBuffer().length, message.serializedSizeUnframed());
+    TestRecursiveMessage parsed = TestRecursiveMessage.parseFramed(message.toFramedBuffer());
+    assertEquals(300000, parsed.getA().getA().getI());
+
+    // and so does changing a list through the list itself.
+    TestAllTypes all = new TestAllTypes();
+    all.addRepeatedNestedMessage(new TestAllTypes.NestedMessage().setBb(1));
+    all.toUnframedBuffer();
+    java.util.List<TestAllTypes.NestedMessage> list = all.getRepeatedNestedMessageList();
+    list.add(new TestAllTypes.NestedMessage().setBb(2));
+    assertEquals(all.toUnframedBuffer().length, all.serializedSizeUnframed());
+    list.get(1).setBb(300000);
+    assertEquals(all.toUnframedBuffer().length, all.serializedSizeUnframed());
+    all.getRepeatedInt32List().add(5);
+    assertEquals(all.toUnframedBuffer().length, all.serializedSizeUnframed());
+    assertEquals(all, TestAllTypes.parseUnframed(all.toUnframedBuffer()));
+  }
+
+  public void testSharedModification() throws Exception {
+    TestAllTypes.NestedMessage shared = new TestAllTypes.NestedMessage().setBb(1);
+    TestAllTypes first = new TestAllTypes().setOptionalNestedMessage(shared);
+    TestAllTypes second = new TestAllTypes().setOptionalNestedMessage(shared);
+    first.toUnframedBuffer();
+    second.toUnframedBuffer();
+
+    // neither parent can be told about the change, so neither memoizes.
+    shared.setBb(300000);
+    assertEquals(first.toUnframedBuffer().length, first.serializedSizeUnframed());
+    assertEquals(second.toUnframedBuffer().length, second.serializedSizeUnframed());
+
+    // nor does a message holding a list it was given.
+    java.util.List<Integer> ints = new java.util.ArrayList<Integer>();
+    TestAllTypes given = new TestAllTypes().setRepeatedInt32List(ints);
+    given.toUnframedBuffer();
+    ints.add(300000);
+    assertEquals(given.toUnframedBuffer().length, given.serializedSizeUnframed());
+    assertEquals(300000, TestAllTypes.parseUnframed(given.toUnframedBuffer()).getRepeatedInt32(0).intValue());
+  }
+
+  public void testWriteReverse() throws Exception {
+    TestAllTypes message = new TestAllTypes();
+    TestUtil.setAllFields(message);
+    ReverseCodedOutputStream output = new ReverseCodedOutputStream(16);
+    message.writeFramedReverse(output);
+    assertEquals(message.toFramedBuffer(), output.toBuffer());
+
+    PackedProto.TestPackedTypes packed = new PackedProto.TestPackedTypes()
+        .addPackedInt32(-1).addPackedInt32(300)
+        .addPackedSint64(-5L)
+        .addPackedDouble(1.5d)
+        .addPackedEnum(PackedProto.PackedEnum.BAR);
+    output.reset();
+    packed.writeUnframedReverse(output);
+    assertEquals(packed.toUnframedBuffer(), output.toBuffer());
+
+    // unknown fields keep their order too.
+    output.reset();
+    TestEmptyMessage.parseUnframed(message.toUnframedBuffer()).writeUnframedReverse(output);
+    assertEquals(message.toUnframedBuffer(), output.toBuffer());
+  }
+
+  public void testPatchedLengthPrefix() throws Exception {
+    TestAllTypes message = new TestAllTypes();
+    TestUtil.setAllFields(message);
+    DataByteArrayOutputStream out = new DataByteArrayOutputStream(16);
+    int mark = out.reserveLength(DataByteArrayOutputStream.LengthPrefix.VARINT);
+    CodedOutputStream output = new CodedOutputStream(out);
+    message.writeUnframed(output);
+    output.flush();
+    out.patchLength(mark, DataByteArrayOutputStream.LengthPrefix.VARINT);
+    assertEquals(message.toFramedBuffer(), out.toBuffer());
+  }
+
+  public void testParseInto() throws Exception {
+    TestAllTypes message = new TestAllTypes();
+    TestUtil.setAllFields(message);
+    org.fusesource.hawtbuf.Buffer data = message.toFramedBuffer();
+
+    TestAllTypes reused = TestAllTypes.parseFramed(data);
+    java.util.List<Integer> ints = reused.getRepeatedInt32List();
+    java.util.List<TestAllTypes.NestedMessage> nested = reused.getRepeatedNestedMessageList();
+    // a plain parse does not take its nested messages from the pool.
+    assertFalse(nested.get(0).pooled);
+    while (TestAllTypes.NestedMessage.POOL.size() > 0) {
+      TestAllTypes.NestedMessage.POOL.take();
+    }
+    assertSame(reused, TestAllTypes.parseFramedInto(reused, data));
+    TestUtil.assertAllFieldsSet(reused);
+    assertEquals(message, reused);
+    // the lists were kept and the nested messages came back from the pool.
+    assertSame(ints, reused.getRepeatedInt32List());
+    assertSame(nested, reused.getRepeatedNestedMessageList());
+    assertEquals(0, TestAllTypes.NestedMessage.POOL.size());
+
+    // fields missing from the new data are cleared.
+    TestAllTypes.parseUnframedInto(reused, new TestAllTypes().setOptionalInt32(7).toUnframedBuffer());
+    assertEquals(7, reused.getOptionalInt32());
+    assertFalse(reused.hasRepeatedInt32());
+    assertFalse(reused.hasOptionalNestedMessage());
+    assertSame(ints, reused.getRepeatedInt32List());
+    assertEquals(3, TestAllTypes.NestedMessage.POOL.size());
+  }
+
+  public void testParseIntoLeavesSharedObjects() throws Exception {
+    org.fusesource.hawtbuf.Buffer data = new TestAllTypes().setOptionalInt32(7).toUnframedBuffer();
+    TestAllTypes.NestedMessage shared = new TestAllTypes.NestedMessage().setBb(5);
+    java.util.List<Integer> ints = new java.util.ArrayList<Integer>(java.util.Arrays.asList(1, 2, 3));
+    TestAllTypes reused = new TestAllTypes();
+    reused.setOptionalNestedMessage(shared);
+    reused.addRepeatedNestedMessage(shared);
+    reused.setRepeatedInt32List(ints);
+    TestAllTypes other = new TestAllTypes().setOptionalNestedMessage(shared);
+    int pooled = TestAllTypes.NestedMessage.POOL.size();
+
+    TestAllTypes.parseUnframedInto(reused, data);
+    assertEquals(7, reused.getOptionalInt32());
+    assertFalse(reused.hasOptionalNestedMessage());
+    assertFalse(reused.hasRepeatedInt32());
+    // messages and lists which the application created are not recycled.
+    assertSame(shared, other.getOptionalNestedMessage());
+    assertEquals(5, shared.getBb());
+    assertEquals(pooled, TestAllTypes.NestedMessage.POOL.size());
+    assertEquals(java.util.Arrays.asList(1, 2, 3), ints);
+    assertNotSame(ints, reused.getRepeatedInt32List());
+  }
+
+  public void testParseIntoReleasesOnce() throws Exception {
+    TestAllTypes message = new TestAllTypes();
+    message.setOptionalNestedMessage(new TestAllTypes.NestedMessage().setBb(1));
+    org.fusesource.hawtbuf.Buffer data = message.toUnframedBuffer();
+    while (TestAllTypes.NestedMessage.POOL.size() > 0) {
+      TestAllTypes.NestedMessage.POOL.take();
+    }
+
+    TestAllTypes reused = TestAllTypes.parseUnframedInto(new TestAllTypes(), data);
+    TestAllTypes.NestedMessage child = reused.getOptionalNestedMessage();
+    reused.addRepeatedNestedMessage(child);
+    reused.addRepeatedNestedMessage(child);
+    TestAllTypes.parseUnframedInto(reused, new TestAllTypes().toUnframedBuffer());
+    // the child was released once although it was referenced three times.
+    assertEquals(1, TestAllTypes.NestedMessage.POOL.size());
+    TestAllTypes.NestedMessage.POOL.release(child);
+    assertEquals(1, TestAllTypes.NestedMessage.POOL.size());
+    assertNotSame(TestAllTypes.NestedMessage.POOL.take(), TestAllTypes.NestedMessage.POOL.take());
+  }
+
+  public void testParseIntoLeavesSharedParsedChildren() throws Exception {
+    TestAllTypes message = new TestAllTypes();
+    message.setOptionalNestedMessage(new TestAllTypes.NestedMessage().setBb(1));
+    org.fusesource.hawtbuf.Buffer data = message.toUnframedBuffer();
+    while (TestAllTypes.NestedMessage.POOL.size() > 0) {
+      TestAllTypes.NestedMessage.POOL.take();
+    }
+
+    TestAllTypes parsed = TestAllTypes.parseUnframedInto(new TestAllTypes(), data);
+    TestAllTypes.NestedMessage child = parsed.getOptionalNestedMessage();
+    assertTrue(child.pooled);
+    TestAllTypes other = new TestAllTypes().setOptionalNestedMessage(child);
+    TestAllTypes.parseUnframedInto(parsed, data);
+    // the child which the parser created is held by another message now.
+    assertSame(child, other.getOptionalNestedMessage());
+    assertEquals(1, child.getBb());
+    assertNotSame(child, parsed.getOptionalNestedMessage());
+    assertEquals(0, TestAllTypes.NestedMessage.POOL.size());
+  }
+
+  public void testPatch() throws Exception {
+    TestAllTypes message = new TestAllTypes();
+    TestUtil.setAllFields(message);
+    org.fusesource.hawtbuf.Buffer data = message.toUnframedBuffer().deepCopy();
+
+    assertTrue(TestAllTypes.patchOptionalFixed32(data, 0xCAFEBABE));
+    assertTrue(TestAllTypes.patchOptionalDouble(data, 1.5d));
+    assertTrue(TestAllTypes.patchOptionalInt32(data, 120));
+    assertTrue(TestAllTypes.patchOptionalSint64(data, 100));
+    assertTrue(TestAllTypes.patchOptionalBool(data, false));
+    // the encoded length of a varint can not change.
+    assertFalse(TestAllTypes.patchOptionalInt32(data, 300));
+    assertFalse(TestAllTypes.patchOptionalSint64(data, -7));
+
+    TestAllTypes patched = TestAllTypes.parseUnframed(data);
+    assertEquals(0xCAFEBABE, patched.getOptionalFixed32());
+    assertEquals(1.5d, patched.getOptionalDouble());
+    assertEquals(120, patched.getOptionalInt32());
+    assertEquals(100, patched.getOptionalSint64());
+    assertFalse(patched.getOptionalBool());
+    patched.setOptionalFixed32(message.getOptionalFixed32());
+    patched.setOptionalDouble(message.getOptionalDouble());
+    patched.setOptionalInt32(message.getOptionalInt32());
+    patched.setOptionalSint64(message.getOptionalSint64());
+    patched.setOptionalBool(message.getOptionalBool());
+    assertEquals(message, patched);
+
+    // absent fields can not be patched.
+    assertFalse(TestAllTypes.patchOptionalFixed32(new TestAllTypes().toUnframedBuffer(), 1));
+  }
+
   // =================================================================
   // multiple_files_test
 
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import junit.framework.TestCase;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.proto.LazyDecode.Body;
+import org.fusesource.hawtbuf.proto.LazyDecode.Envelope;
+import org.fusesource.hawtbuf.proto.LazyDecode.Header;
+
+public class LazyDecodeTest extends TestCase {
+
+	public void testLazyFields() throws InvalidProtocolBufferException {
+		Envelope envelope = new Envelope();
+		envelope.setHeader(new Header().setId(1).setName("a"));
+		envelope.setBody(new Body().setData(new Buffer(new byte[1000])));
+		envelope.setPriority(4);
+		Buffer encoded = envelope.toUnframedBuffer();
+
+		Envelope parsed = Envelope.parseUnframed(encoded);
+		// fields marked lazy keep their encoded form.
+		assertNotNull(parsed.l_body);
+		assertNull(parsed.l_replyTo);
+		assertTrue(parsed.hasBody());
+		assertFalse(parsed.hasReplyTo());
+		assertEquals(4, parsed.getPriority());
+
+		// the encoded form is written back out as is.
+		assertEquals(encoded, parsed.toUnframedBuffer());
+		assertEquals(encoded.length, parsed.serializedSizeUnframed());
+		assertNotNull(parsed.l_body);
+
+		// and decoded on first access.
+		assertEquals(1000, parsed.getBody().getData().length);
+		assertNull(parsed.l_body);
+		assertEquals(envelope, parsed);
+
+		parsed.setBody(new Body());
+		assertEquals(0, Envelope.parseUnframed(parsed.toUnframedBuffer()).getBody().serializedSizeUnframed());
+	}
+
+	public void testLazyRepeatedFields() throws InvalidProtocolBufferException {
+		Envelope envelope = new Envelope();
+		for (int i = 0; i < 100; i++) {
+			envelope.addRecords(new Header().setId(i).setName("record " + i));
+		}
+		Buffer encoded = envelope.toUnframedBuffer();
+
+		Envelope parsed = Envelope.parseUnframed(encoded);
+		LazyMessageList<Header> records = parsed.getRecordsList();
+		assertEquals(100, records.size());
+		assertNotNull(records.getEncoded(0));
+
+		// only the accessed elements are decoded.
+		assertEquals("record 1", parsed.getRecords(1).getName());
+		assertNotNull(records.getEncoded(0));
+		assertNull(records.getEncoded(1));
+		parsed.getRecords(2).setName("changed");
+
+		Envelope copy = Envelope.parseUnframed(parsed.toUnframedBuffer());
+		assertEquals(parsed.toUnframedBuffer().length, parsed.serializedSizeUnframed());
+		assertEquals("changed", copy.getRecords(2).getName());
+		assertEquals(99, copy.getRecords(99).getId());
+		assertEquals(parsed, copy);
+		assertEquals(parsed, parsed.clone());
+
+		// replacing or removing an element hands back the element.
+		records = Envelope.parseUnframed(encoded).getRecordsList();
+		assertEquals("record 2", records.get(2).getName());
+		assertEquals("record 10", records.set(10, new Header().setId(10).setName("replaced")).getName());
+		assertEquals("record 20", records.remove(20).getName());
+		assertEquals("record 2", records.remove(2).getName());
+		assertEquals(98, records.size());
+		java.util.Collections.swap(records, 0, 1);
+		assertEquals("record 1", records.get(0).getName());
+		assertEquals("record 0", records.get(1).getName());
+
+		// unless it is done without decoding it.
+		records.replaceEncoded(20, new Header().setId(22).setName("replaced"));
+		records.removeEncoded(30);
+		assertEquals(97, records.size());
+		assertNotNull(records.getEncoded(30));
+		assertEquals("record 33", records.get(30).getName());
+	}
+
+	public void testMissingFieldsDetectedOnAccess() throws InvalidProtocolBufferException {
+		Envelope envelope = new Envelope();
+		envelope.setReplyTo(new Header().setName("no id"));
+
+		Envelope parsed = Envelope.parseUnframed(envelope.toUnframedBuffer());
+		assertTrue(parsed.hasReplyTo());
+		try {
+			parsed.getReplyTo();
+			fail("Expected UninitializedMessageException");
+		} catch (UninitializedMessageException expected) {
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.proto.PackedProto.PackedEnum;
+import org.fusesource.hawtbuf.proto.PackedProto.TestPackedTypes;
+import org.fusesource.hawtbuf.proto.PackedProto.TestUnpackedTypes;
+
+public class PackedFieldsTest extends TestCase {
+
+	public void testPackedEncoding() throws InvalidProtocolBufferException {
+		TestPackedTypes message = new TestPackedTypes();
+		message.setPackedSint32List(Arrays.asList(3, 270, 86942));
+		Buffer encoded = message.toUnframedBuffer();
+		// the field is written once, followed by the length of its elements.
+		assertEquals(new Buffer(new byte[]{0x22, 0x06, 0x06, (byte) 0x9C, 0x04, (byte) 0xBC, (byte) 0xCE, 0x0A}), encoded);
+		assertEquals(encoded.length, message.serializedSizeUnframed());
+		assertEquals(message, TestPackedTypes.parseUnframed(encoded));
+	}
+
+	public void testPackedAndUnpackedAreInterchangeable() throws InvalidProtocolBufferException {
+		TestPackedTypes packed = new TestPackedTypes();
+		packed.setPackedInt32List(Arrays.asList(1, -1, 300));
+		packed.setPackedInt64List(Arrays.asList(Long.MAX_VALUE, -2L));
+		packed.setPackedUint32List(Arrays.asList(0xFFFFFFFF));
+		packed.setPackedSint32List(Arrays.asList(-5, 5));
+		packed.setPackedSint64List(Arrays.asList(-500000000000L));
+		packed.setPackedFixed32List(Arrays.asList(1, 2, 3));
+		packed.setPackedSfixed64List(Arrays.asList(-1L));
+		packed.setPackedFloatList(Arrays.asList(1.5f));
+		packed.setPackedDoubleList(Arrays.asList(-2.25d, 0d));
+		packed.setPackedBoolList(Arrays.asList(true, false));
+		packed.setPackedEnumList(Arrays.asList(PackedEnum.BAR, PackedEnum.FOO));
+		Buffer packedEncoding = packed.toUnframedBuffer();
+		assertEquals(packedEncoding.length, packed.serializedSizeUnframed());
+
+		TestUnpackedTypes unpacked = TestUnpackedTypes.parseUnframed(packedEncoding);
+		assertEquals(packed.toString(), unpacked.toString());
+		Buffer unpackedEncoding = unpacked.toUnframedBuffer();
+
+		assertEquals(packed, TestPackedTypes.parseUnframed(unpackedEncoding));
+		assertEquals(packed, TestPackedTypes.parseFramed(packed.toFramedBuffer()));
+	}
+
+	public void testModifiedAfterSizing() throws Exception {
+		TestPackedTypes message = new TestPackedTypes().addPackedInt32(1).addPackedFixed32(2);
+		message.toUnframedBuffer();
+		// the list is modified without the message knowing.
+		message.getPackedInt32List().add(300);
+		message.getPackedFixed32List().add(4);
+
+		org.fusesource.hawtbuf.ByteArrayOutputStream out = new org.fusesource.hawtbuf.ByteArrayOutputStream();
+		CodedOutputStream output = new CodedOutputStream(out);
+		message.writeUnframed(output);
+		output.flush();
+		TestPackedTypes parsed = TestPackedTypes.parseUnframed(out.toBuffer());
+		assertEquals(Arrays.asList(1, 300), parsed.getPackedInt32List());
+		assertEquals(Arrays.asList(2, 4), parsed.getPackedFixed32List());
+	}
+
+	public void testAltPackedFields() throws InvalidProtocolBufferException {
+		AltPackedProto.TestPackedTypes.Bean bean = new AltPackedProto.TestPackedTypes.Bean();
+		bean.addPackedSint32(3);
+		bean.addPackedSint32(270);
+		bean.addPackedSint32(86942);
+		bean.addPackedEnum(AltPackedProto.PackedEnum.BAR);
+		bean.addPackedDouble(1.5d);
+		Buffer encoded = bean.freeze().toUnframedBuffer();
+		assertEquals(encoded.length, bean.freeze().serializedSizeUnframed());
+
+		AltPackedProto.TestPackedTypes.Buffer parsed = AltPackedProto.TestPackedTypes.FACTORY.parseUnframed(encoded);
+		assertEquals(Arrays.asList(3, 270, 86942), parsed.getPackedSint32List());
+		assertEquals(AltPackedProto.PackedEnum.BAR, parsed.getPackedEnum(0));
+		assertEquals(1.5d, parsed.getPackedDouble(0));
+
+		// the unpacked encoding of the default generator is accepted too.
+		TestUnpackedTypes unpacked = new TestUnpackedTypes();
+		unpacked.setPackedSint32List(Arrays.asList(3, 270, 86942));
+		parsed = AltPackedProto.TestPackedTypes.FACTORY.parseUnframed(unpacked.toUnframedBuffer());
+		assertEquals(Arrays.asList(3, 270, 86942), parsed.getPackedSint32List());
+		assertEquals(8, parsed.copy().freeze().toUnframedBuffer().length);
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.fusesource.hawtbuf.proto.PrimitiveLists.Samples;
+
+public class PrimitiveListsTest extends TestCase {
+
+	public void testPrimitiveLists() throws InvalidProtocolBufferException {
+		Samples samples = new Samples();
+		for (int i = 0; i < 1000; i++) {
+			samples.addIds(i);
+			samples.addTimestamps(-i * 1000L);
+			samples.addValues(i / 2d);
+		}
+		samples.getWeightsList().addAll(new float[]{0.5f, 1.5f});
+		samples.addFlags(true);
+		samples.addFlags(false);
+		samples.addNames("a");
+		samples.setIds(0, 42);
+
+		Samples parsed = Samples.parseUnframed(samples.toUnframedBuffer());
+		assertEquals(samples, parsed);
+		IntList ids = parsed.getIdsList();
+		assertEquals(1000, ids.size());
+		assertEquals(42, ids.getInt(0));
+		assertEquals(999, parsed.getIds(999));
+		assertEquals(-999000L, parsed.getTimestampsList().getLong(999));
+		assertEquals(499.5d, parsed.getValues(999));
+		assertTrue(Arrays.equals(new float[]{0.5f, 1.5f}, parsed.getWeightsList().toFloatArray()));
+		assertTrue(Arrays.equals(new boolean[]{true, false}, parsed.getFlagsList().toBooleanArray()));
+		assertEquals(Arrays.asList("a"), parsed.getNamesList());
+
+		// other lists are copied into a primitive list.
+		parsed.setIdsList(Arrays.asList(7, 8));
+		assertEquals(8, parsed.getIdsList().getInt(1));
+		assertEquals(parsed, Samples.parseFramed(parsed.toFramedBuffer()));
+	}
+
+}
@@ -45,10 +45,41 @@ public class AltJavaGenerator {
     private String javaPackage;
     private String outerClassName;
     private PrintWriter w;
+    private final FieldGeneratorSupport.Printer printer = new FieldGeneratorSupport.Printer() {
+        public void p(String line) {
+            AltJavaGenerator.this.p(line);
+        }
+
+        public void p() {
+            AltJavaGenerator.this.p();
+        }
+
+        public void indent() {
+            AltJavaGenerator.this.indent();
+        }
+
+        public void unindent() {
+            AltJavaGenerator.this.unindent();
+        }
+
+        public String javaType(FieldDescriptor field) {
+            return AltJavaGenerator.this.javaType(field);
+        }
+
+        public String uCamel(String name) {
+            return AltJavaGenerator.uCamel(name);
+        }
+
+        public void openListLoop(FieldDescriptor field, String list) {
+            AltJavaGenerator.this.p("for (" + javaType(field) + " i : " + list + ") {");
+            AltJavaGenerator.this.indent();
+        }
+    };
     private int indent;
     private ArrayList<String> errors = new ArrayList<String>();
     private boolean multipleFiles;
     private boolean auto_clear_optional_fields;
+    private boolean flyweightAccessors;
 
     private String factoryFeild = "FACTORY";
     private String getterCN = "Getter";
@@ -118,6 +149,7 @@ public class AltJavaGenerator {
         multipleFiles = isMultipleFilesEnabled(proto);
 //		deferredDecode = Boolean.parseBoolean(getOption(proto.getOptions(), "deferred_decode", "false"));
         auto_clear_optional_fields = Boolean.parseBoolean(getOption(proto.getOptions(), "auto_clear_optional_fields", "false"));
+        flyweightAccessors = Boolean.parseBoolean(getOption(proto.getOptions(), "flyweight_accessors", "false"));
 
         if (multipleFiles) {
             generateProtoFile();
@@ -292,6 +324,7 @@ public class AltJavaGenerator {
         p("}");
         p();
         generateMethodParseFrom(m, bufferCN, beanCN);
+        FieldGeneratorSupport.generateMethodPatch(printer, m);
 
         // Generate the field getters
         String gettrsExtendsClause = " extends org.fusesource.hawtbuf.proto.PBMessage<" + qualified(type, beanCN) + ", " + qualified(type, bufferCN) + ">";
@@ -459,8 +492,12 @@ public class AltJavaGenerator {
         p("}");
         p();
 
+        ArrayList<FieldDescriptor> flyweightFields = flyweightFields(m);
+        if (!flyweightFields.isEmpty()) {
+            generateFlyweightOffsets(flyweightFields);
+        }
         for (FieldDescriptor field : m.getFields().values()) {
-            generateBufferGetters(field);
+            generateBufferGetters(field, flyweightFields.indexOf(field));
         }
 
         generateMethodWrite(m);
@@ -753,6 +790,18 @@ public class AltJavaGenerator {
         unindent();
         p("}");
         p();
+        p("public " + bufferClassName + " parseUnframed(java.nio.ByteBuffer data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+        indent();
+        p("return parseUnframed(org.fusesource.hawtbuf.proto.MessageBufferSupport.readRemaining(data));");
+        unindent();
+        p("}");
+        p();
+        p("public " + bufferClassName + " parseFramed(java.nio.ByteBuffer data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+        indent();
+        p("return parseUnframed(org.fusesource.hawtbuf.proto.MessageBufferSupport.readFrame(data));");
+        unindent();
+        p("}");
+        p();
 
     }
 
@@ -905,6 +954,13 @@ public class AltJavaGenerator {
                 indent();
             }
 
+            if (field.isPacked()) {
+                FieldGeneratorSupport.generatePackedSize(printer, field, "get" + uname + "List()");
+                unindent();
+                p("}");
+                continue;
+            }
+
             if (field.getRule() == FieldDescriptor.REPEATED_RULE) {
                 p("for (" + type + " i : get" + uname + "List()) {");
                 indent();
@@ -1026,6 +1082,19 @@ public class AltJavaGenerator {
         unindent();
         p("}");
         p();
+        p("public void writeFramed(java.nio.ByteBuffer output) {");
+        indent();
+        p("org.fusesource.hawtbuf.proto.MessageBufferSupport.writeFramed(this, output);");
+        unindent();
+        p("}");
+        p();
+
+        p("public void writeUnframed(java.nio.ByteBuffer output) {");
+        indent();
+        p("org.fusesource.hawtbuf.proto.MessageBufferSupport.writeUnframed(this, output);");
+        unindent();
+        p("}");
+        p();
 
         p("public void writeUnframed(org.fusesource.hawtbuf.proto.CodedOutputStream output) throws java.io.IOException {");
         indent();
@@ -1053,6 +1122,13 @@ public class AltJavaGenerator {
                 indent();
             }
 
+            if (field.isPacked()) {
+                FieldGeneratorSupport.generatePackedWrite(printer, field, "bean.get" + uname + "List()");
+                unindent();
+                p("}");
+                continue;
+            }
+
             if (field.getRule() == FieldDescriptor.REPEATED_RULE) {
                 p("for (" + type + " i : bean.get" + uname + "List()) {");
                 indent();
@@ -1155,7 +1231,9 @@ public class AltJavaGenerator {
                 p("case 0:");
                 p("   return this;");
                 p("default: {");
-
+                p("   if (!input.skipField(tag)) {");
+                p("      return this;");
+                p("   }");
                 p("   break;");
                 p("}");
 
@@ -1307,6 +1385,9 @@ public class AltJavaGenerator {
                     }
                     p("break;");
                     unindent();
+                    if (field.isPackable()) {
+                        FieldGeneratorSupport.generatePackedMergeCase(printer, field, setter);
+                    }
                 }
                 p("}");
             }
@@ -1736,10 +1817,110 @@ public class AltJavaGenerator {
 
     }
 
+    /**
+     * With the flyweight_accessors option, the singular scalar fields of a
+     * frozen message are decoded straight from its encoded form.
+     *
+     * @return the fields sorted by tag.
+     */
+    private ArrayList<FieldDescriptor> flyweightFields(MessageDescriptor m) {
+        ArrayList<FieldDescriptor> rc = new ArrayList<FieldDescriptor>();
+        if (flyweightAccessors) {
+            for (FieldDescriptor field : m.getFields().values()) {
+                if (!field.isRepeated() && field.isScalarType()) {
+                    rc.add(field);
+                }
+            }
+            java.util.Collections.sort(rc, new java.util.Comparator<FieldDescriptor>() {
+                public int compare(FieldDescriptor o1, FieldDescriptor o2) {
+                    return o1.getTag() < o2.getTag() ? -1 : (o1.getTag() == o2.getTag() ? 0 : 1);
+                }
+            });
+        }
+        return rc;
+    }
+
+    private void generateFlyweightOffsets(ArrayList<FieldDescriptor> fields) {
+        StringBuilder tags = new StringBuilder();
+        for (FieldDescriptor field : fields) {
+            if (tags.length() > 0) {
+                tags.append(", ");
+            }
+            tags.append(makeTag(field.getTag(), wireType(field)));
+        }
+        p("private static final int[] FLYWEIGHT_TAGS = new int[]{" + tags + "};");
+        p("private int[] offsets;");
+        p();
+        p("private int[] offsets() {");
+        indent();
+        p("if (offsets == null) {");
+        indent();
+        p("offsets = org.fusesource.hawtbuf.proto.MessageBufferSupport.scanFields(buffer, FLYWEIGHT_TAGS);");
+        unindent();
+        p("}");
+        p("return offsets;");
+        unindent();
+        p("}");
+        p();
+    }
+
+    private int wireType(FieldDescriptor field) {
+        String type = field.getType();
+        if (type == FieldDescriptor.STRING_TYPE || type == FieldDescriptor.BYTES_TYPE) {
+            return WIRETYPE_LENGTH_DELIMITED;
+        } else if (type == FieldDescriptor.FLOAT_TYPE || type == FieldDescriptor.FIXED32_TYPE || type == FieldDescriptor.SFIXED32_TYPE) {
+            return WIRETYPE_FIXED32;
+        } else if (type == FieldDescriptor.DOUBLE_TYPE || type == FieldDescriptor.FIXED64_TYPE || type == FieldDescriptor.SFIXED64_TYPE) {
+            return WIRETYPE_FIXED64;
+        }
+        return WIRETYPE_VARINT;
+    }
+
+    /**
+     * @return the expression decoding the field's value at offset in the buffer.
+     */
+    private String flyweightDecoder(FieldDescriptor field) {
+        String support = "org.fusesource.hawtbuf.proto.MessageBufferSupport.";
+        String type = field.getType();
+        if (type == FieldDescriptor.STRING_TYPE) {
+            return support + "readString(buffer, offset)";
+        } else if (type == FieldDescriptor.BYTES_TYPE) {
+            String override = getOption(field.getOptions(), "java_override_type", null);
+            if ("AsciiBuffer".equals(override)) {
+                return "new org.fusesource.hawtbuf.AsciiBuffer(" + support + "readBytes(buffer, offset))";
+            } else if ("UTF8Buffer".equals(override)) {
+                return "new org.fusesource.hawtbuf.UTF8Buffer(" + support + "readBytes(buffer, offset))";
+            }
+            return support + "readBytes(buffer, offset)";
+        } else if (type == FieldDescriptor.BOOL_TYPE) {
+            return support + "readRawVarint32(buffer, offset) != 0";
+        } else if (type == FieldDescriptor.INT32_TYPE || type == FieldDescriptor.UINT32_TYPE) {
+            return support + "readRawVarint32(buffer, offset)";
+        } else if (type == FieldDescriptor.INT64_TYPE || type == FieldDescriptor.UINT64_TYPE) {
+            return support + "readRawVarint64(buffer, offset)";
+        } else if (type == FieldDescriptor.SINT32_TYPE) {
+            return "org.fusesource.hawtbuf.proto.CodedInputStream.decodeZigZag32(" + support + "readRawVarint32(buffer, offset))";
+        } else if (type == FieldDescriptor.SINT64_TYPE) {
+            return "org.fusesource.hawtbuf.proto.CodedInputStream.decodeZigZag64(" + support + "readRawVarint64(buffer, offset))";
+        } else if (type == FieldDescriptor.FIXED32_TYPE || type == FieldDescriptor.SFIXED32_TYPE) {
+            return support + "readRawLittleEndian32(buffer, offset)";
+        } else if (type == FieldDescriptor.FIXED64_TYPE || type == FieldDescriptor.SFIXED64_TYPE) {
+            return support + "readRawLittleEndian64(buffer, offset)";
+        } else if (type == FieldDescriptor.FLOAT_TYPE) {
+            return "java.lang.Float.intBitsToFloat(" + support + "readRawLittleEndian32(buffer, offset))";
+        } else if (type == FieldDescriptor.DOUBLE_TYPE) {
+            return "java.lang.Double.longBitsToDouble(" + support + "readRawLittleEndian64(buffer, offset))";
+        }
+        throw new IllegalArgumentException("Not a scalar field: " + field.getName());
+    }
+
     /**
      * @param field
+     * @param flyweightSlot the index of the field's offset in the
+     *        flyweight offsets table, or -1 if it is not read from the
+     *        encoded form.
      */
-    private void generateBufferGetters(FieldDescriptor field) {
+    private void generateBufferGetters(FieldDescriptor field, int flyweightSlot) {
         String uname = uCamel(field.getName());
         String type = field.getRule() == FieldDescriptor.REPEATED_RULE ? javaCollectionType(field) : javaType(field);
         boolean repeated = field.getRule() == FieldDescriptor.REPEATED_RULE;
@@ -1772,6 +1953,36 @@ public class AltJavaGenerator {
             unindent();
             p("}");
             p();
+        } else if (flyweightSlot >= 0) {
+            // Decode from the buffer until the bean is needed for something else.
+            String typeDefault = javaTypeDefault(field);
+            p("public boolean has" + uname + "() {");
+            indent();
+            p("if (bean == null) {");
+            indent();
+            if (auto_clear_optional_fields && field.isOptional() && isPrimitive(type)) {
+                p("return offsets()[" + flyweightSlot + "] >= 0 && get" + uname + "() != " + typeDefault + ";");
+            } else {
+                p("return offsets()[" + flyweightSlot + "] >= 0;");
+            }
+            unindent();
+            p("}");
+            p("return bean().has" + uname + "();");
+            unindent();
+            p("}");
+            p();
+            p("public " + type + " get" + uname + "() {");
+            indent();
+            p("if (bean == null) {");
+            indent();
+            p("int offset = offsets()[" + flyweightSlot + "];");
+            p("return offset < 0 ? " + typeDefault + " : " + flyweightDecoder(field) + ";");
+            unindent();
+            p("}");
+            p("return bean().get" + uname + "();");
+            unindent();
+            p("}");
+            p();
         } else {
             // Create the field accessors
             p("public boolean has" + uname + "() {");
@@ -2177,6 +2388,8 @@ public class AltJavaGenerator {
             generateParseDelegate(ed, "parseFramed", "byte[]", "org.fusesource.hawtbuf.proto.InvalidProtocolBufferException");
             generateParseDelegate(ed, "parseFramed", "org.fusesource.hawtbuf.proto.CodedInputStream", "org.fusesource.hawtbuf.proto.InvalidProtocolBufferException, java.io.IOException");
             generateParseDelegate(ed, "parseFramed", "java.io.InputStream", "org.fusesource.hawtbuf.proto.InvalidProtocolBufferException, java.io.IOException");
+            generateParseDelegate(ed, "parseUnframed", "java.nio.ByteBuffer", "org.fusesource.hawtbuf.proto.InvalidProtocolBufferException");
+            generateParseDelegate(ed, "parseFramed", "java.nio.ByteBuffer", "org.fusesource.hawtbuf.proto.InvalidProtocolBufferException");
         }
 
         unindent();
@@ -2245,6 +2458,9 @@ public class AltJavaGenerator {
         }
 
         TypeDescriptor descriptor = field.getTypeDescriptor();
+        if (descriptor.isEnum()) {
+            return javaFactoryType(descriptor);
+        }
         return qualified(javaFactoryType(descriptor), getterCN);
     }
 
@@ -2289,6 +2505,9 @@ public class AltJavaGenerator {
         }
 
         TypeDescriptor descriptor = field.getTypeDescriptor();
+        if (descriptor.isEnum()) {
+            return javaFactoryType(descriptor);
+        }
         return qualified(javaFactoryType(descriptor), getterCN);
     }
 
@@ -109,6 +109,9 @@ public class FieldDescriptor {
                 errors.add("Field type not found: "+type);
             }
         }
+        if( isPacked() && !isPackable() ) {
+            errors.add("Only repeated numeric, bool and enum fields can be packed: "+name);
+        }
     }
 
     public boolean isGroup() {
@@ -188,6 +191,22 @@ public class FieldDescriptor {
         return type==STRING_TYPE;
     }
 
+    /**
+     * @return true if the field is a repeated numeric, bool or enum field
+     *         which may use the packed encoding.
+     */
+    public boolean isPackable() {
+        return isRepeated() && (isNumberType() || type==BOOL_TYPE || (typeDescriptor!=null && typeDescriptor.isEnum()));
+    }
+
+    /**
+     * @return true if the field has the <code>[packed=true]</code> option.
+     */
+    public boolean isPacked() {
+        OptionDescriptor packed = options==null ? null : options.get("packed");
+        return packed!=null && "true".equals(packed.getValue());
+    }
+
     public TypeDescriptor getTypeDescriptor() {
         return typeDescriptor;
     }
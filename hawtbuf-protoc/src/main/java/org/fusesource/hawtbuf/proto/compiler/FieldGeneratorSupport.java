@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.proto.compiler;
+
+import static org.fusesource.hawtbuf.proto.WireFormat.WIRETYPE_FIXED32;
+import static org.fusesource.hawtbuf.proto.WireFormat.WIRETYPE_FIXED64;
+import static org.fusesource.hawtbuf.proto.WireFormat.WIRETYPE_LENGTH_DELIMITED;
+import static org.fusesource.hawtbuf.proto.WireFormat.WIRETYPE_VARINT;
+import static org.fusesource.hawtbuf.proto.WireFormat.makeTag;
+
+/**
+ * Generates the field code which is the same in the {@link JavaGenerator}
+ * and the {@link AltJavaGenerator}.
+ */
+final class FieldGeneratorSupport {
+
+    /**
+     * How the generator using this class prints lines and names types.
+     */
+    interface Printer {
+        void p(String line);
+
+        void p();
+
+        void indent();
+
+        void unindent();
+
+        String javaType(FieldDescriptor field);
+
+        String uCamel(String name);
+
+        /**
+         * Opens a loop over the elements of a repeated field which binds
+         * each element to <code>i</code>.
+         */
+        void openListLoop(FieldDescriptor field, String list);
+    }
+
+    private FieldGeneratorSupport() {
+    }
+
+    /**
+     * Generates static methods which overwrite singular fixed width and
+     * varint fields in place in an encoded message.
+     */
+    static void generateMethodPatch(Printer out, MessageDescriptor m) {
+        String support = "org.fusesource.hawtbuf.proto.MessageBufferSupport.";
+        for (FieldDescriptor field : m.getFields().values()) {
+            if (field.getRule() == FieldDescriptor.REPEATED_RULE) {
+                continue;
+            }
+            String type = field.getType();
+            String call;
+            if (type == FieldDescriptor.FIXED32_TYPE || type == FieldDescriptor.SFIXED32_TYPE) {
+                call = "patchFixed32(unframed, " + makeTag(field.getTag(), WIRETYPE_FIXED32) + ", value)";
+            } else if (type == FieldDescriptor.FLOAT_TYPE) {
+                call = "patchFixed32(unframed, " + makeTag(field.getTag(), WIRETYPE_FIXED32) + ", java.lang.Float.floatToRawIntBits(value))";
+            } else if (type == FieldDescriptor.FIXED64_TYPE || type == FieldDescriptor.SFIXED64_TYPE) {
+                call = "patchFixed64(unframed, " + makeTag(field.getTag(), WIRETYPE_FIXED64) + ", value)";
+            } else if (type == FieldDescriptor.DOUBLE_TYPE) {
+                call = "patchFixed64(unframed, " + makeTag(field.getTag(), WIRETYPE_FIXED64) + ", java.lang.Double.doubleToRawLongBits(value))";
+            } else if (type == FieldDescriptor.INT32_TYPE || type == FieldDescriptor.INT64_TYPE || type == FieldDescriptor.UINT64_TYPE) {
+                call = "patchVarint(unframed, " + makeTag(field.getTag(), WIRETYPE_VARINT) + ", value)";
+            } else if (type == FieldDescriptor.UINT32_TYPE) {
+                call = "patchVarint(unframed, " + makeTag(field.getTag(), WIRETYPE_VARINT) + ", value & 0xFFFFFFFFL)";
+            } else if (type == FieldDescriptor.SINT32_TYPE) {
+                call = "patchVarint(unframed, " + makeTag(field.getTag(), WIRETYPE_VARINT) + ", org.fusesource.hawtbuf.proto.CodedOutputStream.encodeZigZag32(value) & 0xFFFFFFFFL)";
+            } else if (type == FieldDescriptor.SINT64_TYPE) {
+                call = "patchVarint(unframed, " + makeTag(field.getTag(), WIRETYPE_VARINT) + ", org.fusesource.hawtbuf.proto.CodedOutputStream.encodeZigZag64(value))";
+            } else if (type == FieldDescriptor.BOOL_TYPE) {
+                call = "patchVarint(unframed, " + makeTag(field.getTag(), WIRETYPE_VARINT) + ", value ? 1 : 0)";
+            } else {
+                continue;
+            }
+            out.p("public static boolean patch" + out.uCamel(field.getName()) + "(org.fusesource.hawtbuf.Buffer unframed, " + out.javaType(field) + " value) {");
+            out.indent();
+            out.p("return " + support + call + ";");
+            out.unindent();
+            out.p("}");
+            out.p();
+        }
+    }
+
+    /**
+     * @return the suffix of the CodedInputStream/CodedOutputStream methods
+     *         which handle the packable field's element type.
+     */
+    static String packedMethodSuffix(FieldDescriptor field) {
+        String type = field.getType();
+        if (type == FieldDescriptor.DOUBLE_TYPE) {
+            return "Double";
+        } else if (type == FieldDescriptor.FLOAT_TYPE) {
+            return "Float";
+        } else if (type == FieldDescriptor.BOOL_TYPE) {
+            return "Bool";
+        } else if (type == FieldDescriptor.INT32_TYPE) {
+            return "Int32";
+        } else if (type == FieldDescriptor.INT64_TYPE) {
+            return "Int64";
+        } else if (type == FieldDescriptor.SINT32_TYPE) {
+            return "SInt32";
+        } else if (type == FieldDescriptor.SINT64_TYPE) {
+            return "SInt64";
+        } else if (type == FieldDescriptor.UINT32_TYPE) {
+            return "UInt32";
+        } else if (type == FieldDescriptor.UINT64_TYPE) {
+            return "UInt64";
+        } else if (type == FieldDescriptor.FIXED32_TYPE) {
+            return "Fixed32";
+        } else if (type == FieldDescriptor.FIXED64_TYPE) {
+            return "Fixed64";
+        } else if (type == FieldDescriptor.SFIXED32_TYPE) {
+            return "SFixed32";
+        } else if (type == FieldDescriptor.SFIXED64_TYPE) {
+            return "SFixed64";
+        }
+        return "Enum";
+    }
+
+    /**
+     * @return the encoded size of each element of a fixed width packable
+     *         field or 0 if the elements are varints.
+     */
+    static int packedElementSize(FieldDescriptor field) {
+        String suffix = packedMethodSuffix(field);
+        if (suffix.equals("Double") || suffix.endsWith("Fixed64")) {
+            return 8;
+        } else if (suffix.equals("Float") || suffix.endsWith("Fixed32")) {
+            return 4;
+        } else if (suffix.equals("Bool")) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Generates the computation of the size of a packed field's data into
+     * <code>dataSize</code>.  It is done again when writing since the list
+     * may have been modified since the message was sized.
+     */
+    private static void generatePackedDataSize(Printer out, FieldDescriptor field, String list) {
+        String suffix = packedMethodSuffix(field);
+        String element = suffix.equals("Enum") ? "i.getNumber()" : "i";
+        int elementSize = packedElementSize(field);
+        if (elementSize > 0) {
+            out.p("int dataSize = " + elementSize + " * " + list + ".size();");
+        } else {
+            out.p("int dataSize = 0;");
+            out.p("{");
+            out.indent();
+            out.openListLoop(field, list);
+            out.p("dataSize += org.fusesource.hawtbuf.proto.CodedOutputStream.compute" + suffix + "SizeNoTag(" + element + ");");
+            out.unindent();
+            out.p("}");
+            out.unindent();
+            out.p("}");
+        }
+    }
+
+    static void generatePackedSize(Printer out, FieldDescriptor field, String list) {
+        generatePackedDataSize(out, field, list);
+        out.p("size += org.fusesource.hawtbuf.proto.CodedOutputStream.computeTagSize(" + field.getTag() + ") + org.fusesource.hawtbuf.proto.CodedOutputStream.computeRawVarint32Size(dataSize) + dataSize;");
+    }
+
+    static void generatePackedWrite(Printer out, FieldDescriptor field, String list) {
+        String suffix = packedMethodSuffix(field);
+        String element = suffix.equals("Enum") ? "i.getNumber()" : "i";
+        generatePackedDataSize(out, field, list);
+        out.p("output.writeRawVarint32(" + makeTag(field.getTag(), WIRETYPE_LENGTH_DELIMITED) + ");");
+        out.p("output.writeRawVarint32(dataSize);");
+        out.openListLoop(field, list);
+        out.p("output.write" + suffix + "NoTag(" + element + ");");
+        out.unindent();
+        out.p("}");
+    }
+
+    /**
+     * Packable fields accept the packed encoding whether or not they are
+     * packed themselves.
+     */
+    static void generatePackedMergeCase(Printer out, FieldDescriptor field, String adder) {
+        String suffix = packedMethodSuffix(field);
+        out.p("case " + makeTag(field.getTag(), WIRETYPE_LENGTH_DELIMITED) + ": {");
+        out.indent();
+        out.p("int length = input.readRawVarint32();");
+        out.p("int limit = input.pushLimit(length);");
+        out.p("while (input.getBytesUntilLimit() > 0) {");
+        out.indent();
+        if (suffix.equals("Enum")) {
+            String type = out.javaType(field);
+            out.p(type + " value = " + type + ".valueOf(input.readEnum());");
+            out.p("if( value !=null ) {");
+            out.indent();
+            out.p(adder + "(value);");
+            out.unindent();
+            out.p("}");
+        } else {
+            out.p(adder + "(input.read" + suffix + "());");
+        }
+        out.unindent();
+        out.p("}");
+        out.p("input.popLimit(limit);");
+        out.p("break;");
+        out.unindent();
+        out.p("}");
+    }
+}
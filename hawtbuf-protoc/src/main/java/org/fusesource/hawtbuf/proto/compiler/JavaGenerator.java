@@ -41,10 +41,41 @@ public class JavaGenerator {
     private String javaPackage;
     private String outerClassName;
     private PrintWriter w;
+    private final FieldGeneratorSupport.Printer printer = new FieldGeneratorSupport.Printer() {
+        public void p(String line) {
+            JavaGenerator.this.p(line);
+        }
+
+        public void p() {
+            JavaGenerator.this.p();
+        }
+
+        public void indent() {
+            JavaGenerator.this.indent();
+        }
+
+        public void unindent() {
+            JavaGenerator.this.unindent();
+        }
+
+        public String javaType(FieldDescriptor field) {
+            return JavaGenerator.this.javaType(field);
+        }
+
+        public String uCamel(String name) {
+            return JavaGenerator.uCamel(name);
+        }
+
+        public void openListLoop(FieldDescriptor field, String list) {
+            JavaGenerator.this.openListLoop(field, list);
+        }
+    };
     private int indent;
     private ArrayList<String> errors = new ArrayList<String>();
     private boolean multipleFiles;
 	private boolean deferredDecode;
+    private boolean lazyDecode;
+    private boolean primitiveLists;
     private boolean auto_clear_optional_fields;
 
     public static void main(String[] args) {
@@ -106,6 +137,8 @@ public class JavaGenerator {
 //        optimizeFor = getOption(proto.getOptions(), "optimize_for", "SPEED");
         multipleFiles = isMultipleFilesEnabled(proto);
 		deferredDecode = Boolean.parseBoolean(getOption(proto.getOptions(), "deferred_decode", "false"));
+        lazyDecode = Boolean.parseBoolean(getOption(proto.getOptions(), "lazy_decode", "false"));
+        primitiveLists = Boolean.parseBoolean(getOption(proto.getOptions(), "primitive_lists", "false"));
         auto_clear_optional_fields = Boolean.parseBoolean(getOption(proto.getOptions(), "auto_clear_optional_fields", "false"));
 		
         if( multipleFiles ) {
@@ -287,6 +320,8 @@ public class JavaGenerator {
 
         generateMethodClear(m);
 
+        generateMethodClearForReuse(m, className);
+
         p("public "+className+" clone() {");
         p("   return new "+className+"().mergeFrom(this);");
         p("}");
@@ -300,8 +335,12 @@ public class JavaGenerator {
 
         generateMethodWriteTo(m);
 
+        generateMethodWriteReverse(m);
+
         generateMethodParseFrom(m, className);
 
+        FieldGeneratorSupport.generateMethodPatch(printer, m);
+
         generateMethodToString(m);
         
         generateMethodVisitor(m);
@@ -421,6 +460,78 @@ public class JavaGenerator {
         }
     }
     
+    /**
+     * @return the element name of the primitive list class used to hold
+     *         a repeated field (for example "Int" for IntList), or null if
+     *         it is held in a java.util.List.
+     */
+    private String primitiveListElement(FieldDescriptor field) {
+        if (!primitiveLists || !field.isRepeated()) {
+            return null;
+        }
+        if (field.isInteger32Type()) {
+            return "Int";
+        } else if (field.isInteger64Type()) {
+            return "Long";
+        } else if (field.getType() == FieldDescriptor.DOUBLE_TYPE) {
+            return "Double";
+        } else if (field.getType() == FieldDescriptor.FLOAT_TYPE) {
+            return "Float";
+        } else if (field.getType() == FieldDescriptor.BOOL_TYPE) {
+            return "Boolean";
+        }
+        return null;
+    }
+
+    /**
+     * Opens a loop over a LazyMessageList and an if block which is entered
+     * when the element is still encoded.
+     */
+    private void openLazyListLoop(FieldDescriptor field, String list) {
+        p("org.fusesource.hawtbuf.proto.LazyMessageList<" + javaType(field) + "> l = " + list + ";");
+        p("for( int j=0; j < l.size(); j++ ) {");
+        indent();
+        p("org.fusesource.hawtbuf.Buffer encoded = l.getEncoded(j);");
+        p("if (encoded != null) {");
+    }
+
+    /**
+     * Opens a loop over the elements of a repeated field which binds each
+     * element to <code>i</code>.  Primitive lists are walked by index so
+     * that their elements are not boxed.
+     */
+    private void openListLoop(FieldDescriptor field, String list) {
+        String element = primitiveListElement(field);
+        if (element == null) {
+            p("for (" + javaType(field) + " i : " + list + ") {");
+            indent();
+        } else {
+            p("org.fusesource.hawtbuf.proto." + element + "List l = " + list + ";");
+            p("for( int j=0; j < l.size(); j++ ) {");
+            indent();
+            p(javaType(field) + " i = l.get" + element + "(j);");
+        }
+    }
+
+    /**
+     * Like {@link #openListLoop(FieldDescriptor, String)} but walks the
+     * elements last to first.
+     */
+    private void openReverseListLoop(FieldDescriptor field, String list) {
+        String element = primitiveListElement(field);
+        if (element == null) {
+            p("java.util.List<" + javaCollectionType(field) + "> l = " + list + ";");
+            p("for( java.util.ListIterator<" + javaCollectionType(field) + "> j = l.listIterator(l.size()); j.hasPrevious(); ) {");
+            indent();
+            p(javaType(field) + " i = j.previous();");
+        } else {
+            p("org.fusesource.hawtbuf.proto." + element + "List l = " + list + ";");
+            p("for( int j=l.size() - 1; j >= 0; j-- ) {");
+            indent();
+            p(javaType(field) + " i = l.get" + element + "(j);");
+        }
+    }
+
     private void generateMethodParseFrom(MessageDescriptor m, String className) {
     	
     	String postMergeProcessing = ".checktInitialized()";
@@ -483,6 +594,84 @@ public class JavaGenerator {
         unindent();
         p("}");
         p();
+
+        p("public static "+className+" parseUnframed(java.nio.ByteBuffer data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+        indent();
+        p("return new "+className+"().mergeUnframed(data)"+postMergeProcessing+";");
+        unindent();
+        p("}");
+        p();
+
+        p("public static "+className+" parseFramed(java.nio.ByteBuffer data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+        indent();
+        p("return new "+className+"().mergeFramed(data)"+postMergeProcessing+";");
+        unindent();
+        p("}");
+        p();
+
+        // Parse into an existing message, reusing its lists and nested messages.
+        p("public static "+className+" parseUnframedInto("+className+" message, org.fusesource.hawtbuf.proto.CodedInputStream data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException, java.io.IOException {");
+        indent();
+        p("message.clearForReuse();");
+        p("return message.mergeUnframed(data)"+postMergeProcessing+";");
+        unindent();
+        p("}");
+        p();
+
+        p("public static "+className+" parseUnframedInto("+className+" message, org.fusesource.hawtbuf.Buffer data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+        indent();
+        p("message.clearForReuse();");
+        p("return message.mergeReusingInput(data, false)"+postMergeProcessing+";");
+        unindent();
+        p("}");
+        p();
+
+        p("public static "+className+" parseFramedInto("+className+" message, org.fusesource.hawtbuf.proto.CodedInputStream data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException, java.io.IOException {");
+        indent();
+        p("message.clearForReuse();");
+        p("return message.mergeFramed(data)"+postMergeProcessing+";");
+        unindent();
+        p("}");
+        p();
+
+        p("public static "+className+" parseFramedInto("+className+" message, org.fusesource.hawtbuf.Buffer data) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+        indent();
+        p("message.clearForReuse();");
+        p("return message.mergeReusingInput(data, true)"+postMergeProcessing+";");
+        unindent();
+        p("}");
+        p();
+
+        if( !deferredDecode ) {
+            // Masked out fields are not decoded, so required fields are not checked.
+            p("public static "+className+" parseUnframed(org.fusesource.hawtbuf.proto.CodedInputStream data, org.fusesource.hawtbuf.proto.FieldMask mask) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException, java.io.IOException {");
+            indent();
+            p("return new "+className+"().mergeUnframed(data, mask);");
+            unindent();
+            p("}");
+            p();
+
+            p("public static "+className+" parseUnframed(org.fusesource.hawtbuf.Buffer data, org.fusesource.hawtbuf.proto.FieldMask mask) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+            indent();
+            p("return new "+className+"().mergeUnframed(data, mask);");
+            unindent();
+            p("}");
+            p();
+
+            p("public static "+className+" parseFramed(org.fusesource.hawtbuf.proto.CodedInputStream data, org.fusesource.hawtbuf.proto.FieldMask mask) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException, java.io.IOException {");
+            indent();
+            p("return new "+className+"().mergeFramed(data, mask);");
+            unindent();
+            p("}");
+            p();
+
+            p("public static "+className+" parseFramed(org.fusesource.hawtbuf.Buffer data, org.fusesource.hawtbuf.proto.FieldMask mask) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+            indent();
+            p("return new "+className+"().mergeFramed(data, mask);");
+            unindent();
+            p("}");
+            p();
+        }
     }
 
     private void generateMethodEquals(MessageDescriptor m, String className) {
@@ -604,9 +793,27 @@ public class JavaGenerator {
             p("if (has"+uname+"()) {");
             indent();
             
+            if( field.isPacked() ) {
+                FieldGeneratorSupport.generatePackedSize(printer, field, "get"+uname+"List()");
+                unindent();
+                p("}");
+                continue;
+            }
+            if( isLazyList(field) ) {
+                openLazyListLoop(field, "get"+uname+"List()");
+                p("   size += org.fusesource.hawtbuf.proto.CodedOutputStream.computeBytesSize("+field.getTag()+", encoded);");
+                p("} else {");
+                p("   size += computeMessageSize("+field.getTag()+", l.get(j));");
+                p("}");
+                unindent();
+                p("}");
+                unindent();
+                p("}");
+                continue;
+            }
+
             if( field.getRule() == FieldDescriptor.REPEATED_RULE ) {
-                p("for ("+type+" i : get"+uname+"List()) {");
-                indent();
+                openListLoop(field, "get"+uname+"List()");
                 getter = "i";
             }
 
@@ -644,6 +851,12 @@ public class JavaGenerator {
                 p("size += org.fusesource.hawtbuf.proto.CodedOutputStream.computeEnumSize("+field.getTag()+", "+getter+".getNumber());");
             } else if ( field.getGroup()!=null ) {
                 p("size += computeGroupSize("+field.getTag()+", "+getter+");");
+            } else if( isLazy(field) ) {
+                p("if (l_"+lCamel(field.getName())+" != null) {");
+                p("   size += org.fusesource.hawtbuf.proto.CodedOutputStream.computeBytesSize("+field.getTag()+", l_"+lCamel(field.getName())+");");
+                p("} else {");
+                p("   size += computeMessageSize("+field.getTag()+", "+getter+");");
+                p("}");
             } else {
                 p("size += computeMessageSize("+field.getTag()+", "+getter+");");
             }
@@ -656,10 +869,8 @@ public class JavaGenerator {
             p("}");
 
         }
-        // TODO: handle unknown fields
-        // size += getUnknownFields().getSerializedSize();");
-        p("memoizedSerializedSize = size;");
-        p("return size;");
+        p("size += computeUnknownFieldsSize();");
+        p("return memoizeSerializedSize(size);");
         unindent();
         p("}");
         p();
@@ -671,7 +882,6 @@ public class JavaGenerator {
     private void generateMethodWriteTo(MessageDescriptor m) {
         p("public void writeUnframed(org.fusesource.hawtbuf.proto.CodedOutputStream output) throws java.io.IOException {");
         indent();
-        
         if( deferredDecode ) {
 			p("if (encodedForm == null) {");
 			indent();
@@ -695,49 +905,32 @@ public class JavaGenerator {
             p("if (has"+uname+"()) {");
             indent();
             
+            if( field.isPacked() ) {
+                FieldGeneratorSupport.generatePackedWrite(printer, field, "get"+uname+"List()");
+                unindent();
+                p("}");
+                continue;
+            }
+            if( isLazyList(field) ) {
+                // elements which were never accessed are written as read.
+                openLazyListLoop(field, "get"+uname+"List()");
+                p("   output.writeBytes("+field.getTag()+", encoded);");
+                p("} else {");
+                p("   writeMessage(output, "+field.getTag()+", l.get(j));");
+                p("}");
+                unindent();
+                p("}");
+                unindent();
+                p("}");
+                continue;
+            }
+
             if( field.getRule() == FieldDescriptor.REPEATED_RULE ) {
-                p("for ("+type+" i : get"+uname+"List()) {");
-                indent();
+                openListLoop(field, "get"+uname+"List()");
                 getter = "i";
             }
 
-            if( field.getType()==FieldDescriptor.STRING_TYPE ) {
-                p("output.writeString("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.BYTES_TYPE ) {
-                p("output.writeBytes("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.BOOL_TYPE ) {
-                p("output.writeBool("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.DOUBLE_TYPE ) {
-                p("output.writeDouble("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.FLOAT_TYPE ) {
-                p("output.writeFloat("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.INT32_TYPE ) {
-                p("output.writeInt32("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.INT64_TYPE ) {
-                p("output.writeInt64("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.SINT32_TYPE ) {
-                p("output.writeSInt32("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.SINT64_TYPE ) {
-                p("output.writeSInt64("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.UINT32_TYPE ) {
-                p("output.writeUInt32("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.UINT64_TYPE ) {
-                p("output.writeUInt64("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.FIXED32_TYPE ) {
-                p("output.writeFixed32("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.FIXED64_TYPE ) {
-                p("output.writeFixed64("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.SFIXED32_TYPE ) {
-                p("output.writeSFixed32("+field.getTag()+", "+getter+");");
-            } else if( field.getType()==FieldDescriptor.SFIXED64_TYPE ) {
-                p("output.writeSFixed64("+field.getTag()+", "+getter+");");
-            } else if( field.getTypeDescriptor().isEnum() ) {
-                p("output.writeEnum("+field.getTag()+", "+getter+".getNumber());");
-            } else if ( field.getGroup()!=null ) {
-                p("writeGroup(output, "+field.getTag()+", "+getter+");");
-            } else {
-                p("writeMessage(output, "+field.getTag()+", "+getter+");");
-            }
+            generateFieldWrite(field, getter, "");
             
             if( field.getRule() == FieldDescriptor.REPEATED_RULE ) {
                 unindent();
@@ -747,6 +940,7 @@ public class JavaGenerator {
             unindent();
             p("}");
         }
+        p("writeUnknownFields(output);");
         
         if( deferredDecode ) {
             p("if( original !=null ) {");
@@ -769,12 +963,134 @@ public class JavaGenerator {
         p();        
     }
 
+    /**
+     * Generates writeUnframedReverse, it writes the fields last to first so
+     * that the bytes come out in the same order as writeUnframed.
+     */
+    private void generateMethodWriteReverse(MessageDescriptor m) {
+        p("public void writeUnframedReverse(org.fusesource.hawtbuf.proto.ReverseCodedOutputStream output) {");
+        indent();
+        if( deferredDecode ) {
+            p("if (encodedForm != null) {");
+            p("   output.writeRawBytes(encodedForm);");
+            p("   return;");
+            p("}");
+        }
+        p("writeUnknownFieldsReverse(output);");
+
+        ArrayList<FieldDescriptor> fields = new ArrayList<FieldDescriptor>(m.getFields().values());
+        for (int f = fields.size() - 1; f >= 0; f--) {
+            FieldDescriptor field = fields.get(f);
+            String uname = uCamel(field.getName());
+            p("if (has"+uname+"()) {");
+            indent();
+            if( field.isPacked() ) {
+                String suffix = FieldGeneratorSupport.packedMethodSuffix(field);
+                p("int end = output.size();");
+                openReverseListLoop(field, "get"+uname+"List()");
+                p("output.write" + suffix + "NoTag(" + (suffix.equals("Enum") ? "i.getNumber()" : "i") + ");");
+                unindent();
+                p("}");
+                p("output.writeRawVarint32(output.size() - end);");
+                p("output.writeRawVarint32(" + makeTag(field.getTag(), WIRETYPE_LENGTH_DELIMITED) + ");");
+            } else if( isLazyList(field) ) {
+                p("org.fusesource.hawtbuf.proto.LazyMessageList<" + javaType(field) + "> l = get"+uname+"List();");
+                p("for( int j=l.size() - 1; j >= 0; j-- ) {");
+                indent();
+                p("org.fusesource.hawtbuf.Buffer encoded = l.getEncoded(j);");
+                p("if (encoded != null) {");
+                p("   output.writeBytes("+field.getTag()+", encoded);");
+                p("} else {");
+                p("   writeMessageReverse(output, "+field.getTag()+", l.get(j));");
+                p("}");
+                unindent();
+                p("}");
+            } else if( field.isRepeated() ) {
+                openReverseListLoop(field, "get"+uname+"List()");
+                generateFieldWrite(field, "i", "Reverse");
+                unindent();
+                p("}");
+            } else {
+                generateFieldWrite(field, "get"+uname+"()", "Reverse");
+            }
+            unindent();
+            p("}");
+        }
+        unindent();
+        p("}");
+        p();
+    }
+
+    /**
+     * Generates the statement which writes one value of the field.  The
+     * forward and reverse output streams have the same field methods,
+     * only the message and group helpers have a suffix.
+     */
+    private void generateFieldWrite(FieldDescriptor field, String getter, String suffix) {
+        if( field.getType()==FieldDescriptor.STRING_TYPE ) {
+            p("output.writeString("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.BYTES_TYPE ) {
+            p("output.writeBytes("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.BOOL_TYPE ) {
+            p("output.writeBool("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.DOUBLE_TYPE ) {
+            p("output.writeDouble("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.FLOAT_TYPE ) {
+            p("output.writeFloat("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.INT32_TYPE ) {
+            p("output.writeInt32("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.INT64_TYPE ) {
+            p("output.writeInt64("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.SINT32_TYPE ) {
+            p("output.writeSInt32("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.SINT64_TYPE ) {
+            p("output.writeSInt64("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.UINT32_TYPE ) {
+            p("output.writeUInt32("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.UINT64_TYPE ) {
+            p("output.writeUInt64("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.FIXED32_TYPE ) {
+            p("output.writeFixed32("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.FIXED64_TYPE ) {
+            p("output.writeFixed64("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.SFIXED32_TYPE ) {
+            p("output.writeSFixed32("+field.getTag()+", "+getter+");");
+        } else if( field.getType()==FieldDescriptor.SFIXED64_TYPE ) {
+            p("output.writeSFixed64("+field.getTag()+", "+getter+");");
+        } else if( field.getTypeDescriptor().isEnum() ) {
+            p("output.writeEnum("+field.getTag()+", "+getter+".getNumber());");
+        } else if ( field.getGroup()!=null ) {
+            p("writeGroup"+suffix+"(output, "+field.getTag()+", "+getter+");");
+        } else if( isLazy(field) ) {
+            p("if (l_"+lCamel(field.getName())+" != null) {");
+            p("   output.writeBytes("+field.getTag()+", l_"+lCamel(field.getName())+");");
+            p("} else {");
+            p("   writeMessage"+suffix+"(output, "+field.getTag()+", "+getter+");");
+            p("}");
+        } else {
+            p("writeMessage"+suffix+"(output, "+field.getTag()+", "+getter+");");
+        }
+    }
+
     /**
      * @param m
      * @param className
      */
     private void generateMethodMergeFromStream(MessageDescriptor m, String className) {
-        p("public "+className+" mergeUnframed(org.fusesource.hawtbuf.proto.CodedInputStream input) throws java.io.IOException {");
+        // Deferred messages are decoded in full when first accessed so
+        // they do not support field masks.
+        boolean masked = !deferredDecode;
+        if( masked ) {
+            p("public "+className+" mergeUnframed(org.fusesource.hawtbuf.proto.CodedInputStream input) throws java.io.IOException {");
+            indent();
+            p("return mergeUnframed(input, null);");
+            unindent();
+            p("}");
+            p();
+            p("public "+className+" mergeUnframed(org.fusesource.hawtbuf.proto.CodedInputStream input, org.fusesource.hawtbuf.proto.FieldMask mask) throws java.io.IOException {");
+        } else {
+            p("public "+className+" mergeUnframed(org.fusesource.hawtbuf.proto.CodedInputStream input) throws java.io.IOException {");
+        }
         indent();
 		{        
 			p("while (true) {");
@@ -784,12 +1100,26 @@ public class JavaGenerator {
 				p("if ((tag & 0x07) == 4) {");
 				p("   return this;");
 				p("}");
+				if (masked) {
+					p("if (mask != null && tag != 0 && !mask.includes(tag >>> 3)) {");
+					indent();
+					p("if (!input.skipField(tag)) {");
+					p("   return this;");
+					p("}");
+					p("continue;");
+					unindent();
+					p("}");
+				}
 
 				p("switch (tag) {");
 				p("case 0:");
 				p("   return this;");
 				p("default: {");
-
+				p("   org.fusesource.hawtbuf.Buffer field = input.readRawField(tag);");
+				p("   if (field == null) {");
+				p("      return this;");
+				p("   }");
+				p("   addUnknownField(field);");
 				p("   break;");
 				p("}");
 
@@ -799,6 +1129,9 @@ public class JavaGenerator {
 					boolean repeated = field.getRule() == FieldDescriptor.REPEATED_RULE;
 					if (repeated) {
 						setter = "get" + uname + "List().add";
+						if (primitiveListElement(field) != null) {
+							setter += primitiveListElement(field);
+						}
 					}
 					if (field.getType() == FieldDescriptor.STRING_TYPE) {
 						p("case "
@@ -904,7 +1237,7 @@ public class JavaGenerator {
 						String type = javaType(field);
 						if (repeated) {
 							p(setter + "(readGroup(input, " + field.getTag()
-									+ ", new " + type + "()));");
+									+ ", " + newNested(type) + "));");
 						} else {
 							p("if (has" + uname + "()) {");
 							indent();
@@ -914,7 +1247,7 @@ public class JavaGenerator {
 							p("} else {");
 							indent();
 							p(setter + "(readGroup(input, " + field.getTag()
-									+ ",new " + type + "()));");
+									+ ", " + newNested(type) + "));");
 							unindent();
 							p("}");
 						}
@@ -925,24 +1258,52 @@ public class JavaGenerator {
 										WIRETYPE_LENGTH_DELIMITED) + ":");
 						indent();
 						String type = javaType(field);
-						if (repeated) {
-							p(setter + "(new " + type
-									+ "().mergeFramed(input));");
+						String args = "input";
+						if (masked) {
+							args = "input, mask == null ? null : mask.getNested(" + field.getTag() + ")";
+						}
+						if (repeated && isLazyList(field)) {
+							// keep the encoded form until the element is accessed.
+							p("if (mask == null || mask.getNested(" + field.getTag() + ") == null) {");
+							indent();
+							p("get" + uname + "List().addEncoded(input.readBytes());");
+							unindent();
+							p("} else {");
+							indent();
+							p(setter + "(" + newNested(type) + ".mergeFramed(" + args + "));");
+							unindent();
+							p("}");
+						} else if (repeated) {
+							p(setter + "(" + newNested(type)
+									+ ".mergeFramed(" + args + "));");
 						} else {
-							p("if (has" + uname + "()) {");
+							if (isLazy(field)) {
+								// keep the encoded form until the field is accessed.
+								p("if (!has" + uname + "() && (mask == null || mask.getNested(" + field.getTag() + ") == null)) {");
+								indent();
+								p("loadAndClear();");
+								p("l_" + lCamel(field.getName()) + " = input.readBytes();");
+								unindent();
+								p("} else if (has" + uname + "()) {");
+							} else {
+								p("if (has" + uname + "()) {");
+							}
 							indent();
-							p("get" + uname + "().mergeFramed(input);");
+							p("get" + uname + "().mergeFramed(" + args + ");");
 							unindent();
 							p("} else {");
 							indent();
-							p(setter + "(new " + type
-									+ "().mergeFramed(input));");
+							p(setter + "(" + newNested(type)
+									+ ".mergeFramed(" + args + "));");
 							unindent();
 							p("}");
 						}
 					}
 					p("break;");
 					unindent();
+					if (field.isPackable()) {
+						FieldGeneratorSupport.generatePackedMergeCase(printer, field, setter);
+					}
 				}
 				p("}");
 			}
@@ -975,7 +1336,18 @@ public class JavaGenerator {
                 
                 String type = javaType(field);
                 // It's complex type...
-                if( field.isRepeated() ) {
+                if( isLazyList(field) ) {
+                    p("org.fusesource.hawtbuf.proto.LazyMessageList<"+type+"> l = other.get"+uname+"List();");
+                    p("for( int i=0; i < l.size(); i++ ) {");
+                    indent();
+                    p("if( l.getEncoded(i) != null ) {");
+                    p("   get"+uname+"List().addEncoded(l.getEncoded(i));");
+                    p("} else {");
+                    p("   get"+uname+"List().add(l.get(i).clone());");
+                    p("}");
+                    unindent();
+                    p("}");
+                } else if( field.isRepeated() ) {
                     p("for("+type+" element: other.get"+uname+"List() ) {");
                     indent();
                         p("get"+uname+"List().add(element.clone());");
@@ -996,6 +1368,7 @@ public class JavaGenerator {
             unindent();
             p("}");
         }
+        p("mergeUnknownFields(other);");
         p("return this;");
         unindent();
         p("}");
@@ -1018,6 +1391,60 @@ public class JavaGenerator {
         p();
     }
 
+    /**
+     * @return the expression creating a nested message when parsing, taken
+     *         from the pool of its type only when this message is reused.
+     */
+    private String newNested(String type) {
+        return "(isReused() ? " + type + ".POOL.take() : new " + type + "())";
+    }
+
+    private void generateMethodClearForReuse(MessageDescriptor m, String className) {
+        p("public static final org.fusesource.hawtbuf.proto.MessagePool<"+className+"> POOL = new org.fusesource.hawtbuf.proto.MessagePool<"+className+">() {");
+        indent();
+        p("protected "+className+" create() {");
+        p("   return new "+className+"();");
+        p("}");
+        unindent();
+        p("};");
+        p();
+
+        p("public void clearForReuse() {");
+        indent();
+        p("super.clear();");
+        p("setReused();");
+        for (FieldDescriptor field : m.getFields().values()) {
+            String uname = uCamel(field.getName());
+            boolean message = !field.isScalarType() && !field.getTypeDescriptor().isEnum();
+            if( field.isRepeated() ) {
+                if( message && !isLazyList(field) ) {
+                    String type = javaType(field);
+                    p("if (has"+uname+"()) {");
+                    indent();
+                    p("for ("+type+" element : get"+uname+"List()) {");
+                    p("   "+type+".POOL.release(element, this);");
+                    p("}");
+                    unindent();
+                    p("}");
+                }
+                // the list keeps its capacity.
+                p("clear"+uname+"ForReuse();");
+            } else if( message && !isLazy(field) ) {
+                p("if (has"+uname+"()) {");
+                indent();
+                p(javaType(field)+".POOL.release(get"+uname+"(), this);");
+                p("clear"+uname+"();");
+                unindent();
+                p("}");
+            } else {
+                p("clear" + uname + "();");
+            }
+        }
+        unindent();
+        p("}");
+        p();
+    }
+
     private void generateMethodAssertInitialized(MessageDescriptor m, String className) {
         
         p("public java.util.ArrayList<String> missingFields() {");
@@ -1039,7 +1466,12 @@ public class JavaGenerator {
 	        for (FieldDescriptor field : m.getFields().values()) {
 	            if( field.getTypeDescriptor()!=null && !field.getTypeDescriptor().isEnum()) {
 	                String uname = uCamel(field.getName());
-	                p("if( has" + uname + "() ) {");
+	                if( isLazy(field) ) {
+	                    // checked when it gets decoded.
+	                    p("if( l_" + lCamel(field.getName()) + " == null && has" + uname + "() ) {");
+	                } else {
+	                    p("if( has" + uname + "() ) {");
+	                }
 	                indent();
 	                if( !field.isRepeated() ) {
 	                    p("try {");
@@ -1053,9 +1485,19 @@ public class JavaGenerator {
 	                    p("}");
 	                } else {
 	                    String type = javaCollectionType(field);
-	                    p("java.util.List<"+type+"> l = get" + uname + "List();");
+	                    if( isLazyList(field) ) {
+	                        // encoded elements are checked when decoded.
+	                        p("org.fusesource.hawtbuf.proto.LazyMessageList<"+type+"> l = get" + uname + "List();");
+	                    } else {
+	                        p("java.util.List<"+type+"> l = get" + uname + "List();");
+	                    }
 	                    p("for( int i=0; i < l.size(); i++ ) {");
 	                    indent();
+	                    if( isLazyList(field) ) {
+	                        p("if( l.getEncoded(i) != null ) {");
+	                        p("   continue;");
+	                        p("}");
+	                    }
 	                    p("try {");
 	                    indent();
 	                    p("l.get(i).assertInitialized();");
@@ -1154,7 +1596,22 @@ public class JavaGenerator {
         p("// " + field.getRule() + " " + field.getType() + " " + field.getName() + " = " + field.getTag() + ";");
         
         if( repeated ) {
-            p("private java.util.List<" + type + "> f_" + lname + ";");
+            String element = primitiveListElement(field);
+            String listType = "java.util.List<" + type + ">";
+            String newList = "own(new org.fusesource.hawtbuf.proto.ObjectList<" + type + ">())";
+            String elementType = type;
+            boolean lazyList = isLazyList(field);
+            if( element != null ) {
+                listType = "org.fusesource.hawtbuf.proto." + element + "List";
+                newList = "own(new " + listType + "())";
+                elementType = javaType(field);
+            } else if( lazyList ) {
+                listType = "org.fusesource.hawtbuf.proto.LazyMessageList<" + type + ">";
+                newList = "own(new" + uname + "List())";
+            }
+            p("private " + listType + " f_" + lname + ";");
+            // set when the list was given to setXList(), it belongs to the caller.
+            p("private boolean s_" + lname + ";");
             p();
             
             // Create the field accessors
@@ -1168,14 +1625,14 @@ public class JavaGenerator {
             p("}");
             p();
 
-            p("public java.util.List<" + type + "> get" + uname + "List() {");
+            p("public " + listType + " get" + uname + "List() {");
             indent();
             if( deferredDecode ) {
             	p("load();");
             }        
             p("if( this.f_" + lname + " == null ) {");
             indent();
-            p("this.f_" + lname + " = new java.util.ArrayList<" + type + ">();");
+            p("this.f_" + lname + " = " + newList + ";");
             unindent();
             p("}");
             p("return this.f_" + lname + ";");
@@ -1186,7 +1643,31 @@ public class JavaGenerator {
             p("public T set" + uname + "List(java.util.List<" + type + "> " + lname + ") {");
             indent();
           	p("loadAndClear();");
-            p("this.f_" + lname + " = " + lname + ";");
+            if( element != null ) {
+                p("if( " + lname + " == null || " + lname + " instanceof " + listType + " ) {");
+                p("   this.f_" + lname + " = (" + listType + ")" + lname + ";");
+                p("   this.s_" + lname + " = true;");
+                p("} else {");
+                p("   this.f_" + lname + " = own(new " + listType + "(" + lname + "));");
+                p("   this.s_" + lname + " = false;");
+                p("}");
+            } else if( lazyList ) {
+                p("if( " + lname + " == null || " + lname + " instanceof org.fusesource.hawtbuf.proto.LazyMessageList ) {");
+                p("   this.f_" + lname + " = (" + listType + ")" + lname + ";");
+                p("   this.s_" + lname + " = true;");
+                p("} else {");
+                p("   this.f_" + lname + " = " + newList + ";");
+                p("   this.f_" + lname + ".addAll(" + lname + ");");
+                p("   this.s_" + lname + " = false;");
+                p("}");
+            } else {
+                p("this.f_" + lname + " = " + lname + ";");
+                p("this.s_" + lname + " = true;");
+            }
+            // changes made to the caller's list can not be seen.
+            p("if( this.s_" + lname + " && " + lname + " != null ) {");
+            p("   untrack();");
+            p("}");
             p("return (T)this;");
             unindent();
             p("}");
@@ -1207,34 +1688,38 @@ public class JavaGenerator {
             p("}");
             p();
             
-            p("public " + type + " get" + uname + "(int index) {");
+            p("public " + elementType + " get" + uname + "(int index) {");
             indent();
             if( deferredDecode ) {
             	p("load();");
             }        
-            p("if( this.f_" + lname + " == null ) {");
-            indent();
-            p("return null;");
-            unindent();
-            p("}");
-            p("return this.f_" + lname + ".get(index);");
+            if( element != null ) {
+                p("return get" + uname + "List().get" + element + "(index);");
+            } else {
+                p("if( this.f_" + lname + " == null ) {");
+                indent();
+                p("return null;");
+                unindent();
+                p("}");
+                p("return this.f_" + lname + ".get(index);");
+            }
             unindent();
             p("}");
             p();
                             
-            p("public T set" + uname + "(int index, " + type + " value) {");
+            p("public T set" + uname + "(int index, " + elementType + " value) {");
             indent();
           	p("loadAndClear();");
-            p("get" + uname + "List().set(index, value);");
+            p("get" + uname + "List().set" + (element != null ? element : "") + "(index, value);");
             p("return (T)this;");
             unindent();
             p("}");
             p();
             
-            p("public T add" + uname + "(" + type + " value) {");
+            p("public T add" + uname + "(" + elementType + " value) {");
             indent();
           	p("loadAndClear();");
-            p("get" + uname + "List().add(value);");
+            p("get" + uname + "List().add" + (element != null ? element : "") + "(value);");
             p("return (T)this;");
             unindent();
             p("}");
@@ -1253,16 +1738,54 @@ public class JavaGenerator {
             indent();
           	p("loadAndClear();");
             p("this.f_" + lname + " = null;");
+            p("this.s_" + lname + " = false;");
             unindent();
             p("}");
             p();
 
+            // Empties the list for clearForReuse(), the caller's lists are replaced instead.
+            p("protected void clear" + uname + "ForReuse() {");
+            indent();
+            p("if( this.s_" + lname + " ) {");
+            indent();
+            p("clear" + uname + "();");
+            unindent();
+            p("} else if( this.f_" + lname + " != null ) {");
+            indent();
+            p("this.f_" + lname + ".clear();");
+            unindent();
+            p("}");
+            unindent();
+            p("}");
+            p();
+
+            if( lazyList ) {
+                p("private " + listType + " new" + uname + "List() {");
+                indent();
+                p("return new " + listType + "() {");
+                indent();
+                p("protected " + type + " decode(org.fusesource.hawtbuf.Buffer encoded) throws org.fusesource.hawtbuf.proto.InvalidProtocolBufferException {");
+                indent();
+                p("return new " + type + "().mergeUnframed(encoded).assertInitialized();");
+                unindent();
+                p("}");
+                unindent();
+                p("};");
+                unindent();
+                p("}");
+                p();
+            }
+
         } else {
             
             p("private " + type + " f_" + lname + " = "+typeDefault+";");
             if (primitive) {
                 p("private boolean b_" + lname + ";");
             }
+            boolean lazy = isLazy(field);
+            if (lazy) {
+                p("protected org.fusesource.hawtbuf.Buffer l_" + lname + ";");
+            }
             p();
             
             // Create the field accessors
@@ -1273,6 +1796,8 @@ public class JavaGenerator {
             }        
             if (primitive) {
                 p("return this.b_" + lname + ";");
+            } else if (lazy) {
+                p("return this.f_" + lname + "!=null || this.l_" + lname + "!=null;");
             } else {
                 p("return this.f_" + lname + "!=null;");
             }
@@ -1285,10 +1810,29 @@ public class JavaGenerator {
             if( deferredDecode ) {
             	p("load();");
             }        
+            if (lazy) {
+                p("if( this.l_" + lname + " != null ) {");
+                indent();
+                p("try {");
+                indent();
+                p("this.f_" + lname + " = new " + type + "().mergeUnframed(this.l_" + lname + ").assertInitialized();");
+                p("adopt(this.f_" + lname + ");");
+                unindent();
+                p("} catch (org.fusesource.hawtbuf.proto.InvalidProtocolBufferException e) {");
+                indent();
+                p("throw new RuntimeException(\"Lazy field decoding failed: \" + e.getMessage(), e);");
+                unindent();
+                p("}");
+                p("this.l_" + lname + " = null;");
+                unindent();
+                p("}");
+            }
             if( field.getTypeDescriptor()!=null && !field.getTypeDescriptor().isEnum()) {
                 p("if( this.f_" + lname + " == null ) {");
                 indent();
+                p("loadAndClear();");
                 p("this.f_" + lname + " = new " + type + "();");
+                p("adopt(this.f_" + lname + ");");
                 unindent();
                 p("}");
             }
@@ -1311,7 +1855,13 @@ public class JavaGenerator {
                     p("this.b_" + lname + " = true;");
                 }
             }
+            if (lazy) {
+                p("this.l_" + lname + " = null;");
+            }
             p("this.f_" + lname + " = " + lname + ";");
+            if( field.getTypeDescriptor()!=null && !field.getTypeDescriptor().isEnum() ) {
+                p("adopt(" + lname + ");");
+            }
             p("return (T)this;");
             unindent();
             p("}");
@@ -1323,6 +1873,9 @@ public class JavaGenerator {
             if (primitive) {
                 p("this.b_" + lname + " = false;");
             }
+            if (lazy) {
+                p("this.l_" + lname + " = null;");
+            }
             p("this.f_" + lname + " = " + typeDefault + ";");
             unindent();
             p("}");
@@ -1620,6 +2173,34 @@ public class JavaGenerator {
         w.println();
     }
 
+    /**
+     * @return true if the repeated message field is held in a LazyMessageList.
+     */
+    private boolean isLazyList(FieldDescriptor field) {
+        if( deferredDecode || !field.isRepeated() || field.getGroup()!=null ) {
+            return false;
+        }
+        if( field.getTypeDescriptor()==null || field.getTypeDescriptor().isEnum() ) {
+            return false;
+        }
+        return Boolean.parseBoolean(getOption(field.getOptions(), "lazy", lazyDecode ? "true" : "false"));
+    }
+
+    /**
+     * Singular message fields can be kept in their encoded form until they
+     * are accessed, enabled with the lazy field option or the lazy_decode
+     * file option.
+     */
+    private boolean isLazy(FieldDescriptor field) {
+        if( deferredDecode || field.isRepeated() || field.getGroup()!=null ) {
+            return false;
+        }
+        if( field.getTypeDescriptor()==null || field.getTypeDescriptor().isEnum() ) {
+            return false;
+        }
+        return Boolean.parseBoolean(getOption(field.getOptions(), "lazy", lazyDecode ? "true" : "false"));
+    }
+
     private String getOption(Map<String, OptionDescriptor> options, String optionName, String defaultValue) {
         OptionDescriptor optionDescriptor = options.get(optionName);
         if (optionDescriptor == null) {
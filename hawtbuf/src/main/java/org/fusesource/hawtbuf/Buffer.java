@@ -335,11 +335,20 @@ public class Buffer implements Comparable<Buffer> {
         int offset = this.offset;
         int length = this.length;
 
-        byte[] target = new byte[4];
-        for (int i = 0; i < length; i++) {
-            target[i % 4] ^= data[offset + i];
+        byte b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+        int i = 0;
+        for (int end = length & ~3; i < end; i += 4) {
+            b0 ^= data[offset + i];
+            b1 ^= data[offset + i + 1];
+            b2 ^= data[offset + i + 2];
+            b3 ^= data[offset + i + 3];
+        }
+        switch (length - i) {
+            case 3: b2 ^= data[offset + i + 2];
+            case 2: b1 ^= data[offset + i + 1];
+            case 1: b0 ^= data[offset + i];
         }
-        return target[0] << 24 | target[1] << 16 | target[2] << 8 | target[3];
+        return b0 << 24 | b1 << 16 | b2 << 8 | b3;
     }
 
     @Override
@@ -72,6 +72,28 @@ final public class BufferOutputStream extends OutputStream {
         checkCapacity(newPos);
         return new Buffer(buffer, pos, len);
     }
+
+    /**
+     * @return the unwritten space left in the buffer.  Bytes stored in it
+     *         become part of the stream's data once {@link #skip(int)} is called.
+     */
+    public Buffer remainingBuffer() {
+        return new Buffer(buffer, pos, limit - pos);
+    }
+
+    /**
+     * Advances the position past <code>len</code> bytes which have been
+     * stored directly into the buffer.
+     */
+    public void skip(int len) throws IOException {
+        int newPos = pos + len;
+        checkCapacity(newPos);
+        pos = newPos;
+    }
+
+    public int remaining() {
+        return limit - pos;
+    }
     
     /**
      * Ensures the the buffer has at least the minimumCapacity specified. 
@@ -89,7 +111,7 @@ final public class BufferOutputStream extends OutputStream {
     }
 
     public Buffer toBuffer() {
-        return new Buffer(buffer, offset, pos);
+        return new Buffer(buffer, offset, pos - offset);
     }
     
     public byte[] toByteArray() {
@@ -97,7 +119,7 @@ final public class BufferOutputStream extends OutputStream {
     }
     
     public int size() {
-        return offset-pos;
+        return pos-offset;
     }
     
 
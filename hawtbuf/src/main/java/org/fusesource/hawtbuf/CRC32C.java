@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf;
+
+import java.util.zip.Checksum;
+
+/**
+ * A pure java CRC-32C (Castagnoli) checksum.
+ * <p>
+ * Use {@link #newInstance()} to get a CRC-32C checksum: it returns the
+ * JDK's intrinsified <code>java.util.zip.CRC32C</code> when running on a
+ * JVM that has one and falls back to this implementation otherwise.
+ * </p>
+ */
+public final class CRC32C implements Checksum {
+
+    private static final int POLY = 0x82F63B78;
+    private static final int[][] TABLE = new int[8][256];
+    private static final Class<?> JDK_CRC32C;
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLE[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int k = 1; k < 8; k++) {
+                TABLE[k][i] = (TABLE[k - 1][i] >>> 8) ^ TABLE[0][TABLE[k - 1][i] & 0xFF];
+            }
+        }
+
+        Class<?> clazz = null;
+        try {
+            clazz = Class.forName("java.util.zip.CRC32C");
+            clazz.newInstance();
+        } catch (Throwable e) {
+            clazz = null;
+        }
+        JDK_CRC32C = clazz;
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * @return a new CRC-32C checksum, backed by the JDK implementation when available.
+     */
+    public static Checksum newInstance() {
+        if (JDK_CRC32C != null) {
+            try {
+                return (Checksum) JDK_CRC32C.newInstance();
+            } catch (Throwable e) {
+                // fall back to the pure java version.
+            }
+        }
+        return new CRC32C();
+    }
+
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xFF];
+    }
+
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3];
+        int[] t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+        int end = off + len;
+        while (end - off >= 8) {
+            c ^= (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+            c = t7[c & 0xFF] ^ t6[(c >>> 8) & 0xFF] ^ t5[(c >>> 16) & 0xFF] ^ t4[c >>> 24]
+                    ^ t3[b[off + 4] & 0xFF] ^ t2[b[off + 5] & 0xFF] ^ t1[b[off + 6] & 0xFF] ^ t0[b[off + 7] & 0xFF];
+            off += 8;
+        }
+        while (off < end) {
+            c = (c >>> 8) ^ t0[(c ^ b[off++]) & 0xFF];
+        }
+        crc = c;
+    }
+
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.zip.Checksum;
+
+/**
+ * Reads and writes checksummed frames.  A frame is encoded as:
+ * <pre>
+ * [varint payload length][payload][4 byte big-endian CRC-32C of the payload]
+ * </pre>
+ * <p>
+ * Readers bound the length prefix before allocating anything so a torn or
+ * corrupted record is reported as a {@link ProtocolException} rather than
+ * turning into a huge allocation.  An incomplete frame is reported
+ * with an {@link EOFException}.
+ * </p>
+ */
+public final class ChecksumFrameSupport {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024 * 100;
+
+    private static final ThreadLocal<Checksum> CHECKSUM = new ThreadLocal<Checksum>() {
+        protected Checksum initialValue() {
+            return CRC32C.newInstance();
+        }
+    };
+
+    private ChecksumFrameSupport() {
+    }
+
+    /**
+     * @return the CRC-32C of the buffer.
+     */
+    public static int checksum(Buffer buffer) {
+        return checksum(buffer.data, buffer.offset, buffer.length);
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        Checksum checksum = CHECKSUM.get();
+        checksum.reset();
+        checksum.update(data, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * @return the number of bytes the frame for a payload of the given size will use.
+     */
+    public static int computeFrameSize(int payloadSize) {
+        return AbstractVarIntSupport.computeVarIntSize(payloadSize) + payloadSize + 4;
+    }
+
+    public static void writeFrame(DataOutput out, Buffer payload) throws IOException {
+        int value = payload.length;
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+        out.write(payload.data, payload.offset, payload.length);
+        out.writeInt(checksum(payload));
+    }
+
+    public static Buffer toFrame(Buffer payload) throws IOException {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream(computeFrameSize(payload.length));
+        writeFrame(out, payload);
+        return out.toBuffer();
+    }
+
+    /**
+     * Reads a frame and verifies its checksum.
+     *
+     * @return a newly allocated buffer holding the payload.
+     * @throws ProtocolException if the length is invalid or the checksum does not match.
+     * @throws EOFException if the stream ends before the frame does.
+     */
+    public static Buffer readFrame(DataInput in, int maxFrameSize) throws IOException {
+        int length = readLength(in, maxFrameSize);
+        byte[] data = new byte[length];
+        in.readFully(data);
+        int expected = in.readInt();
+        if (checksum(data, 0, length) != expected) {
+            throw new ProtocolException("Frame checksum mismatch");
+        }
+        return new Buffer(data);
+    }
+
+    /**
+     * Reads a frame and verifies its checksum.  No data is copied: the
+     * returned payload is a slice of the stream's byte array.
+     *
+     * @return the payload.
+     * @throws ProtocolException if the length is invalid or the checksum does not match.
+     * @throws EOFException if the stream ends before the frame does, in which
+     *         case the stream position is left unchanged.
+     */
+    public static Buffer readFrame(DataByteArrayInputStream in, int maxFrameSize) throws IOException {
+        byte[] data = in.getRawData();
+        int start = in.getPos();
+        int end = in.getPos() + in.available();
+        int rc = scanFrame(data, start, end, maxFrameSize);
+        if (rc < 0) {
+            if (rc == TRUNCATED) {
+                throw new EOFException();
+            }
+            throw new ProtocolException(rc == BAD_LENGTH ? "Invalid frame length" : "Frame checksum mismatch");
+        }
+        // skip over the already validated length prefix.
+        int payloadOffset = start;
+        while (data[payloadOffset++] < 0) {
+        }
+        in.setPos(rc);
+        return new Buffer(data, payloadOffset, rc - 4 - payloadOffset);
+    }
+
+    /**
+     * Validates a batch of consecutive frames.  Use this to find where the
+     * intact records of a journal end.
+     *
+     * @return the number of bytes at the start of the buffer that are made
+     *         of complete frames with valid lengths and checksums.
+     */
+    public static int validateFrames(Buffer frames, int maxFrameSize) {
+        byte[] data = frames.data;
+        int pos = frames.offset;
+        int end = frames.offset + frames.length;
+        while (pos < end) {
+            int next = scanFrame(data, pos, end, maxFrameSize);
+            if (next < 0) {
+                break;
+            }
+            pos = next;
+        }
+        return pos - frames.offset;
+    }
+
+    private static final int TRUNCATED = -1;
+    private static final int BAD_LENGTH = -2;
+    private static final int BAD_CHECKSUM = -3;
+
+    /**
+     * @return the offset just past the frame starting at <code>pos</code>, or
+     *         one of the negative error codes.
+     */
+    private static int scanFrame(byte[] data, int pos, int end, int maxFrameSize) {
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            if (pos >= end) {
+                return TRUNCATED;
+            }
+            byte b = data[pos++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 28) {
+                return BAD_LENGTH;
+            }
+        }
+        if (length < 0 || length > maxFrameSize) {
+            return BAD_LENGTH;
+        }
+        if (end - pos < length + 4) {
+            return TRUNCATED;
+        }
+        int expected = ((data[pos + length] & 0xFF) << 24)
+                | ((data[pos + length + 1] & 0xFF) << 16)
+                | ((data[pos + length + 2] & 0xFF) << 8)
+                | (data[pos + length + 3] & 0xFF);
+        if (checksum(data, pos, length) != expected) {
+            return BAD_CHECKSUM;
+        }
+        return pos + length + 4;
+    }
+
+    private static int readLength(DataInput in, int maxFrameSize) throws IOException {
+        int length = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.readByte();
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new ProtocolException("Invalid frame length");
+            }
+        }
+        if (length < 0 || length > maxFrameSize) {
+            throw new ProtocolException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * A queue of encoded frames which coalesces them into gathering writes.
+ * Any number of threads can {@link #offer} buffers without locking while a
+ * single flushing thread calls {@link #flush} to hand as many of them as
+ * the caps allow to one {@link GatheringByteChannel#write(ByteBuffer[], int, int)}
+ * call.  Buffers the channel did not fully accept are written first on the
+ * next flush.
+ * </p>
+ * <p>
+ * Offered buffers are written from where they are, so they must not be
+ * modified once offered.  The metrics are maintained by the flushing
+ * thread.
+ * </p>
+ */
+public class CoalescingWriteQueue {
+
+    public static final int DEFAULT_MAX_BATCH_COUNT = 64;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+
+    private static final class Node {
+        Buffer buffer;
+        final long enqueued;
+        volatile Node next;
+
+        Node(Buffer buffer, long enqueued) {
+            this.buffer = buffer;
+            this.enqueued = enqueued;
+        }
+    }
+
+    private final int maxBatchCount;
+    private final int maxBatchBytes;
+
+    // producers swap themselves in at the tail, the consumer owns head
+    // which is always the last node it took.
+    private final AtomicReference<Node> tail;
+    private Node head;
+
+    // the batch being written, batch[batchIndex] is the next one to write.
+    private final ByteBuffer[] batch;
+    private final long[] enqueued;
+    private int batchIndex;
+    private int batchCount;
+    private long batchBytes;
+
+    private volatile long writeCount;
+    private volatile long bufferCount;
+    private volatile long byteCount;
+    private volatile long totalLatency;
+    private volatile long maxLatency;
+
+    public CoalescingWriteQueue() {
+        this(DEFAULT_MAX_BATCH_COUNT, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    /**
+     * @param maxBatchCount the most buffers handed to a single write.
+     * @param maxBatchBytes no more buffers are added to a write once it holds
+     *        this many bytes.
+     */
+    public CoalescingWriteQueue(int maxBatchCount, int maxBatchBytes) {
+        if (maxBatchCount <= 0) {
+            throw new IllegalArgumentException("Invalid max batch count: " + maxBatchCount);
+        }
+        if (maxBatchBytes <= 0) {
+            throw new IllegalArgumentException("Invalid max batch bytes: " + maxBatchBytes);
+        }
+        this.maxBatchCount = maxBatchCount;
+        this.maxBatchBytes = maxBatchBytes;
+        this.batch = new ByteBuffer[maxBatchCount];
+        this.enqueued = new long[maxBatchCount];
+        this.head = new Node(null, 0);
+        this.tail = new AtomicReference<Node>(head);
+    }
+
+    /**
+     * Queues a buffer to be written.  Safe to call from any thread.  Empty
+     * buffers are dropped when the batch is filled.
+     */
+    public void offer(Buffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer cannot be null");
+        }
+        Node node = new Node(buffer, System.nanoTime());
+        Node previous = tail.getAndSet(node);
+        previous.next = node;
+    }
+
+    /**
+     * Must only be called from the flushing thread.  A buffer which is
+     * still being offered may not be visible yet.
+     *
+     * @return true if there is nothing left to write.
+     */
+    public boolean isEmpty() {
+        return batchIndex == batchCount && head.next == null;
+    }
+
+    /**
+     * Writes the buffers left over from the last flush followed by newly
+     * queued ones with a single gathering write.  Must only be called from
+     * one thread at a time.
+     *
+     * @return the number of bytes written.
+     */
+    public long flush(GatheringByteChannel channel) throws IOException {
+        fill();
+        if (batchIndex == batchCount) {
+            return 0;
+        }
+        long count = channel.write(batch, batchIndex, batchCount - batchIndex);
+        if (count <= 0) {
+            return count;
+        }
+        batchBytes -= count;
+
+        long now = System.nanoTime();
+        int done = 0;
+        while (batchIndex < batchCount && !batch[batchIndex].hasRemaining()) {
+            long latency = now - enqueued[batchIndex];
+            totalLatency += latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+            batch[batchIndex++] = null;
+            done++;
+        }
+        writeCount++;
+        bufferCount += done;
+        byteCount += count;
+        return count;
+    }
+
+    private void fill() {
+        if (batchIndex == batchCount) {
+            batchIndex = batchCount = 0;
+        } else if (batchIndex > 0) {
+            // move the left overs to the front.
+            int remaining = batchCount - batchIndex;
+            System.arraycopy(batch, batchIndex, batch, 0, remaining);
+            System.arraycopy(enqueued, batchIndex, enqueued, 0, remaining);
+            for (int i = remaining; i < batchCount; i++) {
+                batch[i] = null;
+            }
+            batchIndex = 0;
+            batchCount = remaining;
+        }
+        while (batchCount < maxBatchCount && batchBytes < maxBatchBytes) {
+            Node next = head.next;
+            if (next == null) {
+                break;
+            }
+            Buffer buffer = next.buffer;
+            next.buffer = null;
+            head = next;
+            if (buffer.length == 0) {
+                // nothing to write, and the channel would never complete it.
+                continue;
+            }
+            batch[batchCount] = ByteBuffer.wrap(buffer.data, buffer.offset, buffer.length);
+            enqueued[batchCount] = next.enqueued;
+            batchCount++;
+            batchBytes += buffer.length;
+        }
+    }
+
+    /**
+     * @return the number of writes issued.
+     */
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * @return the number of buffers fully written.
+     */
+    public long getBufferCount() {
+        return bufferCount;
+    }
+
+    /**
+     * @return the number of bytes written.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return the average number of buffers completed per write.
+     */
+    public double getAverageBatchSize() {
+        long writes = writeCount;
+        return writes == 0 ? 0 : (double) bufferCount / writes;
+    }
+
+    /**
+     * @return the average time in nanoseconds from a buffer being offered
+     *         to it being fully written.
+     */
+    public long getAverageLatency() {
+        long buffers = bufferCount;
+        return buffers == 0 ? 0 : totalLatency / buffers;
+    }
+
+    /**
+     * @return the longest time in nanoseconds from a buffer being offered
+     *         to it being fully written.
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public int getMaxBatchCount() {
+        return maxBatchCount;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+}
@@ -29,6 +29,34 @@ import java.io.UTFDataFormatException;
  */
 public class DataByteArrayOutputStream extends OutputStream implements DataOutput {
     private static final int DEFAULT_SIZE = 2048;
+
+    /**
+     * The formats of the length slots reserved by
+     * {@link DataByteArrayOutputStream#reserveLength(LengthPrefix)}.
+     */
+    public enum LengthPrefix {
+        /**
+         * A 4 byte int as written by {@link DataByteArrayOutputStream#writeInt(int)}.
+         */
+        INT(4),
+        /**
+         * A varint padded to 5 bytes so that the data never has to move.
+         * It decodes like any other varint.
+         */
+        PADDED_VARINT(5),
+        /**
+         * The shortest varint.  The data is shifted down over the unused
+         * bytes of the slot once its length is known.
+         */
+        VARINT(5);
+
+        private final int size;
+
+        private LengthPrefix(int size) {
+            this.size = size;
+        }
+    }
+
     protected byte buf[];
     protected int pos;
 
@@ -304,6 +332,64 @@ public class DataByteArrayOutputStream extends OutputStream implements DataOutpu
     protected void onWrite() throws IOException {
     }
 
+    /**
+     * Reserves a slot for the length of the data about to be written so
+     * that it does not have to be sized up front.  Once the data has been
+     * written pass the returned mark to {@link #patchLength(int, LengthPrefix)}.
+     * Slots can be nested.
+     *
+     * @return the mark of the slot, its position.
+     */
+    public int reserveLength(LengthPrefix prefix) throws IOException {
+        int mark = pos;
+        skip(prefix.size);
+        return mark;
+    }
+
+    /**
+     * Fills in the length slot reserved at <code>mark</code> with the
+     * number of bytes between the slot and the current position.  With
+     * {@link LengthPrefix#VARINT} the data is moved down, so the position
+     * and any positions recorded within the data move back as well.
+     *
+     * @return the length of the data.
+     */
+    public int patchLength(int mark, LengthPrefix prefix) {
+        int start = mark + prefix.size;
+        int length = pos - start;
+        if (mark < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid mark: " + mark);
+        }
+        switch (prefix) {
+            case INT:
+                buf[mark] = (byte)(length >>> 24);
+                buf[mark + 1] = (byte)(length >>> 16);
+                buf[mark + 2] = (byte)(length >>> 8);
+                buf[mark + 3] = (byte)(length >>> 0);
+                break;
+            case PADDED_VARINT:
+                for (int i = 0; i < 4; i++) {
+                    buf[mark + i] = (byte)(((length >>> (i * 7)) & 0x7F) | 0x80);
+                }
+                buf[mark + 4] = (byte)(length >>> 28);
+                break;
+            default: {
+                int p = mark;
+                int value = length;
+                while ((value & ~0x7F) != 0) {
+                    buf[p++] = (byte)((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                buf[p++] = (byte)value;
+                if (p < start) {
+                    System.arraycopy(buf, start, buf, p, length);
+                    pos -= start - p;
+                }
+            }
+        }
+        return length;
+    }
+
     public void skip(int size) throws IOException {
         ensureEnoughBuffer(pos + size);
         pos+=size;
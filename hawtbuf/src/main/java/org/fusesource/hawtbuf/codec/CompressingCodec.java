@@ -0,0 +1,378 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+
+/**
+ * A Codec which wraps another codec and compresses the values it encodes
+ * once their encoded size reaches a threshold.  Smaller values are stored
+ * as is, so small values do not pay the compression cost.
+ * <p>
+ * Every value starts with a one byte header identifying how it was stored.
+ * Stored values follow it as the wrapped codec encoded them, compressed
+ * values follow it with their uncompressed and compressed lengths, as
+ * varints, and the compressed data.  A value which does not shrink when
+ * compressed is stored as is.
+ * </p>
+ * <p>
+ * The compressor state and scratch buffers are kept per thread, shared by
+ * all the codecs, and reused so that encoding and decoding do not allocate
+ * per value.  Buffers grown past {@link #MAX_RETAINED_SIZE} for a large
+ * value are dropped after use.
+ * </p>
+ */
+public class CompressingCodec<T> extends VariableCodec<T> {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int DEFAULT_MAX_LENGTH = 1024 * 1024 * 100;
+    public static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    public enum Algorithm {
+        /**
+         * zlib deflate: slower but gives the best compression.
+         */
+        DEFLATE,
+        /**
+         * A pure java LZ4 block compressor: very fast with modest compression.
+         */
+        LZ4
+    }
+
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+    private static final byte LZ4_COMPRESSED = 2;
+
+    private final Codec<T> codec;
+    private final int threshold;
+    private final Algorithm algorithm;
+    private final int level;
+    private final int maxLength;
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    public CompressingCodec(Codec<T> codec) {
+        this(codec, DEFAULT_THRESHOLD, Algorithm.LZ4);
+    }
+
+    public CompressingCodec(Codec<T> codec, int threshold, Algorithm algorithm) {
+        this(codec, threshold, algorithm, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param codec the codec used to encode the values
+     * @param threshold values which encode to fewer bytes than this are not compressed
+     * @param algorithm the compression algorithm to use
+     * @param level the deflate compression level, only used with {@link Algorithm#DEFLATE}
+     */
+    public CompressingCodec(Codec<T> codec, int threshold, Algorithm algorithm, int level) {
+        this(codec, threshold, algorithm, level, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param codec the codec used to encode the values
+     * @param threshold values which encode to fewer bytes than this are not compressed
+     * @param algorithm the compression algorithm to use
+     * @param level the deflate compression level, only used with {@link Algorithm#DEFLATE}
+     * @param maxLength decoding fails for compressed values claiming to be longer than this
+     */
+    public CompressingCodec(Codec<T> codec, int threshold, Algorithm algorithm, int level, int maxLength) {
+        if (codec == null || algorithm == null) {
+            throw new IllegalArgumentException("codec and algorithm must be set");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("Invalid max length: " + maxLength);
+        }
+        this.codec = codec;
+        this.threshold = threshold;
+        this.algorithm = algorithm;
+        this.level = level;
+        this.maxLength = maxLength;
+    }
+
+    public Codec<T> getCodec() {
+        return codec;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public void encode(T value, DataOutput dataOut) throws IOException {
+        State s = acquire();
+        try {
+            s.raw.reset();
+            codec.encode(value, s.raw);
+            byte[] raw = s.raw.getData();
+            int length = s.raw.size();
+
+            if (length >= threshold && length > 0) {
+                int compressed;
+                byte header;
+                if (algorithm == Algorithm.LZ4) {
+                    header = LZ4_COMPRESSED;
+                    byte[] scratch = s.scratch(LZ4Support.maxCompressedLength(length));
+                    compressed = LZ4Support.compress(raw, 0, length, scratch, 0, length - 1, s.hashTable());
+                } else {
+                    header = DEFLATED;
+                    compressed = deflate(s, raw, length);
+                }
+                if (compressed > 0) {
+                    dataOut.writeByte(header);
+                    writeVarInt(dataOut, length);
+                    writeVarInt(dataOut, compressed);
+                    dataOut.write(s.scratch, 0, compressed);
+                    return;
+                }
+            }
+
+            dataOut.writeByte(STORED);
+            dataOut.write(raw, 0, length);
+        } finally {
+            release(s);
+        }
+    }
+
+    public T decode(DataInput dataIn) throws IOException {
+        byte header = dataIn.readByte();
+        if (header == STORED) {
+            return codec.decode(dataIn);
+        }
+        if (header != DEFLATED && header != LZ4_COMPRESSED) {
+            throw new IOException("Invalid compression header: " + header);
+        }
+        int length = readVarInt(dataIn);
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid encoded length: " + length);
+        }
+        int compressed = readVarInt(dataIn);
+        if (compressed < 0 || compressed > LZ4Support.maxCompressedLength(length)) {
+            throw new IOException("Invalid compressed length: " + compressed);
+        }
+        State s = acquire();
+        try {
+            byte[] source = s.scratch(compressed);
+            dataIn.readFully(source, 0, compressed);
+            byte[] target = s.target(length);
+            if (header == LZ4_COMPRESSED) {
+                LZ4Support.decompress(source, 0, compressed, target, 0, length);
+            } else {
+                inflate(s, source, compressed, target, length);
+            }
+            s.in.restart(target);
+            s.in.setLength(length);
+            return codec.decode(s.in);
+        } finally {
+            release(s);
+        }
+    }
+
+    @Override
+    public boolean isDeepCopySupported() {
+        return codec.isDeepCopySupported();
+    }
+
+    @Override
+    public T deepCopy(T source) {
+        return codec.deepCopy(source);
+    }
+
+    @Override
+    public boolean isEstimatedSizeSupported() {
+        return codec.isEstimatedSizeSupported();
+    }
+
+    /**
+     * @return the size of the value if it were stored uncompressed.
+     */
+    @Override
+    public int estimatedSize(T object) {
+        return codec.estimatedSize(object) + 1;
+    }
+
+    private static void writeVarInt(DataOutput dataOut, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            dataOut.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dataOut.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput dataIn) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = dataIn.readByte();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint length");
+    }
+
+    private int deflate(State s, byte[] raw, int length) {
+        Deflater deflater = s.deflater;
+        if (deflater == null) {
+            deflater = s.deflater = new Deflater(level);
+        }
+        deflater.reset();
+        // the deflater is shared by the codecs of the thread.
+        deflater.setLevel(level);
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+
+        // It has to beat the uncompressed size to be worth it.
+        byte[] scratch = s.scratch(length);
+        int pos = 0;
+        while (!deflater.finished() && pos < length) {
+            pos += deflater.deflate(scratch, pos, length - pos);
+        }
+        return deflater.finished() && pos < length ? pos : -1;
+    }
+
+    private void inflate(State s, byte[] source, int compressed, byte[] target, int length) throws IOException {
+        Inflater inflater = s.inflater;
+        if (inflater == null) {
+            inflater = s.inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput(source, 0, compressed);
+        try {
+            int pos = 0;
+            while (pos < length) {
+                int count = inflater.inflate(target, pos, length - pos);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                pos += count;
+            }
+            if (pos != length || !inflater.finished()) {
+                throw new IOException("Corrupt deflate compressed data");
+            }
+        } catch (DataFormatException e) {
+            IOException ioe = new IOException("Corrupt deflate compressed data: " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    private static State acquire() {
+        State s = STATE.get();
+        if (s.inUse) {
+            // We are nested inside another encode/decode on this thread.
+            s = new State();
+            s.temporary = true;
+        }
+        s.inUse = true;
+        return s;
+    }
+
+    private static void release(State s) {
+        if (s.temporary) {
+            s.end();
+            return;
+        }
+        s.trim();
+        s.inUse = false;
+    }
+
+    /**
+     * The per thread reusable buffers and compressors.
+     */
+    private static final class State {
+        static final byte[] EMPTY = new byte[0];
+
+        final DataByteArrayOutputStream raw = new DataByteArrayOutputStream();
+        final DataByteArrayInputStream in = new DataByteArrayInputStream();
+        byte[] scratch = EMPTY;
+        byte[] target = EMPTY;
+        int[] hashTable;
+        Deflater deflater;
+        Inflater inflater;
+        boolean inUse;
+        // set for the states of nested calls, which are not kept.
+        boolean temporary;
+
+        byte[] scratch(int size) {
+            if (scratch.length < size) {
+                scratch = new byte[size];
+            }
+            return scratch;
+        }
+
+        byte[] target(int size) {
+            if (target.length < size) {
+                target = new byte[size];
+            }
+            return target;
+        }
+
+        // don't hold on to the buffers a large value needed.
+        void trim() {
+            if (raw.getData().length > MAX_RETAINED_SIZE) {
+                raw.restart();
+            }
+            if (scratch.length > MAX_RETAINED_SIZE) {
+                scratch = EMPTY;
+            }
+            if (target.length > MAX_RETAINED_SIZE) {
+                target = EMPTY;
+            }
+            in.restart(EMPTY);
+        }
+
+        // frees the native memory of the compressors.
+        void end() {
+            if (deflater != null) {
+                deflater.end();
+            }
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+
+        int[] hashTable() {
+            if (hashTable == null) {
+                hashTable = new int[LZ4Support.HASH_TABLE_SIZE];
+            }
+            return hashTable;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pure java block compressor which produces the LZ4 block format.
+ * It trades compression ratio for speed: a single hash probe per
+ * position and no entropy coding.
+ */
+final class LZ4Support {
+
+    static final int HASH_LOG = 12;
+    static final int HASH_TABLE_SIZE = 1 << HASH_LOG;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MIN_LENGTH = MF_LIMIT + 1;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int SKIP_STRENGTH = 6;
+    private static final int ML_MASK = 0x0F;
+    private static final int RUN_MASK = 0x0F;
+
+    private LZ4Support() {
+    }
+
+    /**
+     * @return the size of the scratch array that {@link #compress} may write into
+     *         when compressing <code>length</code> bytes.
+     */
+    static int maxCompressedLength(int length) {
+        return length + (length / 255) + 16;
+    }
+
+    /**
+     * Compresses <code>src</code> into <code>dest</code>.
+     *
+     * @param hashTable a scratch table of {@link #HASH_TABLE_SIZE} entries
+     * @param limit the maximum number of bytes the compressed form may use.
+     *        <code>dest</code> must be at least {@link #maxCompressedLength}
+     *        bytes long.
+     * @return the compressed length or -1 if it would exceed <code>limit</code>.
+     */
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int limit, int[] hashTable) {
+        final int srcEnd = srcOff + srcLen;
+        final int destEnd = destOff + limit;
+        int sOff = srcOff;
+        int dOff = destOff;
+        int anchor = sOff;
+
+        if (srcLen >= MIN_LENGTH) {
+            final int mfLimit = srcEnd - MF_LIMIT;
+            final int matchLimit = srcEnd - LAST_LITERALS;
+            Arrays.fill(hashTable, srcOff);
+            sOff++;
+
+            main:
+            while (true) {
+                // find a match
+                int forwardOff = sOff;
+                int ref;
+                int step = 1;
+                int searchMatchCount = 1 << SKIP_STRENGTH;
+                do {
+                    sOff = forwardOff;
+                    forwardOff += step;
+                    step = searchMatchCount++ >>> SKIP_STRENGTH;
+                    if (forwardOff > mfLimit) {
+                        break main;
+                    }
+                    int h = hash(readInt(src, sOff));
+                    ref = hashTable[h];
+                    hashTable[h] = sOff;
+                } while (ref + MAX_DISTANCE < sOff || readInt(src, ref) != readInt(src, sOff));
+
+                // catch up
+                while (sOff > anchor && ref > srcOff && src[sOff - 1] == src[ref - 1]) {
+                    sOff--;
+                    ref--;
+                }
+
+                // encode the literal run
+                int runLen = sOff - anchor;
+                int tokenOff = dOff++;
+                if (dOff + runLen + (2 + 1 + LAST_LITERALS) + (runLen >>> 8) > destEnd) {
+                    return -1;
+                }
+                if (runLen >= RUN_MASK) {
+                    dest[tokenOff] = (byte) (RUN_MASK << 4);
+                    dOff = writeLength(runLen - RUN_MASK, dest, dOff);
+                } else {
+                    dest[tokenOff] = (byte) (runLen << 4);
+                }
+                System.arraycopy(src, anchor, dest, dOff, runLen);
+                dOff += runLen;
+
+                while (true) {
+                    // encode the offset
+                    int distance = sOff - ref;
+                    dest[dOff++] = (byte) distance;
+                    dest[dOff++] = (byte) (distance >>> 8);
+
+                    // count the matching bytes
+                    sOff += MIN_MATCH;
+                    ref += MIN_MATCH;
+                    int matchLen = 0;
+                    while (sOff + matchLen < matchLimit && src[ref + matchLen] == src[sOff + matchLen]) {
+                        matchLen++;
+                    }
+                    if (dOff + (1 + LAST_LITERALS) + (matchLen >>> 8) > destEnd) {
+                        return -1;
+                    }
+                    sOff += matchLen;
+
+                    // encode the match length
+                    if (matchLen >= ML_MASK) {
+                        dest[tokenOff] |= ML_MASK;
+                        dOff = writeLength(matchLen - ML_MASK, dest, dOff);
+                    } else {
+                        dest[tokenOff] |= matchLen;
+                    }
+
+                    if (sOff > mfLimit) {
+                        anchor = sOff;
+                        break main;
+                    }
+
+                    hashTable[hash(readInt(src, sOff - 2))] = sOff - 2;
+
+                    // is the next position a match too?
+                    int h = hash(readInt(src, sOff));
+                    ref = hashTable[h];
+                    hashTable[h] = sOff;
+                    if (ref + MAX_DISTANCE < sOff || readInt(src, ref) != readInt(src, sOff)) {
+                        break;
+                    }
+                    tokenOff = dOff++;
+                    dest[tokenOff] = 0;
+                }
+                anchor = sOff++;
+            }
+        }
+
+        // the trailing literals
+        int runLen = srcEnd - anchor;
+        if (dOff + runLen + 1 + ((runLen + 255 - RUN_MASK) / 255) > destEnd) {
+            return -1;
+        }
+        if (runLen >= RUN_MASK) {
+            dest[dOff++] = (byte) (RUN_MASK << 4);
+            dOff = writeLength(runLen - RUN_MASK, dest, dOff);
+        } else {
+            dest[dOff++] = (byte) (runLen << 4);
+        }
+        System.arraycopy(src, anchor, dest, dOff, runLen);
+        dOff += runLen;
+        return dOff - destOff;
+    }
+
+    /**
+     * Decompresses <code>src</code> into <code>dest</code>, which must
+     * have room for exactly <code>destLen</code> bytes.
+     *
+     * @throws IOException if the compressed data is corrupt.
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int destLen) throws IOException {
+        final int srcEnd = srcOff + srcLen;
+        final int destEnd = destOff + destLen;
+        int sOff = srcOff;
+        int dOff = destOff;
+
+        while (true) {
+            if (sOff >= srcEnd) {
+                throw corrupt();
+            }
+            int token = src[sOff++] & 0xFF;
+
+            // copy the literal run
+            int litLen = token >>> 4;
+            if (litLen == RUN_MASK) {
+                int b;
+                do {
+                    if (sOff >= srcEnd || litLen > destLen) {
+                        throw corrupt();
+                    }
+                    b = src[sOff++] & 0xFF;
+                    litLen += b;
+                } while (b == 0xFF);
+            }
+            if (litLen > srcEnd - sOff || litLen > destEnd - dOff) {
+                throw corrupt();
+            }
+            System.arraycopy(src, sOff, dest, dOff, litLen);
+            sOff += litLen;
+            dOff += litLen;
+
+            if (sOff == srcEnd) {
+                break;
+            }
+
+            // copy the match
+            if (srcEnd - sOff < 2) {
+                throw corrupt();
+            }
+            int distance = (src[sOff] & 0xFF) | ((src[sOff + 1] & 0xFF) << 8);
+            sOff += 2;
+            int matchOff = dOff - distance;
+            if (distance == 0 || matchOff < destOff) {
+                throw corrupt();
+            }
+            int matchLen = token & ML_MASK;
+            if (matchLen == ML_MASK) {
+                int b;
+                do {
+                    if (sOff >= srcEnd || matchLen > destLen) {
+                        throw corrupt();
+                    }
+                    b = src[sOff++] & 0xFF;
+                    matchLen += b;
+                } while (b == 0xFF);
+            }
+            matchLen += MIN_MATCH;
+            if (matchLen > destEnd - dOff) {
+                throw corrupt();
+            }
+            if (distance >= matchLen) {
+                System.arraycopy(dest, matchOff, dest, dOff, matchLen);
+            } else {
+                // overlapping copy, must go byte by byte.
+                for (int i = 0; i < matchLen; i++) {
+                    dest[dOff + i] = dest[matchOff + i];
+                }
+            }
+            dOff += matchLen;
+        }
+
+        if (dOff != destEnd) {
+            throw corrupt();
+        }
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt LZ4 compressed data");
+    }
+
+    private static int hash(int i) {
+        return (i * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24)
+                | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
+
+    private static int writeLength(int length, byte[] dest, int dOff) {
+        while (length >= 0xFF) {
+            dest[dOff++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        dest[dOff++] = (byte) length;
+        return dOff;
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how many bytes an operation allocates on the heap using the
+ * per thread allocation counter of the HotSpot <code>ThreadMXBean</code>.
+ * <p>
+ * Each operation is run in batches, the first batches let the JIT
+ * settle, and the smallest per operation figure seen is reported after
+ * subtracting the cost of reading the counter.  Tests using it are skipped
+ * on JVMs which cannot count allocations.
+ * </p>
+ */
+public class AllocationMeter {
+
+    public static final int BATCH_SIZE = 1000;
+    private static final int ROUNDS = 30;
+
+    private static final com.sun.management.ThreadMXBean MX_BEAN;
+    static {
+        com.sun.management.ThreadMXBean bean = null;
+        try {
+            java.lang.management.ThreadMXBean b = ManagementFactory.getThreadMXBean();
+            if (b instanceof com.sun.management.ThreadMXBean) {
+                bean = (com.sun.management.ThreadMXBean) b;
+                if (bean.isThreadAllocatedMemorySupported()) {
+                    bean.setThreadAllocatedMemoryEnabled(true);
+                } else {
+                    bean = null;
+                }
+            }
+        } catch (Throwable e) {
+            bean = null;
+        }
+        MX_BEAN = bean;
+    }
+
+    /**
+     * An operation to measure.  {@link #prepare()} is called before every
+     * batch of {@link AllocationMeter#BATCH_SIZE} {@link #run()} calls and what
+     * it allocates is not counted.
+     */
+    public static abstract class Operation {
+        public void prepare() throws Exception {
+        }
+
+        public abstract void run() throws Exception;
+    }
+
+    /**
+     * Somewhere for operations to store their results so that the JIT
+     * cannot optimize them away.
+     */
+    public static volatile Object sink;
+
+    public static boolean isSupported() {
+        return MX_BEAN != null;
+    }
+
+    /**
+     * @return the number of bytes allocated per call to {@link Operation#run()}.
+     */
+    public static long measure(Operation op) throws Exception {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("This JVM cannot count allocated bytes");
+        }
+        long id = Thread.currentThread().getId();
+        long rc = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            op.prepare();
+            // reading the counter twice tells us what reading it costs.
+            long before = MX_BEAN.getThreadAllocatedBytes(id);
+            long start = MX_BEAN.getThreadAllocatedBytes(id);
+            long overhead = start - before;
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                op.run();
+            }
+            long allocated = MX_BEAN.getThreadAllocatedBytes(id) - start - overhead;
+            rc = Math.min(rc, Math.max(0, allocated) / BATCH_SIZE);
+        }
+        return rc;
+    }
+
+    /**
+     * Fails if the operation allocates more than <code>budget</code> bytes
+     * per call, skips the test if allocations cannot be measured.
+     */
+    public static void assertBudget(String name, long budget, Operation op) throws Exception {
+        assumeTrue(isSupported());
+        long allocated = measure(op);
+        assertTrue(name + " allocated " + allocated + " bytes per call, the budget is " + budget, allocated <= budget);
+    }
+}
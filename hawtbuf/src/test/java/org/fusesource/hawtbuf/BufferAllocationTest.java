@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf;
+
+import org.junit.Test;
+
+import static org.fusesource.hawtbuf.AllocationMeter.assertBudget;
+import static org.fusesource.hawtbuf.AllocationMeter.sink;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Allocation budgets for the hot Buffer operations.
+ */
+public class BufferAllocationTest {
+
+    final Buffer buffer = new Buffer(new AsciiBuffer("the,quick,brown,fox"));
+
+    @Test()
+    public void testHashCode() throws Exception {
+        assertBudget("Buffer.hashCode", 0, new AllocationMeter.Operation() {
+            int hash;
+
+            public void run() {
+                hash += buffer.hashCode();
+            }
+        });
+    }
+
+    @Test()
+    public void testHashCodeValues() {
+        byte[] data = new byte[13];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 37 + 200);
+        }
+        for (int offset = 0; offset < 4; offset++) {
+            for (int length = 0; length + offset <= data.length; length++) {
+                Buffer b = new Buffer(data, offset, length);
+                assertEquals(referenceHashCode(b), b.hashCode());
+            }
+        }
+    }
+
+    @Test()
+    public void testEquals() throws Exception {
+        final Buffer other = new Buffer(new AsciiBuffer("the,quick,brown,fox"));
+        assertBudget("Buffer.equals", 0, new AllocationMeter.Operation() {
+            int count;
+
+            public void run() {
+                if (buffer.equals(other)) {
+                    count++;
+                }
+            }
+        });
+    }
+
+    @Test()
+    public void testSplit() throws Exception {
+        // the result array, the list that collects them and 4 slices.
+        assertBudget("Buffer.split", 256, new AllocationMeter.Operation() {
+            public void run() {
+                sink = buffer.split((byte) ',');
+            }
+        });
+    }
+
+    @Test()
+    public void testToString() throws Exception {
+        // the decoded string and the concatenation.
+        assertBudget("Buffer.toString", 640, new AllocationMeter.Operation() {
+            public void run() {
+                sink = buffer.toString();
+            }
+        });
+    }
+
+    @Test()
+    public void testSlice() throws Exception {
+        // just the new Buffer instance.
+        assertBudget("Buffer.slice", 32, new AllocationMeter.Operation() {
+            public void run() {
+                sink = buffer.slice(4, 9);
+            }
+        });
+    }
+
+    /**
+     * The original Buffer.hashCode implementation.
+     */
+    private static int referenceHashCode(Buffer b) {
+        byte[] target = new byte[4];
+        for (int i = 0; i < b.length; i++) {
+            target[i % 4] ^= b.data[b.offset + i];
+        }
+        return target[0] << 24 | target[1] << 16 | target[2] << 8 | target[3];
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf;
+
+import java.io.EOFException;
+import java.net.ProtocolException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChecksumFrameSupportTest {
+
+    @Test()
+    public void testCRC32C() throws Exception {
+        byte[] data = "123456789".getBytes("US-ASCII");
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        assertEquals(0xE3069283L, crc.getValue());
+
+        crc.reset();
+        for (byte b : data) {
+            crc.update(b);
+        }
+        assertEquals(0xE3069283L, crc.getValue());
+        assertEquals(0xE3069283L, checksumOf(CRC32C.newInstance(), data));
+    }
+
+    @Test()
+    public void testRoundTrip() throws Exception {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream();
+        for (int i = 0; i < 300; i += 7) {
+            ChecksumFrameSupport.writeFrame(out, payload(i));
+        }
+        Buffer frames = out.toBuffer();
+        assertEquals(frames.length, ChecksumFrameSupport.validateFrames(frames, 1024));
+
+        DataByteArrayInputStream in = new DataByteArrayInputStream(frames);
+        for (int i = 0; i < 300; i += 7) {
+            assertEquals(payload(i), ChecksumFrameSupport.readFrame(in, 1024));
+        }
+        assertEquals(0, in.available());
+
+        java.io.DataInputStream dis = new java.io.DataInputStream(new BufferInputStream(frames));
+        for (int i = 0; i < 300; i += 7) {
+            assertEquals(payload(i), ChecksumFrameSupport.readFrame(dis, 1024));
+        }
+    }
+
+    @Test()
+    public void testTornWrite() throws Exception {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream();
+        ChecksumFrameSupport.writeFrame(out, payload(10));
+        int firstFrame = out.size();
+        ChecksumFrameSupport.writeFrame(out, payload(200));
+        Buffer torn = new Buffer(out.getData(), 0, out.size() - 3);
+
+        assertEquals(firstFrame, ChecksumFrameSupport.validateFrames(torn, 1024));
+        DataByteArrayInputStream in = new DataByteArrayInputStream(torn);
+        ChecksumFrameSupport.readFrame(in, 1024);
+        try {
+            ChecksumFrameSupport.readFrame(in, 1024);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+        }
+        assertEquals(firstFrame, in.getPos());
+    }
+
+    @Test()
+    public void testCorruption() throws Exception {
+        Buffer frame = ChecksumFrameSupport.toFrame(payload(50));
+        frame.data[frame.offset + 20] ^= 0x01;
+        assertEquals(0, ChecksumFrameSupport.validateFrames(frame, 1024));
+        try {
+            ChecksumFrameSupport.readFrame(new DataByteArrayInputStream(frame), 1024);
+            fail("expected ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+
+        // A corrupted length must be rejected before it is used to allocate.
+        Buffer huge = new Buffer(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F, 1, 2, 3});
+        try {
+            ChecksumFrameSupport.readFrame(new java.io.DataInputStream(new BufferInputStream(huge)), 1024);
+            fail("expected ProtocolException");
+        } catch (ProtocolException expected) {
+        }
+    }
+
+    private static long checksumOf(java.util.zip.Checksum checksum, byte[] data) {
+        checksum.update(data, 0, data.length);
+        return checksum.getValue();
+    }
+
+    private static Buffer payload(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return new Buffer(data);
+    }
+}
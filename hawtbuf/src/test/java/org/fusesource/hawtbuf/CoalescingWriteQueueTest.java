@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CoalescingWriteQueueTest {
+
+    /**
+     * Accepts up to chunkSize bytes per write and checks the batch caps.
+     */
+    static class RecordingChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final int chunkSize;
+        final int maxCount;
+        int writes;
+
+        RecordingChannel(int chunkSize, int maxCount) {
+            this.chunkSize = chunkSize;
+            this.maxCount = maxCount;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            assertTrue(length > 0 && length <= maxCount);
+            writes++;
+            int count = 0;
+            for (int i = offset; i < offset + length && count < chunkSize; i++) {
+                ByteBuffer src = srcs[i];
+                int n = Math.min(src.remaining(), chunkSize - count);
+                written.write(src.array(), src.arrayOffset() + src.position(), n);
+                src.position(src.position() + n);
+                count += n;
+            }
+            return count;
+        }
+
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src}, 0, 1);
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    private static Buffer frame(int producer, int seq) {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream(8);
+        try {
+            out.writeInt(producer);
+            out.writeInt(seq);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toBuffer();
+    }
+
+    @Test()
+    public void testCoalescing() throws IOException {
+        CoalescingWriteQueue queue = new CoalescingWriteQueue(16, 1024);
+        RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE, 16);
+        for (int i = 0; i < 100; i++) {
+            queue.offer(frame(0, i));
+        }
+        while (!queue.isEmpty()) {
+            queue.flush(channel);
+        }
+        assertEquals(0, queue.flush(channel));
+        assertEquals(7, channel.writes);
+        assertEquals(7, queue.getWriteCount());
+        assertEquals(100, queue.getBufferCount());
+        assertEquals(800, queue.getByteCount());
+        assertEquals(100.0 / 7, queue.getAverageBatchSize(), 0.001);
+        assertTrue(queue.getMaxLatency() >= queue.getAverageLatency());
+
+        // the byte cap stops filling the batch.
+        queue = new CoalescingWriteQueue(16, 20);
+        channel = new RecordingChannel(Integer.MAX_VALUE, 3);
+        for (int i = 0; i < 9; i++) {
+            queue.offer(frame(0, i));
+        }
+        while (!queue.isEmpty()) {
+            queue.flush(channel);
+        }
+        assertEquals(3, channel.writes);
+    }
+
+    @Test()
+    public void testEmptyBuffers() throws IOException {
+        CoalescingWriteQueue queue = new CoalescingWriteQueue(16, 1024);
+        RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE, 16);
+        queue.offer(new Buffer(0));
+        assertEquals(0, queue.flush(channel));
+        assertTrue(queue.isEmpty());
+        assertEquals(0, channel.writes);
+
+        queue.offer(frame(0, 1));
+        queue.offer(new Buffer(new byte[8], 4, 0));
+        queue.offer(frame(0, 2));
+        assertEquals(16, queue.flush(channel));
+        assertTrue(queue.isEmpty());
+        assertEquals(2, queue.getBufferCount());
+    }
+
+    @Test()
+    public void testProducers() throws Exception {
+        final int producers = 4;
+        final int frames = 10000;
+        final CoalescingWriteQueue queue = new CoalescingWriteQueue(32, 4096);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread("producer-" + p) {
+                public void run() {
+                    for (int i = 0; i < frames; i++) {
+                        queue.offer(frame(producer, i));
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        // a small chunk size leaves partially written buffers behind.
+        RecordingChannel channel = new RecordingChannel(37, 32);
+        while (done.getCount() > 0 || !queue.isEmpty()) {
+            queue.flush(channel);
+        }
+
+        assertEquals(producers * frames, queue.getBufferCount());
+        DataInputStream in = new DataInputStream(new BufferInputStream(channel.written.toBuffer()));
+        int[] next = new int[producers];
+        for (int i = 0; i < producers * frames; i++) {
+            int producer = in.readInt();
+            assertEquals(next[producer]++, in.readInt());
+        }
+        assertEquals(0, in.available());
+    }
+}
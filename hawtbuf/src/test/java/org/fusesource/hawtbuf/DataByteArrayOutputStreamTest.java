@@ -20,6 +20,8 @@ import java.io.IOException;
 
 import org.junit.Test;
 
+import static org.junit.Assert.*;
+
 /**
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
@@ -91,6 +93,29 @@ public class DataByteArrayOutputStreamTest {
         out.write(new byte[10]);
     }
 
+    @Test()
+    public void testLengthPrefix() throws IOException {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream(16);
+        int outer = out.reserveLength(DataByteArrayOutputStream.LengthPrefix.INT);
+        int padded = out.reserveLength(DataByteArrayOutputStream.LengthPrefix.PADDED_VARINT);
+        out.write(new byte[200]);
+        assertEquals(200, out.patchLength(padded, DataByteArrayOutputStream.LengthPrefix.PADDED_VARINT));
+        int compact = out.reserveLength(DataByteArrayOutputStream.LengthPrefix.VARINT);
+        out.writeLong(42);
+        assertEquals(8, out.patchLength(compact, DataByteArrayOutputStream.LengthPrefix.VARINT));
+        // the compact varint gave back 4 bytes.
+        assertEquals(5 + 200 + 1 + 8, out.patchLength(outer, DataByteArrayOutputStream.LengthPrefix.INT));
+        assertEquals(4 + 5 + 200 + 1 + 8, out.position());
+
+        DataByteArrayInputStream in = new DataByteArrayInputStream(out.toBuffer());
+        assertEquals(214, in.readInt());
+        assertEquals(200, in.readVarInt());
+        in.skip(200);
+        assertEquals(8, in.readVarInt());
+        assertEquals(42, in.readLong());
+        assertEquals(0, in.available());
+    }
+
     /**
      * This method restarts the stream to the init size, and fills it up with data
      * @param out
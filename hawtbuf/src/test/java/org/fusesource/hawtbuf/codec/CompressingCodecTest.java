@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.hawtbuf.codec;
+
+import java.util.Random;
+
+import org.fusesource.hawtbuf.Buffer;
+import org.fusesource.hawtbuf.DataByteArrayInputStream;
+import org.fusesource.hawtbuf.DataByteArrayOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CompressingCodecTest {
+
+    @Test()
+    public void testSmallValuesAreStored() throws Exception {
+        CompressingCodec<Buffer> codec = new CompressingCodec<Buffer>(BufferCodec.INSTANCE, 64, CompressingCodec.Algorithm.LZ4);
+        Buffer value = new Buffer("hello hello hello hello".getBytes("UTF-8"));
+        Buffer encoded = encode(codec, value);
+        // header + the buffer codec's own length prefix
+        assertEquals(1 + 4 + value.length, encoded.length);
+        assertEquals(value, decode(codec, encoded));
+    }
+
+    @Test()
+    public void testCompressibleValues() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("message ").append(i % 7).append(" of a very repetitive payload, ");
+        }
+        Buffer value = new Buffer(sb.toString().getBytes("UTF-8"));
+        for (CompressingCodec.Algorithm algorithm : CompressingCodec.Algorithm.values()) {
+            CompressingCodec<Buffer> codec = new CompressingCodec<Buffer>(BufferCodec.INSTANCE, 64, algorithm);
+            Buffer encoded = encode(codec, value);
+            assertTrue(algorithm + " did not compress", encoded.length < value.length / 4);
+            assertEquals(value, decode(codec, encoded));
+        }
+    }
+
+    @Test()
+    public void testIncompressibleAndEdgeValues() throws Exception {
+        Random random = new Random(1234);
+        int sizes[] = new int[]{0, 1, 12, 13, 14, 100, 4096, 70000};
+        for (CompressingCodec.Algorithm algorithm : CompressingCodec.Algorithm.values()) {
+            CompressingCodec<Buffer> codec = new CompressingCodec<Buffer>(BufferCodec.INSTANCE, 0, algorithm);
+            for (int size : sizes) {
+                byte[] data = new byte[size];
+                random.nextBytes(data);
+                // make the tail repetitive so that matches span the end of the block.
+                for (int i = size / 2; i < size; i++) {
+                    data[i] = (byte) (i % 13);
+                }
+                Buffer value = new Buffer(data);
+                assertEquals(value, decode(codec, encode(codec, value)));
+            }
+        }
+    }
+
+    @Test()
+    public void testNestedCodecs() throws Exception {
+        CompressingCodec<Buffer> inner = new CompressingCodec<Buffer>(BufferCodec.INSTANCE, 0, CompressingCodec.Algorithm.LZ4);
+        CompressingCodec<Buffer> outer = new CompressingCodec<Buffer>(inner, 0, CompressingCodec.Algorithm.DEFLATE);
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 100);
+        }
+        Buffer value = new Buffer(data);
+        assertEquals(value, decode(outer, encode(outer, value)));
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testCorruptData() throws Exception {
+        CompressingCodec<Buffer> codec = new CompressingCodec<Buffer>(BufferCodec.INSTANCE, 0, CompressingCodec.Algorithm.LZ4);
+        byte[] data = new byte[1000];
+        Buffer encoded = encode(codec, new Buffer(data)).deepCopy();
+        // claim one more uncompressed byte than the compressed data holds,
+        // the length follows the header as a varint.
+        encoded.data[encoded.offset + 1]++;
+        decode(codec, encoded);
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testMaxLength() throws Exception {
+        CompressingCodec<Buffer> codec = new CompressingCodec<Buffer>(BufferCodec.INSTANCE, 0, CompressingCodec.Algorithm.LZ4, 0, 100);
+        Buffer encoded = encode(codec, new Buffer(new byte[200]));
+        decode(codec, encoded);
+    }
+
+    private static <T> Buffer encode(Codec<T> codec, T value) throws Exception {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream();
+        codec.encode(value, out);
+        return out.toBuffer();
+    }
+
+    private static <T> T decode(Codec<T> codec, Buffer encoded) throws Exception {
+        DataByteArrayInputStream in = new DataByteArrayInputStream(encoded);
+        T rc = codec.decode(in);
+        assertEquals(0, in.available());
+        return rc;
+    }
+}